@@ -0,0 +1,151 @@
+/**
+   AdjacencyIndex is an immutable directed graph stored in compressed
+   sparse row (CSR) form: the targets of every node are kept in one int
+   array, and a second array holds the offset at which each node's targets
+   begin.  Nodes are the ids handed out by a FrameTable.
+
+   See README file for license details
+*/
+
+class AdjacencyIndex
+{
+    /**
+       Private constructor; use a Builder.
+    */
+    private AdjacencyIndex(int[] offsets, int[] targets)
+    {
+	this.offsets = offsets;
+	this.targets = targets;
+    }
+
+    /**
+       Returns the number of source nodes in the graph.
+       @return the number of nodes
+    */
+    int nodeCount()
+    {
+	return offsets.length - 1;
+    }
+
+    /**
+       Returns the number of targets of a node.
+       @param node a node id
+       @return the out-degree of node, or 0 if node is outside the graph
+    */
+    int degree(int node)
+    {
+	if (node < 0 || node >= nodeCount())
+	{
+	    return 0;
+	}
+	return offsets[node + 1] - offsets[node];
+    }
+
+    /**
+       Returns the targets of a node.
+       @param node a node id
+       @return a fresh array of target ids, empty if node is outside the
+       graph
+    */
+    int[] targets(int node)
+    {
+	int n = degree(node);
+	int[] result = new int[n];
+	if (n > 0)
+	{
+	    System.arraycopy(targets, offsets[node], result, 0, n);
+	}
+	return result;
+    }
+
+    /**
+       Returns one target of a node without copying.
+       @param node a node id
+       @param i the position of the target, less than degree(node)
+       @return the target id
+    */
+    int target(int node, int i)
+    {
+	return targets[offsets[node] + i];
+    }
+
+    /**
+       Builds the reverse graph, in which every edge points the other way.
+       @param targetCount the number of distinct target ids
+       @return the reversed AdjacencyIndex
+    */
+    AdjacencyIndex reverse(int targetCount)
+    {
+	Builder builder = new Builder();
+	for (int node = 0; node < nodeCount(); node++)
+	{
+	    for (int i = offsets[node]; i < offsets[node + 1]; i++)
+	    {
+		builder.add(targets[i], node);
+	    }
+	}
+	return builder.build(targetCount);
+    }
+
+    /**
+       Collects edges in any order and packs them into an AdjacencyIndex.
+    */
+    static class Builder
+    {
+	/**
+	   Adds an edge.  Duplicate edges are kept.
+	   @param from the source node id
+	   @param to the target node id
+	*/
+	void add(int from, int to)
+	{
+	    if (size == sources.length)
+	    {
+		int[] grownSources = new int[size * 2];
+		int[] grownTargets = new int[size * 2];
+		System.arraycopy(sources, 0, grownSources, 0, size);
+		System.arraycopy(edgeTargets, 0, grownTargets, 0, size);
+		sources = grownSources;
+		edgeTargets = grownTargets;
+	    }
+	    sources[size] = from;
+	    edgeTargets[size] = to;
+	    size++;
+	}
+
+	/**
+	   Packs the collected edges with a counting sort on the source.
+	   Targets of a node keep the order in which they were added.
+	   @param nodeCount the number of source nodes; must exceed every
+	   source id added
+	   @return the packed AdjacencyIndex
+	*/
+	AdjacencyIndex build(int nodeCount)
+	{
+	    int[] offsets = new int[nodeCount + 1];
+	    for (int i = 0; i < size; i++)
+	    {
+		offsets[sources[i] + 1]++;
+	    }
+	    for (int node = 0; node < nodeCount; node++)
+	    {
+		offsets[node + 1] += offsets[node];
+	    }
+	    int[] next = new int[nodeCount];
+	    System.arraycopy(offsets, 0, next, 0, nodeCount);
+	    int[] packed = new int[size];
+	    for (int i = 0; i < size; i++)
+	    {
+		packed[next[sources[i]]++] = edgeTargets[i];
+	    }
+	    return new AdjacencyIndex(offsets, packed);
+	}
+
+	private int[] sources = new int[64]; // source of each edge
+	private int[] edgeTargets = new int[64]; // target of each edge
+	private int size = 0; // number of edges added
+    }
+
+    private final int[] offsets; // start of each node's targets, plus end
+    private final int[] targets; // targets of all nodes, grouped by node
+}
@@ -0,0 +1,275 @@
+/**
+   AdmissionCheck exercises the ConcurrencyLimiter without a server, by
+   acquiring slots and releasing them with made-up latencies: cheap and
+   expensive kinds of call mixed together leave the limit where it was,
+   and calls that slow down against their own kind cut it.  It also
+   checks that connects are retried and cut short by a CircuitBreaker,
+   against a StandInServer that comes and goes, and the order in which a
+   QueryScheduler grants slots to waiting threads.  It prints one line per
+   check and exits with status 1 if any failed.
+
+   Usage: java AdmissionCheck
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.util.*;
+
+public class AdmissionCheck
+{
+    public static void main(String[] args)
+    {
+	String[] names = {
+	    "mixed call costs do not cut the limit",
+	    "calls slower than their own kind cut the limit",
+	    "connects are retried and an open breaker fails fast",
+	    "scheduler serves interactive calls first and callers in turn"
+	};
+	int failures = 0;
+	for (int i = 0; i < names.length; i++)
+	{
+	    try
+	    {
+		run(i);
+		System.out.println("ok\t" + names[i]);
+	    }
+	    catch (Exception e)
+	    {
+		failures++;
+		System.out.println("FAILED\t" + names[i] + ": " + e);
+	    }
+	}
+	System.exit((failures == 0) ? 0 : 1);
+    }
+
+    private static void run(int check) throws Exception
+    {
+	switch (check)
+	{
+	case 0: mixedCosts(); break;
+	case 1: slowerThanOwnKind(); break;
+	case 2: retryAndBreaker(); break;
+	case 3: scheduling(); break;
+	}
+    }
+
+    /**
+       A 1 ms lookup and a 500 ms class scan, alternating with the limit
+       in use, raise the limit instead of collapsing it.
+    */
+    private static void mixedCosts()
+    {
+	ConcurrencyLimiter limiter =
+	    new ConcurrencyLimiter(8, 1, 64, 1000, 1000);
+	for (int i = 0; i < 200; i++)
+	{
+	    fill(limiter);
+	    release(limiter, "get-slot-value", MILLIS);
+	    release(limiter, "get-class-all-instances", 500 * MILLIS);
+	    drain(limiter);
+	}
+	expect(limiter.getLimit() >= 8, "limit fell to " + limiter.getLimit());
+    }
+
+    /**
+       Once a kind of call has been fast, the same kind taking ten times
+       as long cuts the limit, as does a failure.
+    */
+    private static void slowerThanOwnKind()
+    {
+	ConcurrencyLimiter limiter =
+	    new ConcurrencyLimiter(32, 1, 64, 1000, 1000);
+	limiter.acquire();
+	limiter.release("all-rxns", 50 * MILLIS, true);
+	for (int i = 0; i < 10; i++)
+	{
+	    limiter.acquire();
+	    limiter.release("all-rxns", 500 * MILLIS, true);
+	}
+	int afterSlow = limiter.getLimit();
+	expect(afterSlow < 32 && afterSlow > 8,
+	       "limit " + afterSlow + " after slow calls");
+	limiter.acquire();
+	limiter.release("get-slot-value", MILLIS, false);
+	expect(limiter.getLimit() < afterSlow, "failure did not cut the limit");
+    }
+
+    /**
+       Calls to a server that is not there fail once their connects are
+       used up, and open the breaker; while it is open calls fail without
+       connecting, and once it has been open long enough a call that
+       connects closes it.  A call made while the server is restarting
+       connects on a retry.
+    */
+    private static void retryAndBreaker() throws Exception
+    {
+	new File(SOCKET).delete();
+	Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	cyc.setRetryPolicy(new RetryPolicy(3, 10, 20));
+	CircuitBreaker breaker = new CircuitBreaker(3, 300);
+	cyc.setCircuitBreaker(breaker);
+	expect(unavailable(cyc), "call to a missing server did not fail");
+	expect(breaker.isOpen(), "failed connects did not open the breaker");
+	StandInServer server = new StandInServer(SOCKET);
+	server.start();
+	try
+	{
+	    expect(unavailable(cyc), "open breaker let a call through");
+	    Thread.sleep(400);
+	    cyc.allPathways();
+	    expect(!breaker.isOpen(), "connecting probe did not close it");
+	}
+	finally
+	{
+	    server.close();
+	}
+
+	cyc = new Javacyc("ECOLI", SOCKET);
+	cyc.setRetryPolicy(new RetryPolicy(20, 20, 40));
+	final StandInServer restarted = new StandInServer(SOCKET);
+	Thread restart = new Thread() {
+		public void run()
+		{
+		    try
+		    {
+			Thread.sleep(100);
+			restarted.start();
+		    }
+		    catch (Exception e)
+		    {
+			e.printStackTrace();
+		    }
+		}
+	    };
+	restart.start();
+	try
+	{
+	    cyc.allPathways();
+	}
+	finally
+	{
+	    restart.join();
+	    restarted.close();
+	}
+    }
+
+    /**
+       With both slots held, batch calls a1, a2 and b1 and then an
+       interactive call c1 wait.  Freed slots go to c1 first, then to the
+       batch callers in turn, a1, b1, a2, and never to a second batch call
+       while one holds the only batch slot.
+    */
+    private static void scheduling() throws Exception
+    {
+	QueryScheduler scheduler = new QueryScheduler(2, 1);
+	List granted = Collections.synchronizedList(new ArrayList());
+	scheduler.acquire(QueryScheduler.BATCH, "main");
+	scheduler.acquire(QueryScheduler.INTERACTIVE, "main");
+	queue(scheduler, QueryScheduler.BATCH, "a", "a1", granted);
+	queue(scheduler, QueryScheduler.BATCH, "a", "a2", granted);
+	queue(scheduler, QueryScheduler.BATCH, "b", "b1", granted);
+	queue(scheduler, QueryScheduler.INTERACTIVE, "c", "c1", granted);
+	scheduler.release(QueryScheduler.INTERACTIVE);
+	awaitGrants(granted, 1);
+	scheduler.release(QueryScheduler.BATCH);
+	awaitGrants(granted, 2);
+	// c1 leaves; its slot may not go to a second batch call
+	scheduler.release(QueryScheduler.INTERACTIVE);
+	Thread.sleep(100);
+	expect(granted.size() == 2, "batch slots overrun: " + granted);
+	scheduler.release(QueryScheduler.BATCH);
+	awaitGrants(granted, 3);
+	scheduler.release(QueryScheduler.BATCH);
+	awaitGrants(granted, 4);
+	scheduler.release(QueryScheduler.BATCH);
+	expect(granted.equals(Arrays.asList(new String[] {
+			"c1", "a1", "b1", "a2"})),
+	       "granted in the order " + granted);
+    }
+
+    // Starts a thread that queues for a slot, and waits until it is
+    // queued; the thread records its name once granted, and keeps the slot
+    private static void queue(final QueryScheduler scheduler,
+			      final int priority, final String caller,
+			      final String name, final List granted)
+	throws InterruptedException
+    {
+	int waiting = scheduler.getWaiting(priority);
+	Thread thread = new Thread() {
+		public void run()
+		{
+		    scheduler.acquire(priority, caller);
+		    granted.add(name);
+		}
+	    };
+	thread.setDaemon(true);
+	thread.start();
+	while (scheduler.getWaiting(priority) == waiting)
+	{
+	    Thread.sleep(1);
+	}
+    }
+
+    // Waits until count slots have been granted
+    private static void awaitGrants(List granted, int count)
+	throws InterruptedException
+    {
+	long deadline = System.currentTimeMillis() + 5000;
+	while (granted.size() < count)
+	{
+	    expect(System.currentTimeMillis() < deadline,
+		   "only granted " + granted);
+	    Thread.sleep(1);
+	}
+    }
+
+    // Whether a call fails for want of a server
+    private static boolean unavailable(Javacyc cyc)
+    {
+	try
+	{
+	    cyc.allPathways();
+	    return false;
+	}
+	catch (ServerUnavailableException e)
+	{
+	    return true;
+	}
+    }
+
+    // Takes every slot, so that releases count as the limit in use
+    private static void fill(ConcurrencyLimiter limiter)
+    {
+	while (limiter.getInFlight() < limiter.getLimit())
+	{
+	    limiter.acquire();
+	}
+    }
+
+    // Gives back the slots fill took, without judging them
+    private static void drain(ConcurrencyLimiter limiter)
+    {
+	while (limiter.getInFlight() > 0)
+	{
+	    limiter.cancel();
+	}
+    }
+
+    private static void release(ConcurrencyLimiter limiter, Object kind,
+				long latency)
+    {
+	limiter.release(kind, latency, true);
+    }
+
+    private static void expect(boolean condition, String failure)
+    {
+	if (!condition)
+	{
+	    throw new IllegalStateException(failure);
+	}
+    }
+
+    private static final long MILLIS = 1000000; // nanoseconds
+    private static final String SOCKET = "/tmp/javacyc-check-admission";
+}
@@ -0,0 +1,166 @@
+/**
+   BinaryDecoder reads responses sent in Javacyc's binary encoding, which
+   the server produces with JAVACYC-ENCODE from javacyc.lisp.
+
+   The whole response is read into one byte array.  The escapes added when
+   the server prints the encoded string are removed in place, and the
+   tagged values are then decoded straight from the array: strings are
+   created from slices of it, and no tokens or intermediate strings are
+   built.
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.util.*;
+
+class BinaryDecoder
+{
+    /**
+       Reads and decodes a response.
+       @param in the response stream, read to the end
+       @return the decoded value as the text parser would return it: an
+       ArrayList, with NIL at the top level as an empty ArrayList
+       @throws IOException if the response cannot be read or is malformed
+    */
+    static ArrayList decode(InputStream in) throws IOException
+    {
+	byte[] bytes = new byte[8192];
+	int length = 0;
+	int n = in.read(bytes, 0, bytes.length);
+	while (n >= 0)
+	{
+	    length += n;
+	    if (length == bytes.length)
+	    {
+		byte[] grown = new byte[bytes.length * 2];
+		System.arraycopy(bytes, 0, grown, 0, length);
+		bytes = grown;
+	    }
+	    n = in.read(bytes, length, bytes.length - length);
+	}
+	return decode(bytes, length);
+    }
+
+    /**
+       Decodes a response held in an array.  The array is modified.
+       @param bytes the response
+       @param length the number of bytes of the response
+       @return the decoded value, as for decode(InputStream)
+       @throws IOException if the response is malformed
+    */
+    static ArrayList decode(byte[] bytes, int length) throws IOException
+    {
+	int start = 0;
+	while (start < length && bytes[start] != '"')
+	{
+	    start++;
+	}
+	if (start == length)
+	{
+	    return new ArrayList(); // NIL or an error instead of a string
+	}
+	// Remove the printer's escapes in place, up to the closing quote
+	int end = start + 1;
+	for (int i = start + 1; i < length && bytes[i] != '"'; i++)
+	{
+	    if (bytes[i] == '\\')
+	    {
+		i++;
+	    }
+	    bytes[end++] = bytes[i];
+	}
+	BinaryDecoder decoder = new BinaryDecoder(bytes, start + 1, end);
+	Object value = decoder.value();
+	return (value instanceof ArrayList) ? (ArrayList)value
+	    : Javacyc.asList(value);
+    }
+
+    private BinaryDecoder(byte[] bytes, int position, int end)
+    {
+	this.bytes = bytes;
+	this.position = position;
+	this.end = end;
+    }
+
+    /**
+       Decodes the value at the current position.
+    */
+    private Object value() throws IOException
+    {
+	if (position >= end)
+	{
+	    throw new IOException("truncated binary response");
+	}
+	byte tag = bytes[position];
+	if (tag == 'n')
+	{
+	    position++;
+	    return "NIL";
+	}
+	if (tag == 'l')
+	{
+	    position++;
+	    ArrayList list = new ArrayList();
+	    while (position < end && bytes[position] != 'e')
+	    {
+		list.add(value());
+	    }
+	    position++; // the e
+	    return list;
+	}
+	int count = 0;
+	while (position < end && bytes[position] != ':')
+	{
+	    byte digit = bytes[position++];
+	    if (digit < '0' || digit > '9')
+	    {
+		throw new IOException("bad tag in binary response: "
+				      + (char)digit);
+	    }
+	    count = count * 10 + (digit - '0');
+	}
+	position++; // the colon
+	return text(count);
+    }
+
+    /**
+       Decodes a string of count characters.  ASCII, which covers frame
+       ids, is copied directly; anything else is decoded as UTF-8.
+    */
+    private String text(int count) throws IOException
+    {
+	int ascii = 0;
+	while (ascii < count && position + ascii < end
+	       && bytes[position + ascii] >= 0)
+	{
+	    ascii++;
+	}
+	if (ascii == count)
+	{
+	    String s = new String(bytes, position, count, "ISO-8859-1");
+	    position += count;
+	    return s;
+	}
+	StringBuffer buffer = new StringBuffer(count);
+	buffer.append(new String(bytes, position, ascii, "ISO-8859-1"));
+	position += ascii;
+	for (int i = ascii; i < count; i++)
+	{
+	    int b = bytes[position] & 0xFF;
+	    int extra = (b >= 0xF0) ? 3 : (b >= 0xE0) ? 2 : (b >= 0xC0) ? 1 : 0;
+	    if (position + extra >= end)
+	    {
+		throw new IOException("truncated binary response");
+	    }
+	    String c = new String(bytes, position, extra + 1, "UTF-8");
+	    buffer.append(c);
+	    position += extra + 1;
+	}
+	return buffer.toString();
+    }
+
+    private final byte[] bytes; // the unescaped response
+    private int position; // next byte to decode
+    private final int end; // end of the encoded value
+}
@@ -0,0 +1,512 @@
+/**
+   CacheCheck exercises the query caches and the QueryGateway against
+   StandInServer, without Pathway Tools: failed responses and expressions
+   that modify the KB are not cached, a torn entry of the persistent cache
+   is not served, identical queries through the gateway share one
+   upstream call, non-ASCII queries keep their cache keys, a client that
+   never finishes its query is disconnected, and the Prefetcher fills the
+   cache with learned follow-up calls but never with a short answer.  A
+   session replayed by ReplayServer fails the queries it did not record.
+   It prints one line per check and exits with status 1 if any failed.
+
+   Usage: java CacheCheck
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class CacheCheck
+{
+    public static void main(String[] args)
+    {
+	String[] names = {
+	    "failed responses are not cached",
+	    "gateway coalesces identical queries",
+	    "gateway does not cache failed upstream answers",
+	    "gateway keeps UTF-8 queries intact",
+	    "gateway disconnects stalled clients",
+	    "prefetcher answers learned follow-up calls from the cache",
+	    "prefetcher drops short batch answers",
+	    "expressions that modify the KB are not cached",
+	    "torn persistent cache entries are dropped on open",
+	    "replayed sessions fail queries that were not recorded"
+	};
+	int failures = 0;
+	for (int i = 0; i < names.length; i++)
+	{
+	    try
+	    {
+		run(i);
+		System.out.println("ok\t" + names[i]);
+	    }
+	    catch (Exception e)
+	    {
+		failures++;
+		System.out.println("FAILED\t" + names[i] + ": " + e);
+	    }
+	}
+	System.exit((failures == 0) ? 0 : 1);
+    }
+
+    private static void run(int check) throws Exception
+    {
+	switch (check)
+	{
+	case 0: failedResponsesNotCached(); break;
+	case 1: gatewayCoalesces(); break;
+	case 2: gatewayFailuresNotCached(); break;
+	case 3: gatewayUtf8(); break;
+	case 4: gatewayReadTimeout(); break;
+	case 5: prefetchFillsCache(false); break;
+	case 6: prefetchFillsCache(true); break;
+	case 7: modifyingExpressionsNotCached(); break;
+	case 8: tornEntriesDropped(); break;
+	case 9: replayMisses(); break;
+	}
+    }
+
+    /**
+       An empty response and an error message are not cached; the first
+       good response is, and answers the next call.
+    */
+    private static void failedResponsesNotCached() throws Exception
+    {
+	StandInServer server = scripted(SOCKET, new String[] {
+		"", "Error: FOO is not a frame\n", "(RXN-1 RXN-2)\n"});
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    MemoryQueryCache cache = new MemoryQueryCache(1 << 20);
+	    cyc.setQueryCache(cache);
+	    for (int i = 0; i < 2; i++)
+	    {
+		try
+		{
+		    cyc.getReactionList("PWY-1");
+		}
+		catch (RuntimeException e)
+		{
+		    // the empty response does not parse
+		}
+		expect(cache.size() == 0, "failure " + i + " was cached");
+	    }
+	    expect(cyc.getReactionList("PWY-1").size() == 2, "wrong result");
+	    expect(cyc.getReactionList("PWY-1").size() == 2, "wrong result");
+	    expect(server.getRequestCount() == 3,
+		   server.getRequestCount() + " upstream queries, not 3");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       Concurrent identical queries through the gateway reach the server
+       once.
+    */
+    private static void gatewayCoalesces() throws Exception
+    {
+	StandInServer server = new StandInServer(SOCKET);
+	server.setServiceTime(300);
+	server.start();
+	QueryGateway gateway = gateway(SOCKET);
+	try
+	{
+	    final Javacyc client = new Javacyc("ECOLI", GATEWAY_SOCKET);
+	    final CountDownLatch start = new CountDownLatch(1);
+	    Thread[] threads = new Thread[20];
+	    final AtomicInteger answered = new AtomicInteger();
+	    for (int i = 0; i < threads.length; i++)
+	    {
+		threads[i] = new Thread() {
+			public void run()
+			{
+			    try
+			    {
+				start.await();
+				if (client.allPathways().size() > 0)
+				{
+				    answered.incrementAndGet();
+				}
+			    }
+			    catch (Exception e)
+			    {
+				// counted as unanswered
+			    }
+			}
+		    };
+		threads[i].start();
+	    }
+	    start.countDown();
+	    for (int i = 0; i < threads.length; i++)
+	    {
+		threads[i].join();
+	    }
+	    expect(answered.get() == threads.length,
+		   answered.get() + " of " + threads.length + " answered");
+	    expect(server.getRequestCount() == 1,
+		   server.getRequestCount() + " upstream queries, not 1");
+	}
+	finally
+	{
+	    gateway.close();
+	    server.close();
+	}
+    }
+
+    /**
+       An error answer from upstream reaches the client that asked, but
+       the next client gets a fresh answer instead of the cached error.
+    */
+    private static void gatewayFailuresNotCached() throws Exception
+    {
+	StandInServer server = scripted(SOCKET, new String[] {
+		"Error: server busy\n", "(PWY-1 PWY-2 PWY-3)\n"});
+	server.start();
+	QueryGateway gateway = gateway(SOCKET);
+	try
+	{
+	    Javacyc client = new Javacyc("ECOLI", GATEWAY_SOCKET);
+	    client.allPathways();
+	    expect(client.allPathways().size() == 3, "error was cached");
+	    expect(client.allPathways().size() == 3, "wrong result");
+	    expect(server.getRequestCount() == 2,
+		   server.getRequestCount() + " upstream queries, not 2");
+	}
+	finally
+	{
+	    gateway.close();
+	    server.close();
+	}
+    }
+
+    /**
+       A query with non-ASCII text reaches the server unchanged, and a
+       repeat is answered from the gateway's cache.
+    */
+    private static void gatewayUtf8() throws Exception
+    {
+	final String name = "\u03b1-D-glucose";
+	final ArrayList received = new ArrayList();
+	StandInServer server = new StandInServer(SOCKET) {
+		protected byte[] respond(String query)
+		{
+		    synchronized (received)
+		    {
+			received.add(query);
+		    }
+		    return "(CPD-1)\n".getBytes();
+		}
+	    };
+	server.start();
+	QueryGateway gateway = gateway(SOCKET);
+	try
+	{
+	    Javacyc client = new Javacyc("ECOLI", GATEWAY_SOCKET);
+	    client.callFuncList("(find-indexed-frame \"" + name + "\")");
+	    client.callFuncList("(find-indexed-frame \"" + name + "\")");
+	    expect(received.size() == 1,
+		   received.size() + " upstream queries, not 1");
+	    expect(((String)received.get(0)).indexOf(name) >= 0,
+		   "server got " + received.get(0));
+	}
+	finally
+	{
+	    gateway.close();
+	    server.close();
+	}
+    }
+
+    /**
+       A client that connects and never sends a newline is disconnected
+       after the read timeout, and the gateway goes on serving.
+    */
+    private static void gatewayReadTimeout() throws Exception
+    {
+	StandInServer server = new StandInServer(SOCKET);
+	server.start();
+	QueryGateway gateway = gateway(SOCKET);
+	gateway.setReadTimeout(200);
+	try
+	{
+	    SocketChannel stalled = SocketChannel.open(
+		UnixDomainSocketAddress.of(GATEWAY_SOCKET));
+	    stalled.write(ByteBuffer.wrap("(all-pathways".getBytes()));
+	    long started = System.nanoTime();
+	    int n = stalled.read(ByteBuffer.allocate(16));
+	    long waited = (System.nanoTime() - started) / 1000000;
+	    stalled.close();
+	    expect(n < 0, "stalled client got a response");
+	    expect(waited < 5000, "stalled client held for " + waited + " ms");
+	    Javacyc client = new Javacyc("ECOLI", GATEWAY_SOCKET);
+	    expect(client.allPathways().size() > 0, "gateway stopped serving");
+	}
+	finally
+	{
+	    gateway.close();
+	    server.close();
+	}
+    }
+
+    /**
+       Walks pathways as a report would, calling enzymesOfReaction on each
+       reaction of getReactionList.  Once the prefetcher has learned that,
+       the enzymes of the later pathways come from the cache; unless the
+       server answers prefetch batches with one response too few, in which
+       case nothing is cached and every call goes to the server.
+    */
+    private static void prefetchFillsCache(final boolean shortAnswers)
+	throws Exception
+    {
+	final AtomicInteger single = new AtomicInteger();
+	StandInServer server = new StandInServer(SOCKET) {
+		protected byte[] respond(String query)
+		{
+		    if (query.indexOf("(prin1-to-string") >= 0)
+		    {
+			int forms = query.split("prin1-to-string").length - 1;
+			StringBuffer list = new StringBuffer("(");
+			for (int i = shortAnswers ? 1 : 0; i < forms; i++)
+			{
+			    list.append("\"(ENZ-").append(i).append(")\" ");
+			}
+			return (list + ")\n").getBytes();
+		    }
+		    int at = query.indexOf("PWY-");
+		    if (at >= 0)
+		    {
+			String p = query.substring(at + 4, query.indexOf(')', at));
+			return ("(RXN-" + p + "A RXN-" + p + "B RXN-" + p
+				+ "C)\n").getBytes();
+		    }
+		    single.incrementAndGet();
+		    return "(LIVE-ENZ)\n".getBytes();
+		}
+	    };
+	server.start();
+	Prefetcher prefetcher = new Prefetcher(1000);
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    cyc.setQueryCache(new MemoryQueryCache(1 << 20));
+	    cyc.setPrefetcher(prefetcher);
+	    for (int p = 0; p < 8; p++)
+	    {
+		ArrayList rxns = cyc.getReactionList("PWY-" + p);
+		Thread.sleep(100); // let the prefetch land
+		for (int i = 0; i < rxns.size(); i++)
+		{
+		    cyc.enzymesOfReaction((String)rxns.get(i));
+		}
+	    }
+	    // Four walks to learn, then four answered from the cache
+	    int expected = shortAnswers ? 24 : 12;
+	    expect(single.get() == expected, single.get()
+		   + " enzymesOfReaction queries, not " + expected);
+	    expect(prefetcher.getPrefetchedCount() == (shortAnswers ? 0 : 12),
+		   prefetcher.getPrefetchedCount() + " frames prefetched");
+	}
+	finally
+	{
+	    prefetcher.close();
+	    server.close();
+	}
+    }
+
+    /**
+       An expression sent with callFuncList that puts a slot value reaches
+       the server each time, and reads cached before it are fetched again
+       after it.
+    */
+    private static void modifyingExpressionsNotCached() throws Exception
+    {
+	StandInServer server = new StandInServer(SOCKET);
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    MemoryQueryCache cache = new MemoryQueryCache(1 << 20);
+	    cyc.setQueryCache(cache);
+	    String read = "(mapcar #'object-name (get-slot-values 'X 'Y))";
+	    String write = "(list (put-slot-value 'X 'Y 'Z))";
+	    cyc.callFuncList(read);
+	    cyc.callFuncList(read);
+	    expect(server.getRequestCount() == 1, "read was not cached");
+	    cyc.callFuncList(write);
+	    cyc.callFuncList(write);
+	    expect(server.getRequestCount() == 3,
+		   server.getRequestCount() + " upstream queries, not 3");
+	    cyc.callFuncList(read);
+	    expect(server.getRequestCount() == 4, "stale read was cached");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       One byte of a response on disk is changed, leaving every length
+       believable.  On reopening, the entry and those written after it in
+       its segment are gone, earlier ones are kept, and new entries are
+       written over the damage.
+    */
+    private static void tornEntriesDropped() throws Exception
+    {
+	File directory = new File(CACHE_DIRECTORY);
+	File[] old = directory.listFiles();
+	for (int i = 0; old != null && i < old.length; i++)
+	{
+	    old[i].delete();
+	}
+	PersistentQueryCache cache =
+	    new PersistentQueryCache(directory, 1 << 20, "v1");
+	cache.put("(q1)", "(A)\n".getBytes());
+	cache.put("(q2)", "(TORN-HERE)\n".getBytes());
+	cache.put("(q3)", "(C)\n".getBytes());
+	cache.flush();
+	byte[] marker = "TORN-HERE".getBytes();
+	File[] segments = directory.listFiles();
+	boolean damaged = false;
+	for (int i = 0; i < segments.length && !damaged; i++)
+	{
+	    RandomAccessFile file = new RandomAccessFile(segments[i], "rw");
+	    try
+	    {
+		byte[] bytes = new byte[(int)file.length()];
+		file.readFully(bytes);
+		for (int at = 0; at + marker.length <= bytes.length; at++)
+		{
+		    if (Arrays.equals(Arrays.copyOfRange(
+					  bytes, at, at + marker.length),
+				      marker))
+		    {
+			file.seek(at);
+			file.write('W');
+			damaged = true;
+			break;
+		    }
+		}
+	    }
+	    finally
+	    {
+		file.close();
+	    }
+	}
+	expect(damaged, "response not found on disk");
+	cache = new PersistentQueryCache(directory, 1 << 20, "v1");
+	expect(cache.get("(q1)") != null, "good entry lost");
+	expect(cache.get("(q2)") == null, "torn entry served");
+	expect(cache.get("(q3)") == null, "entry after the tear kept");
+	cache.put("(q4)", "(D)\n".getBytes());
+	cache.flush();
+	cache = new PersistentQueryCache(directory, 1 << 20, "v1");
+	expect(cache.size() == 2, cache.size() + " entries, not 2");
+    }
+
+    /**
+       A session recorded against StandInServer is replayed.  The recorded
+       query gets its response; another fails, is counted as a miss and is
+       not cached.
+    */
+    private static void replayMisses() throws Exception
+    {
+	File log = new File(CACHE_DIRECTORY + ".log");
+	StandInServer server = new StandInServer(SOCKET);
+	server.setListSize(3);
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    TrafficRecorder recorder = new TrafficRecorder(log);
+	    cyc.setTrafficRecorder(recorder);
+	    cyc.allPathways();
+	    recorder.close();
+	}
+	finally
+	{
+	    server.close();
+	}
+	ReplayServer replay = new ReplayServer(SOCKET, log);
+	replay.setSpeed(Double.POSITIVE_INFINITY);
+	replay.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    MemoryQueryCache cache = new MemoryQueryCache(1 << 20);
+	    cyc.setQueryCache(cache);
+	    expect(cyc.allPathways().size() == 3, "recorded query not replayed");
+	    try
+	    {
+		ArrayList rxns = cyc.allRxns();
+		throw new IllegalStateException("miss answered with " + rxns);
+	    }
+	    catch (RuntimeException e)
+	    {
+		if (e instanceof IllegalStateException)
+		{
+		    throw e;
+		}
+	    }
+	    expect(replay.getMissCount() == 1,
+		   replay.getMissCount() + " misses, not 1");
+	    expect(cache.size() == 1, cache.size() + " cached, not 1");
+	}
+	finally
+	{
+	    replay.close();
+	    log.delete();
+	}
+    }
+
+    /**
+       Makes a server that gives the scripted responses in turn, and the
+       last one after that.
+    */
+    private static StandInServer scripted(String socket,
+					  final String[] responses)
+    {
+	return new StandInServer(socket) {
+		protected byte[] respond(String query)
+		{
+		    int i = (int)Math.min(getRequestCount(),
+					  responses.length - 1);
+		    return responses[i].getBytes();
+		}
+	    };
+    }
+
+    /**
+       Starts a gateway in front of a server, with a query cache.
+    */
+    private static QueryGateway gateway(String upstreamSocket)
+	throws IOException
+    {
+	Javacyc upstream = new Javacyc("META", upstreamSocket);
+	upstream.setQueryCache(new MemoryQueryCache(1 << 20));
+	QueryGateway gateway = new QueryGateway(GATEWAY_SOCKET, upstream);
+	gateway.start();
+	return gateway;
+    }
+
+    private static void expect(boolean condition, String failure)
+    {
+	if (!condition)
+	{
+	    throw new IllegalStateException(failure);
+	}
+    }
+
+    private static final String SOCKET = "/tmp/javacyc-check-server";
+    private static final String CACHE_DIRECTORY = "/tmp/javacyc-check-cache";
+    private static final String GATEWAY_SOCKET = "/tmp/javacyc-check-gateway";
+}
@@ -0,0 +1,104 @@
+/**
+   CircuitBreaker stops Javacyc from hammering a Pathway Tools server that
+   is down.
+
+   The breaker starts closed and lets every call through.  After a number
+   of consecutive connection failures it opens, and calls fail at once
+   with a ServerUnavailableException instead of each waiting out its own
+   retries.  Once the open period has passed, a single call is let through
+   as a probe: if it connects the breaker closes again, and if it fails
+   the breaker stays open for another period.
+
+   See README file for license details
+*/
+
+public class CircuitBreaker
+{
+    /**
+       Constructor for CircuitBreaker.
+       @param failureThreshold the consecutive connection failures that
+       open the breaker
+       @param openMillis how long the breaker stays open before probing
+    */
+    public CircuitBreaker(int failureThreshold, long openMillis)
+    {
+	this.failureThreshold = failureThreshold;
+	this.openMillis = openMillis;
+	state = CLOSED;
+    }
+
+    /**
+       Asks permission to try connecting.
+       @throws ServerUnavailableException if the breaker is open, or half
+       open with a probe already in progress
+    */
+    public synchronized void beforeConnect()
+    {
+	if (state == OPEN)
+	{
+	    if (System.currentTimeMillis() - openedAt < openMillis)
+	    {
+		throw new ServerUnavailableException(
+		    "Pathway Tools server is down; not retrying for "
+		    + (openMillis - (System.currentTimeMillis() - openedAt))
+		    + " ms");
+	    }
+	    state = HALF_OPEN;
+	    probing = false;
+	}
+	if (state == HALF_OPEN)
+	{
+	    if (probing)
+	    {
+		throw new ServerUnavailableException(
+		    "Pathway Tools server is down; waiting for a probe");
+	    }
+	    probing = true;
+	}
+    }
+
+    /**
+       Records that a connection was opened.
+    */
+    public synchronized void onSuccess()
+    {
+	failures = 0;
+	probing = false;
+	state = CLOSED;
+    }
+
+    /**
+       Records that a connection could not be opened.
+    */
+    public synchronized void onFailure()
+    {
+	failures++;
+	probing = false;
+	if (state == HALF_OPEN || failures >= failureThreshold)
+	{
+	    state = OPEN;
+	    openedAt = System.currentTimeMillis();
+	}
+    }
+
+    /**
+       Tests whether calls are currently being rejected.
+       @return true if the breaker is open
+    */
+    public synchronized boolean isOpen()
+    {
+	return state == OPEN
+	    && System.currentTimeMillis() - openedAt < openMillis;
+    }
+
+    private static final int CLOSED = 0; // calls pass
+    private static final int OPEN = 1; // calls fail fast
+    private static final int HALF_OPEN = 2; // one probe may pass
+
+    private final int failureThreshold; // failures that open the breaker
+    private final long openMillis; // time spent open before probing
+    private int state; // CLOSED, OPEN or HALF_OPEN
+    private int failures; // consecutive connection failures
+    private long openedAt; // when the breaker last opened
+    private boolean probing; // whether a probe is in progress
+}
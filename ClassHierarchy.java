@@ -0,0 +1,284 @@
+/**
+   ClassHierarchy is a local index of the class hierarchy of one
+   organism, for answering type questions without a round trip.  The
+   classes and their direct superclasses are loaded with a single query,
+   and the ancestors of every class are precomputed as a BitSet over
+   dense class ids, so a subclass test is one bit lookup.
+
+   The direct types of instances are fetched from the server the first
+   time each instance is asked about, and kept.  Questions about classes
+   that were not in the KB when the index was loaded go to the server.
+   The class hierarchy rarely changes; load a new index after it does.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class ClassHierarchy
+{
+    /**
+       Loads the class hierarchy of the organism currently selected in
+       cyc.  Later lookups that need the server also go through cyc.
+       @param cyc a Javacyc connected to the organism to load
+       @return the loaded hierarchy
+    */
+    public static ClassHierarchy load(Javacyc cyc)
+    {
+	ClassHierarchy hierarchy = new ClassHierarchy(cyc);
+	hierarchy.loadClasses(cyc.callFuncList(CLASS_QUERY));
+	return hierarchy;
+    }
+
+    /**
+       Private constructor; use load.
+    */
+    private ClassHierarchy(Javacyc cyc)
+    {
+	this.cyc = cyc;
+	classes = new FrameTable();
+	directTypes = new HashMap();
+    }
+
+    /**
+       Records the rows returned by CLASS_QUERY and computes the ancestors
+       of every class.  Each row is (class direct-superclasses).
+    */
+    private void loadClasses(ArrayList rows)
+    {
+	AdjacencyIndex.Builder superEdges = new AdjacencyIndex.Builder();
+	for (int i = 0; i < rows.size(); i++)
+	{
+	    ArrayList row = (ArrayList)rows.get(i);
+	    int cls = classes.intern((String)row.get(0));
+	    ArrayList supers = Javacyc.asList(row.get(1));
+	    for (int j = 0; j < supers.size(); j++)
+	    {
+		superEdges.add(cls, classes.intern((String)supers.get(j)));
+	    }
+	}
+	int n = classes.size();
+	AdjacencyIndex parents = superEdges.build(n);
+	ancestors = new BitSet[n];
+	for (int i = 0; i < n; i++)
+	{
+	    ancestors(parents, i);
+	}
+    }
+
+    /**
+       Computes the ancestors of a class, and of its ancestors, into the
+       ancestors table.  A class is its own ancestor.
+    */
+    private BitSet ancestors(AdjacencyIndex parents, int cls)
+    {
+	if (ancestors[cls] != null)
+	{
+	    return ancestors[cls];
+	}
+	// Iterative search, so deep hierarchies cannot overflow the stack
+	BitSet reached = new BitSet(classes.size());
+	reached.set(cls);
+	int[] stack = new int[16];
+	int top = 0;
+	stack[top++] = cls;
+	while (top > 0)
+	{
+	    int current = stack[--top];
+	    for (int i = 0; i < parents.degree(current); i++)
+	    {
+		int next = parents.target(current, i);
+		if (reached.get(next))
+		{
+		    continue;
+		}
+		reached.set(next);
+		if (ancestors[next] != null)
+		{
+		    reached.or(ancestors[next]);
+		    continue;
+		}
+		if (top == stack.length)
+		{
+		    int[] grown = new int[top * 2];
+		    System.arraycopy(stack, 0, grown, 0, top);
+		    stack = grown;
+		}
+		stack[top++] = next;
+	    }
+	}
+	ancestors[cls] = reached;
+	return reached;
+    }
+
+    /**
+       Returns the ids of the direct types of an instance, fetching them
+       from the server the first time.
+       @return the class ids, or null if one of the types is not a known
+       class
+    */
+    private int[] directTypeIds(String instance)
+    {
+	synchronized (directTypes)
+	{
+	    if (directTypes.containsKey(instance))
+	    {
+		return (int[])directTypes.get(instance);
+	    }
+	}
+	ArrayList types = cyc.getInstanceDirectTypes(instance);
+	int[] ids = new int[types.size()];
+	for (int i = 0; i < ids.length; i++)
+	{
+	    ids[i] = classes.indexOf((String)types.get(i));
+	    if (ids[i] < 0)
+	    {
+		ids = null; // a class created after the index was loaded
+		break;
+	    }
+	}
+	synchronized (directTypes)
+	{
+	    directTypes.put(instance, ids);
+	}
+	return ids;
+    }
+
+    // Lookups mirroring the Javacyc methods
+
+    /**
+       Local equivalent of Javacyc.getInstanceDirectTypes.
+       @param instance an instance frame
+       @return an ArrayList of the direct types of instance
+    */
+    public ArrayList getInstanceDirectTypes(String instance)
+    {
+	int[] ids = directTypeIds(instance);
+	return (ids == null) ? cyc.getInstanceDirectTypes(instance)
+	    : classes.namesOf(ids);
+    }
+
+    /**
+       Local equivalent of Javacyc.getInstanceAllTypes.
+       @param instance an instance frame
+       @return an ArrayList of the direct types of instance and all their
+       superclasses
+    */
+    public ArrayList getInstanceAllTypes(String instance)
+    {
+	int[] ids = directTypeIds(instance);
+	if (ids == null)
+	{
+	    return cyc.getInstanceAllTypes(instance);
+	}
+	BitSet all = new BitSet(classes.size());
+	for (int i = 0; i < ids.length; i++)
+	{
+	    all.or(ancestors[ids[i]]);
+	}
+	ArrayList list = new ArrayList(all.cardinality());
+	for (int i = all.nextSetBit(0); i >= 0; i = all.nextSetBit(i + 1))
+	{
+	    list.add(classes.nameOf(i));
+	}
+	return list;
+    }
+
+    /**
+       Local equivalent of Javacyc.instanceAllInstanceOfP.
+       @param classFrame a class frame
+       @param instance an instance frame
+       @return true if instance is a direct or indirect child of classFrame
+    */
+    public boolean instanceAllInstanceOfP(String classFrame, String instance)
+    {
+	int cls = classes.indexOf(classFrame);
+	int[] ids = (cls < 0) ? null : directTypeIds(instance);
+	if (ids == null)
+	{
+	    return cyc.instanceAllInstanceOfP(classFrame, instance);
+	}
+	for (int i = 0; i < ids.length; i++)
+	{
+	    if (ancestors[ids[i]].get(cls))
+	    {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+       Local equivalent of Javacyc.classAllTypeOfP.
+       @param classFrame a class frame
+       @param instance an instance
+       @return true if instance is an all-instance of classFrame
+    */
+    public boolean classAllTypeOfP(String classFrame, String instance)
+    {
+	return instanceAllInstanceOfP(classFrame, instance);
+    }
+
+    /**
+       Tests whether a class is a subclass of another, answered locally.
+       @param subclass a class frame
+       @param superclass a class frame
+       @return true if superclass is subclass or one of its ancestors;
+       false if either class is unknown
+    */
+    public boolean isSubclass(String subclass, String superclass)
+    {
+	int sub = classes.indexOf(subclass);
+	int sup = classes.indexOf(superclass);
+	return sub >= 0 && sup >= 0 && ancestors[sub].get(sup);
+    }
+
+    /**
+       Returns every superclass of a class, at any depth.
+       @param classFrame a class frame
+       @return an ArrayList of the ancestors of classFrame, not including
+       classFrame itself; empty if the class is unknown
+    */
+    public ArrayList getClassAllSupers(String classFrame)
+    {
+	int cls = classes.indexOf(classFrame);
+	ArrayList list = new ArrayList();
+	if (cls < 0)
+	{
+	    return list;
+	}
+	BitSet all = ancestors[cls];
+	for (int i = all.nextSetBit(0); i >= 0; i = all.nextSetBit(i + 1))
+	{
+	    if (i != cls)
+	    {
+		list.add(classes.nameOf(i));
+	    }
+	}
+	return list;
+    }
+
+    /**
+       Forgets the direct types fetched for an instance, after its types
+       were changed with putInstanceTypes.
+       @param instance an instance frame
+    */
+    public void forgetInstance(String instance)
+    {
+	synchronized (directTypes)
+	{
+	    directTypes.remove(instance);
+	}
+    }
+
+    // One row per class: (class direct-superclasses)
+    private static final String CLASS_QUERY =
+	"(mapcar #'(lambda (c) (list (object-name c)"
+	+ " (mapcar #'object-name (get-class-direct-supers c))))"
+	+ " (cons '|FRAMES| (get-class-all-subs '|FRAMES|)))";
+
+    private final Javacyc cyc; // asked about what the index does not know
+    private FrameTable classes; // every class of the KB
+    private BitSet[] ancestors; // each class and all its superclasses
+    private final HashMap directTypes; // instance to int[] class ids, or null
+}
@@ -0,0 +1,267 @@
+/**
+   CompoundIndex is an inverted index from compounds to the reactions and
+   pathways they take part in, for one organism.  It answers the question
+   asked by reactions-of-compound for any number of compounds after a
+   single bulk pass over all-rxns, instead of one round trip per compound.
+
+   The forward data (the substrates and pathways of each reaction) is kept
+   per reaction, so the index can be refreshed incrementally: a refresh
+   fetches only reactions that are new or that the caller reports as
+   changed, drops reactions that no longer exist, and rebuilds the inverted
+   int arrays locally.  A refresh talks to the server without holding the
+   index's lock, and only takes it to apply what it fetched, so lookups
+   are not held up by the round trips and never see a half-built index.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class CompoundIndex
+{
+    /**
+       Builds the index for the organism currently selected in cyc.
+       @param cyc a Javacyc connected to the organism to index
+       @return the built index
+    */
+    public static CompoundIndex load(Javacyc cyc)
+    {
+	CompoundIndex index = new CompoundIndex();
+	index.store(cyc.callFuncList(reactionQuery("(all-rxns)")));
+	index.rebuild();
+	return index;
+    }
+
+    /**
+       Private constructor; use load.
+    */
+    private CompoundIndex()
+    {
+	reactions = new FrameTable();
+	compounds = new FrameTable();
+	pathways = new FrameTable();
+	reactionCompounds = new int[64][];
+	reactionPathways = new int[64][];
+	refreshLock = new Object();
+    }
+
+    /**
+       Brings the index up to date with the server.  Reactions that were
+       added to or removed from the KB are picked up automatically.
+       @param cyc a Javacyc connected to the indexed organism
+       @return the number of reactions fetched
+    */
+    public int refresh(Javacyc cyc)
+    {
+	return refresh(cyc, Collections.EMPTY_LIST);
+    }
+
+    /**
+       Brings the index up to date with the server, refetching the given
+       reactions as well as any that were added.
+       @param cyc a Javacyc connected to the indexed organism
+       @param changed reactions known to have changed
+       @return the number of reactions fetched
+    */
+    public int refresh(Javacyc cyc, Collection changed)
+    {
+	synchronized (refreshLock)
+	{
+	    ArrayList current = cyc.allRxns();
+	    HashSet live = new HashSet(current);
+	    Set fetch = new LinkedHashSet();
+	    synchronized (this)
+	    {
+		for (int i = 0; i < current.size(); i++)
+		{
+		    String rxn = (String)current.get(i);
+		    int id = reactions.indexOf(rxn);
+		    if (id < 0 || reactionCompounds[id] == null)
+		    {
+			fetch.add(rxn);
+		    }
+		}
+	    }
+	    Iterator it = changed.iterator();
+	    while (it.hasNext())
+	    {
+		String rxn = (String)it.next();
+		if (live.contains(rxn))
+		{
+		    fetch.add(rxn);
+		}
+	    }
+	    ArrayList rows = fetch.isEmpty() ? new ArrayList()
+		: cyc.callFuncList(reactionQuery(Javacyc.quoteFrames(fetch)));
+	    synchronized (this)
+	    {
+		for (int id = 0; id < reactions.size(); id++)
+		{
+		    if (!live.contains(reactions.nameOf(id)))
+		    {
+			reactionCompounds[id] = null;
+			reactionPathways[id] = null;
+		    }
+		}
+		store(rows);
+		rebuild();
+	    }
+	    return fetch.size();
+	}
+    }
+
+    /**
+       Records the rows returned by reactionQuery.  Each row is
+       (reaction substrates pathways).
+    */
+    private void store(ArrayList rows)
+    {
+	for (int i = 0; i < rows.size(); i++)
+	{
+	    ArrayList row = (ArrayList)rows.get(i);
+	    int rxn = reactions.intern((String)row.get(0));
+	    if (rxn >= reactionCompounds.length)
+	    {
+		int length = Math.max(rxn + 1, reactionCompounds.length * 2);
+		int[][] grownCompounds = new int[length][];
+		int[][] grownPathways = new int[length][];
+		System.arraycopy(reactionCompounds, 0, grownCompounds, 0,
+				 reactionCompounds.length);
+		System.arraycopy(reactionPathways, 0, grownPathways, 0,
+				 reactionPathways.length);
+		reactionCompounds = grownCompounds;
+		reactionPathways = grownPathways;
+	    }
+	    reactionCompounds[rxn] = intern(compounds,
+					    Javacyc.asList(row.get(1)));
+	    reactionPathways[rxn] = intern(pathways,
+					   Javacyc.asList(row.get(2)));
+	}
+    }
+
+    /**
+       Interns a list of frames, dropping duplicates.
+    */
+    private static int[] intern(FrameTable table, ArrayList frames)
+    {
+	int[] ids = new int[frames.size()];
+	int n = 0;
+	for (int i = 0; i < frames.size(); i++)
+	{
+	    int id = table.intern((String)frames.get(i));
+	    boolean duplicate = false;
+	    for (int j = 0; j < n && !duplicate; j++)
+	    {
+		duplicate = (ids[j] == id);
+	    }
+	    if (!duplicate)
+	    {
+		ids[n++] = id;
+	    }
+	}
+	if (n == ids.length)
+	{
+	    return ids;
+	}
+	int[] trimmed = new int[n];
+	System.arraycopy(ids, 0, trimmed, 0, n);
+	return trimmed;
+    }
+
+    /**
+       Rebuilds the inverted arrays from the per-reaction data.
+    */
+    private void rebuild()
+    {
+	int compoundCount = compounds.size();
+	AdjacencyIndex.Builder toReactions = new AdjacencyIndex.Builder();
+	for (int rxn = 0; rxn < reactions.size(); rxn++)
+	{
+	    int[] cpds = reactionCompounds[rxn];
+	    for (int i = 0; cpds != null && i < cpds.length; i++)
+	    {
+		toReactions.add(cpds[i], rxn);
+	    }
+	}
+	AdjacencyIndex byCompound = toReactions.build(compoundCount);
+
+	// Pathways of a compound are the pathways of its reactions; the
+	// marker array drops duplicates without a set per compound
+	AdjacencyIndex.Builder toPathways = new AdjacencyIndex.Builder();
+	int[] marker = new int[pathways.size()];
+	Arrays.fill(marker, -1);
+	for (int cpd = 0; cpd < compoundCount; cpd++)
+	{
+	    for (int i = 0; i < byCompound.degree(cpd); i++)
+	    {
+		int[] pwys = reactionPathways[byCompound.target(cpd, i)];
+		for (int j = 0; j < pwys.length; j++)
+		{
+		    if (marker[pwys[j]] != cpd)
+		    {
+			marker[pwys[j]] = cpd;
+			toPathways.add(cpd, pwys[j]);
+		    }
+		}
+	    }
+	}
+	compoundReactions = byCompound;
+	compoundPathways = toPathways.build(compoundCount);
+    }
+
+    /**
+       Local equivalent of Javacyc.reactionsOfCompound.
+       @param cpd a chemical
+       @return an ArrayList of the reactions in which cpd occurs as a
+       reactant or a product
+    */
+    public synchronized ArrayList reactionsOfCompound(String cpd)
+    {
+	AdjacencyIndex index = compoundReactions;
+	return reactions.namesOf(index.targets(compounds.indexOf(cpd)));
+    }
+
+    /**
+       Returns the pathways that contain a reaction in which a compound
+       occurs.
+       @param cpd a chemical
+       @return an ArrayList of pathways, without duplicates
+    */
+    public synchronized ArrayList pathwaysOfCompound(String cpd)
+    {
+	AdjacencyIndex index = compoundPathways;
+	return pathways.namesOf(index.targets(compounds.indexOf(cpd)));
+    }
+
+    /**
+       Returns the number of reactions in which a compound occurs.
+       @param cpd a chemical
+       @return the number of reactions, 0 if cpd is unknown
+    */
+    public synchronized int reactionCount(String cpd)
+    {
+	return compoundReactions.degree(compounds.indexOf(cpd));
+    }
+
+    /**
+       Builds the query that fetches one row per reaction.
+       @param rxns a lisp expression evaluating to a list of reactions
+    */
+    private static String reactionQuery(String rxns)
+    {
+	return "(mapcar #'(lambda (r) (list (object-name r)"
+	    + " (mapcar #'object-name (substrates-of-reaction r))"
+	    + " (mapcar #'object-name (remove-if-not #'coercible-to-frame-p"
+	    + " (get-slot-values r 'in-pathway)))))"
+	    + " " + rxns + ")";
+    }
+
+    private final Object refreshLock; // held by the one refresh running
+    private FrameTable reactions; // every reaction ever seen
+    private FrameTable compounds; // every substrate ever seen
+    private FrameTable pathways; // every pathway ever seen
+    private int[][] reactionCompounds; // substrates by reaction, null if gone
+    private int[][] reactionPathways; // pathways by reaction, null if gone
+    private AdjacencyIndex compoundReactions; // compound to reactions
+    private AdjacencyIndex compoundPathways; // compound to pathways
+}
@@ -0,0 +1,280 @@
+/**
+   ConcurrencyLimiter caps the number of calls in flight to a Pathway
+   Tools server, and adapts the cap to what the server can take.
+
+   The Pathway Tools socket server answers one query at a time, so extra
+   concurrent connections only add queueing inside the server, and too
+   many make connects fail.  The limiter adjusts its limit with additive
+   increase, multiplicative decrease (AIMD): every call that completes
+   close to the best latency seen so far raises the limit a little, and
+   every call that fails or takes much longer than that cuts it.  Calls
+   differ in cost by orders of magnitude, so the best latency is kept per
+   kind of call, such as the function called; a slow kind of call is only
+   compared with earlier calls of the same kind.
+
+   Calls over the limit wait, up to a bounded time and in a bounded queue.
+   A call that cannot get in is shed with a ServerOverloadedException
+   rather than piling more work on the server.  Waiting uses a
+   java.util.concurrent lock, not a monitor, so waiting virtual threads
+   do not pin their carriers.
+
+   See README file for license details
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+public class ConcurrencyLimiter
+{
+    /**
+       Constructor for a limiter with the default bounds: a limit between 1
+       and 64 starting at 4, at most 1000 waiting calls, waiting at most 10
+       seconds.
+    */
+    public ConcurrencyLimiter()
+    {
+	this(4, 1, 64, 1000, 10000);
+    }
+
+    /**
+       Constructor for ConcurrencyLimiter.
+       @param initialLimit the starting limit
+       @param minLimit the lowest the limit may fall
+       @param maxLimit the highest the limit may rise
+       @param maxWaiting the most calls allowed to wait for a slot
+       @param maxWaitMillis the longest a call waits for a slot
+    */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+			      int maxWaiting, long maxWaitMillis)
+    {
+	if (minLimit < 1 || maxLimit < minLimit)
+	{
+	    throw new IllegalArgumentException("bad limit bounds");
+	}
+	this.minLimit = minLimit;
+	this.maxLimit = maxLimit;
+	this.maxWaiting = maxWaiting;
+	this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+	limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	lock = new ReentrantLock(true);
+	slotFreed = lock.newCondition();
+	bestLatencies = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest)
+		{
+		    return size() > MAX_KINDS;
+		}
+	    };
+    }
+
+    /**
+       Waits for a slot.  Every successful acquire must be followed by
+       exactly one release.
+       @throws ServerOverloadedException if too many calls are already
+       waiting or no slot frees up in time
+    */
+    public void acquire()
+    {
+	lock.lock();
+	try
+	{
+	    if (inFlight < (int)limit)
+	    {
+		inFlight++;
+		return;
+	    }
+	    if (waiting >= maxWaiting)
+	    {
+		shed++;
+		throw new ServerOverloadedException(
+		    "too many calls waiting for the Pathway Tools server ("
+		    + waiting + ")");
+	    }
+	    waiting++;
+	    try
+	    {
+		long remaining = maxWaitNanos;
+		while (inFlight >= (int)limit)
+		{
+		    if (remaining <= 0)
+		    {
+			shed++;
+			throw new ServerOverloadedException(
+			    "timed out waiting for the Pathway Tools server"
+			    + " (limit " + (int)limit + ")");
+		    }
+		    remaining = slotFreed.awaitNanos(remaining);
+		}
+		inFlight++;
+	    }
+	    catch (InterruptedException e)
+	    {
+		Thread.currentThread().interrupt();
+		throw new ServerOverloadedException(
+		    "interrupted waiting for the Pathway Tools server");
+	    }
+	    finally
+	    {
+		waiting--;
+	    }
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    /**
+       Gives back a slot and adjusts the limit from the outcome of the call,
+       judging its latency against every other call released this way.
+       @param latencyNanos how long the call held the slot
+       @param success false if the call failed, for example because the
+       connection was refused
+    */
+    public void release(long latencyNanos, boolean success)
+    {
+	release(null, latencyNanos, success);
+    }
+
+    /**
+       Gives back a slot and adjusts the limit from the outcome of the call,
+       judging its latency against earlier calls of the same kind.
+       @param kind what the call was, such as the function it called, or
+       null; kinds are compared with equals
+       @param latencyNanos how long the call took until its response was
+       read
+       @param success false if the call failed, for example because the
+       connection was refused
+    */
+    public void release(Object kind, long latencyNanos, boolean success)
+    {
+	lock.lock();
+	try
+	{
+	    inFlight--;
+	    long[] best = (long[])bestLatencies.get(kind);
+	    if (best == null)
+	    {
+		best = new long[] {Long.MAX_VALUE};
+		bestLatencies.put(kind, best);
+	    }
+	    if (success)
+	    {
+		// Let the best latency drift up slowly so that one lucky
+		// call does not make every later call look slow
+		if (latencyNanos < best[0])
+		{
+		    best[0] = latencyNanos;
+		}
+		else if (best[0] != Long.MAX_VALUE)
+		{
+		    best[0] += (latencyNanos - best[0]) / 100;
+		}
+	    }
+	    if (!success || latencyNanos > best[0] * TOLERANCE)
+	    {
+		limit = Math.max(minLimit, limit * BACKOFF);
+	    }
+	    else if (inFlight + 1 >= (int)limit)
+	    {
+		// Only grow while the limit is actually being used
+		limit = Math.min(maxLimit, limit + 1.0 / limit);
+	    }
+	    slotFreed.signalAll();
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    /**
+       Gives back a slot without adjusting the limit, for a call that did
+       not get as far as the server, such as a connection attempt that
+       will be retried.
+    */
+    public void cancel()
+    {
+	lock.lock();
+	try
+	{
+	    inFlight--;
+	    slotFreed.signalAll();
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    /**
+       Returns the current limit.
+       @return the number of calls allowed in flight
+    */
+    public int getLimit()
+    {
+	lock.lock();
+	try
+	{
+	    return (int)limit;
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    /**
+       Returns the number of calls in flight.
+       @return the number of calls holding a slot
+    */
+    public int getInFlight()
+    {
+	lock.lock();
+	try
+	{
+	    return inFlight;
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    /**
+       Returns the number of calls shed so far.
+       @return the number of ServerOverloadedExceptions thrown
+    */
+    public long getShedCount()
+    {
+	lock.lock();
+	try
+	{
+	    return shed;
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    // A call slower than TOLERANCE times the best latency counts as
+    // congestion, and congestion multiplies the limit by BACKOFF
+    private static final double TOLERANCE = 2.0;
+    private static final double BACKOFF = 0.9;
+    // Kinds of call whose best latency is kept; the least recently
+    // released are forgotten first
+    private static final int MAX_KINDS = 1024;
+
+    private final int minLimit; // lower bound of limit
+    private final int maxLimit; // upper bound of limit
+    private final int maxWaiting; // bound on the wait queue
+    private final long maxWaitNanos; // bound on the wait time
+    private final ReentrantLock lock; // guards the fields below
+    private final Condition slotFreed; // signalled on every release
+    private double limit; // current limit, fractional for additive increase
+    private int inFlight; // calls holding a slot
+    private int waiting; // calls waiting for a slot
+    private long shed; // calls rejected
+    private final LinkedHashMap bestLatencies; // kind to long[] best latency
+}
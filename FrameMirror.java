@@ -0,0 +1,230 @@
+/**
+   FrameMirror keeps a local copy of selected slots of every instance of a
+   class, and brings it up to date by fetching only the frames that
+   changed.
+
+   Each refresh asks the server for a fingerprint of every instance: a
+   hash of the printed values of the mirrored slots, computed server-side
+   in one query.  Only instances whose fingerprint differs from the local
+   copy, and instances that are new, are then fetched in full, in batches.
+   Instances that disappeared from the class are dropped.  Refreshing a
+   mirror in which little changed therefore transfers one short row per
+   frame instead of every slot value.
+
+   A refresh makes its queries without holding the mirror's lock, and
+   applies what it fetched in one step, so lookups are not held up by the
+   round trips and never see a half-applied refresh.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class FrameMirror
+{
+    /**
+       Constructor for an empty FrameMirror.  Call refresh to fill it.
+       @param classFrame the class whose instances are mirrored
+       @param slots the slots to mirror
+    */
+    public FrameMirror(String classFrame, String[] slots)
+    {
+	this.classFrame = classFrame;
+	this.slots = slots.clone();
+	records = new HashMap();
+	refreshLock = new Object();
+    }
+
+    /**
+       Brings the mirror up to date with the organism selected in cyc.
+       @param cyc a Javacyc connected to the mirrored organism
+       @return the changes applied by this refresh
+    */
+    public Delta refresh(Javacyc cyc)
+    {
+	synchronized (refreshLock)
+	{
+	    Delta delta = new Delta();
+	    ArrayList rows = cyc.callFuncList(withValues(
+		"(mapcar #'(lambda (f) (list (object-name f) (sxhash"
+		+ " (prin1-to-string (list" + slotValueForms() + ")))))"
+		+ " (get-class-all-instances '"
+		+ QueryTemplate.quote(classFrame) + "))"));
+
+	    HashMap fingerprints = new HashMap();
+	    ArrayList fetch = new ArrayList();
+	    synchronized (this)
+	    {
+		for (int i = 0; i < rows.size(); i++)
+		{
+		    ArrayList row = (ArrayList)rows.get(i);
+		    String frame = (String)row.get(0);
+		    String fingerprint = (String)row.get(1);
+		    fingerprints.put(frame, fingerprint);
+		    Record record = (Record)records.get(frame);
+		    if (record == null)
+		    {
+			delta.added.add(frame);
+			fetch.add(frame);
+		    }
+		    else if (!record.fingerprint.equals(fingerprint))
+		    {
+			delta.changed.add(frame);
+			fetch.add(frame);
+		    }
+		}
+		Iterator it = records.keySet().iterator();
+		while (it.hasNext())
+		{
+		    String frame = (String)it.next();
+		    if (!fingerprints.containsKey(frame))
+		    {
+			delta.removed.add(frame);
+		    }
+		}
+	    }
+
+	    HashMap fetched = new HashMap();
+	    for (int start = 0; start < fetch.size(); start += BATCH_SIZE)
+	    {
+		List batch = fetch.subList(start,
+					   Math.min(start + BATCH_SIZE,
+						    fetch.size()));
+		ArrayList values = cyc.callFuncList(withValues(
+		    "(mapcar #'(lambda (f) (list (object-name f)"
+		    + slotValueForms() + ")) "
+		    + Javacyc.quoteFrames(batch) + ")"));
+		for (int i = 0; i < values.size(); i++)
+		{
+		    ArrayList row = (ArrayList)values.get(i);
+		    String frame = (String)row.get(0);
+		    ArrayList[] slotValues = new ArrayList[slots.length];
+		    for (int s = 0; s < slots.length; s++)
+		    {
+			slotValues[s] = Javacyc.asList(row.get(s + 1));
+		    }
+		    fetched.put(frame, new Record(
+			(String)fingerprints.get(frame), slotValues));
+		}
+	    }
+
+	    synchronized (this)
+	    {
+		for (int i = 0; i < delta.removed.size(); i++)
+		{
+		    records.remove(delta.removed.get(i));
+		}
+		records.putAll(fetched);
+	    }
+	    return delta;
+	}
+    }
+
+    /**
+       Builds the argument list that fetches every mirrored slot of the
+       frame bound to f.
+    */
+    private String slotValueForms()
+    {
+	StringBuffer buffer = new StringBuffer();
+	for (int s = 0; s < slots.length; s++)
+	{
+	    buffer.append(" (vals f '").append(QueryTemplate.quote(slots[s]))
+		.append(')');
+	}
+	return buffer.toString();
+    }
+
+    /**
+       Wraps an expression in a local function, vals, that returns the
+       values of a slot with frames replaced by their names.  Names keep
+       fingerprints stable across server restarts.
+    */
+    private static String withValues(String expr)
+    {
+	return "(flet ((vals (f s) (mapcar #'(lambda (v)"
+	    + " (if (coercible-to-frame-p v) (object-name v) v))"
+	    + " (get-slot-values f s)))) " + expr + ")";
+    }
+
+    /**
+       Returns the mirrored values of a slot.
+       @param frame an instance of the mirrored class
+       @param slot one of the mirrored slots
+       @return an ArrayList of the values, or null if frame or slot is not
+       mirrored
+    */
+    public synchronized ArrayList getSlotValues(String frame, String slot)
+    {
+	Record record = (Record)records.get(frame);
+	for (int s = 0; record != null && s < slots.length; s++)
+	{
+	    if (slots[s].equalsIgnoreCase(slot))
+	    {
+		return record.values[s];
+	    }
+	}
+	return null;
+    }
+
+    /**
+       Returns every mirrored instance.
+       @return an ArrayList of frames
+    */
+    public synchronized ArrayList frames()
+    {
+	return new ArrayList(records.keySet());
+    }
+
+    /**
+       Returns the number of mirrored instances.
+       @return the number of frames
+    */
+    public synchronized int size()
+    {
+	return records.size();
+    }
+
+    /**
+       The frames affected by one refresh.
+    */
+    public static class Delta
+    {
+	/** Frames that were not mirrored before. */
+	public final ArrayList added = new ArrayList();
+	/** Frames whose mirrored slots changed. */
+	public final ArrayList changed = new ArrayList();
+	/** Frames that are no longer instances of the class. */
+	public final ArrayList removed = new ArrayList();
+
+	/**
+	   @return true if the refresh changed nothing
+	*/
+	public boolean isEmpty()
+	{
+	    return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+	}
+    }
+
+    /**
+       The mirrored slot values of one frame.
+    */
+    private static class Record
+    {
+	Record(String fingerprint, ArrayList[] values)
+	{
+	    this.fingerprint = fingerprint;
+	    this.values = values;
+	}
+
+	String fingerprint; // server-side hash of the values
+	ArrayList[] values; // values of each slot, in slot order
+    }
+
+    private static final int BATCH_SIZE = 1000; // frames per value query
+
+    private String classFrame; // the mirrored class
+    private String[] slots; // the mirrored slots
+    private HashMap records; // frame name to Record
+    private final Object refreshLock; // held by the one refresh running
+}
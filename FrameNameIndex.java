@@ -0,0 +1,424 @@
+/**
+   FrameNameIndex is a local search index over the names of the instances
+   of some classes: their frame ids, common names and synonyms.  It
+   answers the prefix lookups of an autocomplete box, and fuzzy lookups
+   that tolerate typos, without a findIndexedFrame round trip per
+   keystroke.
+
+   The names are kept in a FrameMirror per class, so a refresh only
+   fetches the frames whose names changed on the server, and only their
+   terms are reindexed.  Terms are matched case-insensitively, with HTML
+   markup such as <i> removed.  Prefix lookups walk a sorted map of the
+   terms; fuzzy lookups rank the terms that share trigrams with the query
+   by the Dice coefficient of the two trigram sets.
+
+   Results are ranked by how well they match, with common names ahead of
+   frame ids and frame ids ahead of synonyms, and each frame appears once.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class FrameNameIndex
+{
+    /**
+       Constructor for an empty FrameNameIndex.  Call refresh to fill it.
+       @param classFrames the classes whose instances are indexed
+    */
+    public FrameNameIndex(String[] classFrames)
+    {
+	mirrors = new FrameMirror[classFrames.length];
+	for (int i = 0; i < classFrames.length; i++)
+	{
+	    mirrors[i] = new FrameMirror(classFrames[i], NAME_SLOTS);
+	}
+	terms = new TreeMap();
+	termsOfFrame = new HashMap();
+	trigrams = new HashMap();
+	refreshLock = new Object();
+    }
+
+    /**
+       Brings the index up to date with the organism selected in cyc.  The
+       first refresh fetches every name; later ones fetch only the frames
+       whose names changed.  Searches go on answering from the old names
+       while the mirrors are refreshed, and only wait for the reindexing.
+       @param cyc a Javacyc connected to the indexed organism
+       @return the number of frames reindexed
+    */
+    public int refresh(Javacyc cyc)
+    {
+	synchronized (refreshLock)
+	{
+	    HashSet touched = new HashSet();
+	    for (int i = 0; i < mirrors.length; i++)
+	    {
+		FrameMirror.Delta delta = mirrors[i].refresh(cyc);
+		touched.addAll(delta.added);
+		touched.addAll(delta.changed);
+		touched.addAll(delta.removed);
+	    }
+	    synchronized (this)
+	    {
+		Iterator it = touched.iterator();
+		while (it.hasNext())
+		{
+		    reindex((String)it.next());
+		}
+	    }
+	    return touched.size();
+	}
+    }
+
+    /**
+       Finds frames with a name that starts with a prefix.
+       @param prefix the start of a frame id, common name or synonym
+       @param limit the most matches returned
+       @return an ArrayList of Matches, best first
+    */
+    public synchronized ArrayList prefixSearch(String prefix, int limit)
+    {
+	String key = normalize(prefix);
+	HashMap best = new HashMap();
+	if (key.length() > 0)
+	{
+	    Iterator it = terms.subMap(key, key + '\uffff')
+		.entrySet().iterator();
+	    while (it.hasNext())
+	    {
+		Map.Entry entry = (Map.Entry)it.next();
+		String term = (String)entry.getKey();
+		// Exact matches first, then shorter completions
+		double closeness = (double)key.length() / term.length();
+		addPostings(best, (ArrayList)entry.getValue(),
+			    term.equals(key) ? 2 : closeness);
+	    }
+	}
+	return ranked(best, limit);
+    }
+
+    /**
+       Finds frames with a name similar to a query, such as a name with a
+       typo in it.
+       @param query the text to look for
+       @param limit the most matches returned
+       @return an ArrayList of Matches, best first
+    */
+    public synchronized ArrayList fuzzySearch(String query, int limit)
+    {
+	String key = normalize(query);
+	String[] grams = trigramsOf(key);
+	// Count the trigrams each term shares with the query
+	HashMap shared = new HashMap();
+	for (int i = 0; i < grams.length; i++)
+	{
+	    HashSet matching = (HashSet)trigrams.get(grams[i]);
+	    if (matching == null)
+	    {
+		continue;
+	    }
+	    Iterator it = matching.iterator();
+	    while (it.hasNext())
+	    {
+		Object term = it.next();
+		int[] count = (int[])shared.get(term);
+		if (count == null)
+		{
+		    count = new int[1];
+		    shared.put(term, count);
+		}
+		count[0]++;
+	    }
+	}
+	HashMap best = new HashMap();
+	Iterator it = shared.entrySet().iterator();
+	while (it.hasNext())
+	{
+	    Map.Entry entry = (Map.Entry)it.next();
+	    String term = (String)entry.getKey();
+	    int count = ((int[])entry.getValue())[0];
+	    double dice = 2.0 * count
+		/ (grams.length + trigramsOf(term).length);
+	    if (dice >= MIN_SIMILARITY)
+	    {
+		addPostings(best, (ArrayList)terms.get(term), dice);
+	    }
+	}
+	return ranked(best, limit);
+    }
+
+    /**
+       Returns the number of indexed frames.
+       @return the number of frames
+    */
+    public synchronized int size()
+    {
+	return termsOfFrame.size();
+    }
+
+    /**
+       A frame found by a search.
+    */
+    public static class Match
+    {
+	Match(String frame, String name, double score)
+	{
+	    this.frame = frame;
+	    this.name = name;
+	    this.score = score;
+	}
+
+	/** The frame id. */
+	public final String frame;
+	/** The frame id, common name or synonym that matched. */
+	public final String name;
+	/** How well it matched; higher is better. */
+	public final double score;
+
+	public String toString()
+	{
+	    return frame + " (" + name + ")";
+	}
+    }
+
+    /**
+       Replaces the terms of a frame with its current names in every
+       mirror that holds it.
+    */
+    private void reindex(String frame)
+    {
+	ArrayList old = (ArrayList)termsOfFrame.remove(frame);
+	for (int i = 0; old != null && i < old.size(); i++)
+	{
+	    removePosting((String)old.get(i), frame);
+	}
+	ArrayList current = new ArrayList();
+	for (int m = 0; m < mirrors.length; m++)
+	{
+	    ArrayList common =
+		mirrors[m].getSlotValues(frame, "COMMON-NAME");
+	    if (common == null)
+	    {
+		continue; // not an instance of this class
+	    }
+	    if (current.isEmpty())
+	    {
+		addTerm(current, frame, frame, KIND_FRAME);
+	    }
+	    addTerms(current, frame, common, KIND_COMMON_NAME);
+	    addTerms(current, frame,
+		     mirrors[m].getSlotValues(frame, "SYNONYMS"),
+		     KIND_SYNONYM);
+	}
+	if (!current.isEmpty())
+	{
+	    termsOfFrame.put(frame, current);
+	}
+    }
+
+    // Indexes each string in values as a name of frame
+    private void addTerms(ArrayList added, String frame, ArrayList values,
+			  int kind)
+    {
+	for (int i = 0; values != null && i < values.size(); i++)
+	{
+	    String name = Javacyc.asName(values.get(i));
+	    if (name != null)
+	    {
+		addTerm(added, frame, name, kind);
+	    }
+	}
+    }
+
+    // Indexes one name of a frame, and records its term in added
+    private void addTerm(ArrayList added, String frame, String name,
+			 int kind)
+    {
+	String term = normalize(name);
+	if (term.length() == 0)
+	{
+	    return;
+	}
+	ArrayList postings = (ArrayList)terms.get(term);
+	if (postings == null)
+	{
+	    postings = new ArrayList(1);
+	    terms.put(term, postings);
+	    String[] grams = trigramsOf(term);
+	    for (int i = 0; i < grams.length; i++)
+	    {
+		HashSet matching = (HashSet)trigrams.get(grams[i]);
+		if (matching == null)
+		{
+		    matching = new HashSet();
+		    trigrams.put(grams[i], matching);
+		}
+		matching.add(term);
+	    }
+	}
+	postings.add(new Posting(frame, name, kind));
+	added.add(term);
+    }
+
+    // Removes the postings of a frame under a term, and the term if no
+    // frame is left under it
+    private void removePosting(String term, String frame)
+    {
+	ArrayList postings = (ArrayList)terms.get(term);
+	if (postings == null)
+	{
+	    return;
+	}
+	for (int i = postings.size() - 1; i >= 0; i--)
+	{
+	    if (((Posting)postings.get(i)).frame.equals(frame))
+	    {
+		postings.remove(i);
+	    }
+	}
+	if (!postings.isEmpty())
+	{
+	    return;
+	}
+	terms.remove(term);
+	String[] grams = trigramsOf(term);
+	for (int i = 0; i < grams.length; i++)
+	{
+	    HashSet matching = (HashSet)trigrams.get(grams[i]);
+	    if (matching != null)
+	    {
+		matching.remove(term);
+		if (matching.isEmpty())
+		{
+		    trigrams.remove(grams[i]);
+		}
+	    }
+	}
+    }
+
+    // Keeps the best scoring posting of each frame
+    private static void addPostings(HashMap best, ArrayList postings,
+				    double score)
+    {
+	for (int i = 0; i < postings.size(); i++)
+	{
+	    Posting posting = (Posting)postings.get(i);
+	    double total = score + KIND_BONUS[posting.kind];
+	    Match match = (Match)best.get(posting.frame);
+	    if (match == null || match.score < total)
+	    {
+		best.put(posting.frame,
+			 new Match(posting.frame, posting.name, total));
+	    }
+	}
+    }
+
+    // Sorts matches best first and keeps the first limit of them
+    private static ArrayList ranked(HashMap best, int limit)
+    {
+	ArrayList matches = new ArrayList(best.values());
+	Collections.sort(matches, new Comparator() {
+		public int compare(Object a, Object b)
+		{
+		    Match x = (Match)a;
+		    Match y = (Match)b;
+		    if (x.score != y.score)
+		    {
+			return (x.score > y.score) ? -1 : 1;
+		    }
+		    return x.name.length() - y.name.length();
+		}
+	    });
+	return new ArrayList(matches.subList(0, Math.min(limit,
+							 matches.size())));
+    }
+
+    /**
+       Turns a name into the term it is indexed under: lower case, without
+       HTML tags or |bars|, and with runs of whitespace made single spaces.
+    */
+    static String normalize(String name)
+    {
+	StringBuffer term = new StringBuffer(name.length());
+	boolean inTag = false;
+	boolean space = false;
+	for (int i = 0; i < name.length(); i++)
+	{
+	    char c = name.charAt(i);
+	    if (c == '<')
+	    {
+		inTag = true;
+	    }
+	    else if (c == '>' && inTag)
+	    {
+		inTag = false;
+	    }
+	    else if (inTag || c == '|')
+	    {
+		continue;
+	    }
+	    else if (Character.isWhitespace(c))
+	    {
+		space = term.length() > 0;
+	    }
+	    else
+	    {
+		if (space)
+		{
+		    term.append(' ');
+		    space = false;
+		}
+		term.append(Character.toLowerCase(c));
+	    }
+	}
+	return term.toString();
+    }
+
+    // The trigrams of a term padded with two spaces in front and one
+    // behind, so short terms and word starts have trigrams too
+    private static String[] trigramsOf(String term)
+    {
+	String padded = "  " + term + " ";
+	HashSet grams = new HashSet();
+	for (int i = 0; i + 3 <= padded.length(); i++)
+	{
+	    grams.add(padded.substring(i, i + 3));
+	}
+	return (String[])grams.toArray(new String[grams.size()]);
+    }
+
+    /**
+       One name of a frame, filed under its term.
+    */
+    private static class Posting
+    {
+	Posting(String frame, String name, int kind)
+	{
+	    this.frame = frame;
+	    this.name = name;
+	    this.kind = kind;
+	}
+
+	final String frame; // the frame named
+	final String name; // the name as the server has it
+	final int kind; // KIND_FRAME, KIND_COMMON_NAME or KIND_SYNONYM
+    }
+
+    private static final String[] NAME_SLOTS = {"COMMON-NAME", "SYNONYMS"};
+
+    // Kinds of names, and the score each adds to a match
+    private static final int KIND_COMMON_NAME = 0;
+    private static final int KIND_FRAME = 1;
+    private static final int KIND_SYNONYM = 2;
+    private static final double[] KIND_BONUS = {0.3, 0.2, 0.1};
+
+    // Fuzzy matches less similar than this are dropped
+    private static final double MIN_SIMILARITY = 0.4;
+
+    private final FrameMirror[] mirrors; // names of each indexed class
+    private final TreeMap terms; // term to ArrayList of Postings
+    private final HashMap termsOfFrame; // frame to ArrayList of its terms
+    private final HashMap trigrams; // trigram to HashSet of terms
+    private final Object refreshLock; // held by the one refresh running
+}
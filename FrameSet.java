@@ -0,0 +1,166 @@
+/**
+   FrameSet is a set expression over the results of list functions, such
+   as "the genes of pathway A that are also genes of pathway B", that is
+   evaluated entirely on the server.  Only the final set, or only its
+   size, is sent back, instead of every operand.
+
+	FrameSet a = FrameSet.of("genes-of-pathway", new String[] {"PWY-1"});
+	FrameSet b = FrameSet.of("genes-of-pathway", new String[] {"PWY-2"});
+	ArrayList shared = a.intersect(b).evaluate(cyc);
+	int total = a.union(b).count(cyc);
+
+   Operands may come from different organisms, for example the reactions
+   shared by two organisms:
+
+	FrameSet.of("all-rxns").inOrganism("ECOLI")
+	    .intersect(FrameSet.of("all-rxns").inOrganism("ARA"))
+
+   Members are compared by frame name, so sets from different organisms
+   can be combined.  The set operations use hash tables on the server and
+   keep the order in which members first appear.  FrameSets are immutable.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class FrameSet
+{
+    /**
+       The set returned by a list function of no arguments, such as
+       all-rxns.
+       @param func the Pathway Tools function
+       @return the set
+    */
+    public static FrameSet of(String func)
+    {
+	return of(func, new String[0]);
+    }
+
+    /**
+       The set returned by a list function.
+       @param func the Pathway Tools function, such as genes-of-pathway
+       @param args the arguments, quoted when sent
+       @return the set
+    */
+    public static FrameSet of(String func, String[] args)
+    {
+	StringBuffer call = new StringBuffer("(").append(func);
+	for (int i = 0; i < args.length; i++)
+	{
+	    call.append(" '").append(QueryTemplate.quote(args[i]));
+	}
+	call.append(')');
+	return new FrameSet("(dedup (mapcar #'object-name " + call + "))");
+    }
+
+    /**
+       A set of frames given by the caller.
+       @param frames a collection of frame names
+       @return the set
+    */
+    public static FrameSet ofFrames(Collection frames)
+    {
+	return new FrameSet("(dedup " + Javacyc.quoteFrames(frames) + ")");
+    }
+
+    /**
+       Private constructor; use of or ofFrames.
+       @param expr a lisp form evaluating to a list of distinct names
+    */
+    private FrameSet(String expr)
+    {
+	this.expr = expr;
+    }
+
+    /**
+       Evaluates this set in another organism than the one of the Javacyc
+       it is evaluated with.
+       @param organism the name of the organism
+       @return the set
+    */
+    public FrameSet inOrganism(String organism)
+    {
+	return new FrameSet("(with-organism (:org-id '"
+			    + QueryTemplate.quote(organism) + ") "
+			    + expr + ")");
+    }
+
+    /**
+       @param other another set
+       @return the members of this set or of other
+    */
+    public FrameSet union(FrameSet other)
+    {
+	return new FrameSet("(dedup (append " + expr + " " + other.expr
+			    + "))");
+    }
+
+    /**
+       @param other another set
+       @return the members of this set that are also in other
+    */
+    public FrameSet intersect(FrameSet other)
+    {
+	return new FrameSet("(inter " + expr + " " + other.expr + ")");
+    }
+
+    /**
+       @param other another set
+       @return the members of this set that are not in other
+    */
+    public FrameSet minus(FrameSet other)
+    {
+	return new FrameSet("(diff " + expr + " " + other.expr + ")");
+    }
+
+    /**
+       Evaluates the set on the server.
+       @param cyc a Javacyc connected to the default organism of the set
+       @return an ArrayList of the names in the set
+    */
+    public ArrayList evaluate(Javacyc cyc)
+    {
+	return cyc.callFuncList(toLisp(expr));
+    }
+
+    /**
+       Counts the set on the server, without sending its members.
+       @param cyc a Javacyc connected to the default organism of the set
+       @return the number of names in the set
+    */
+    public int count(Javacyc cyc)
+    {
+	ArrayList result = cyc.callFuncList(
+	    toLisp("(list (length " + expr + "))"));
+	return Integer.parseInt((String)result.get(0));
+    }
+
+    /**
+       Returns the lisp form that evaluate sends.
+       @return the lisp form
+    */
+    public String toLisp()
+    {
+	return toLisp(expr);
+    }
+
+    /**
+       Wraps an expression in the local functions the set operations use.
+    */
+    private static String toLisp(String body)
+    {
+	return "(labels ((dedup (l) (let ((h (make-hash-table :test #'equal)))"
+	    + " (loop for x in l unless (gethash x h)"
+	    + " do (setf (gethash x h) t) and collect x)))"
+	    + " (index (l) (let ((h (make-hash-table :test #'equal)))"
+	    + " (dolist (x l h) (setf (gethash x h) t))))"
+	    + " (inter (a b) (let ((h (index b)))"
+	    + " (remove-if-not #'(lambda (x) (gethash x h)) a)))"
+	    + " (diff (a b) (let ((h (index b)))"
+	    + " (remove-if #'(lambda (x) (gethash x h)) a)))) "
+	    + body + ")";
+    }
+
+    private final String expr; // evaluates to a list of distinct names
+}
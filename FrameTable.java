@@ -0,0 +1,95 @@
+/**
+   FrameTable assigns dense integer ids to frame names so that the local
+   indexes built by the bulk loaders can store their edges in primitive
+   int arrays instead of lists of strings.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+class FrameTable
+{
+    /**
+       Constructor for an empty FrameTable.
+    */
+    FrameTable()
+    {
+	ids = new HashMap();
+	names = new String[16];
+	size = 0;
+    }
+
+    /**
+       Returns the id of a frame, assigning the next free id if the frame
+       has not been seen before.
+       @param frame a frame name
+       @return the id of frame
+    */
+    int intern(String frame)
+    {
+	Integer id = (Integer)ids.get(frame);
+	if (id != null)
+	{
+	    return id.intValue();
+	}
+	if (size == names.length)
+	{
+	    String[] grown = new String[size * 2];
+	    System.arraycopy(names, 0, grown, 0, size);
+	    names = grown;
+	}
+	names[size] = frame;
+	ids.put(frame, Integer.valueOf(size));
+	return size++;
+    }
+
+    /**
+       Looks up the id of a frame without assigning one.
+       @param frame a frame name
+       @return the id of frame, or -1 if the frame is not in the table
+    */
+    int indexOf(String frame)
+    {
+	Integer id = (Integer)ids.get(frame);
+	return (id == null) ? -1 : id.intValue();
+    }
+
+    /**
+       Returns the name of the frame with the given id.
+       @param id a frame id
+       @return the frame name
+    */
+    String nameOf(int id)
+    {
+	return names[id];
+    }
+
+    /**
+       Returns the number of frames in the table.
+       @return the number of frames
+    */
+    int size()
+    {
+	return size;
+    }
+
+    /**
+       Converts an array of ids back to frame names.
+       @param frameIds an array of frame ids
+       @return an ArrayList of frame names, in the same order
+    */
+    ArrayList namesOf(int[] frameIds)
+    {
+	ArrayList list = new ArrayList(frameIds.length);
+	for (int i = 0; i < frameIds.length; i++)
+	{
+	    list.add(names[frameIds[i]]);
+	}
+	return list;
+    }
+
+    private HashMap ids; // frame name to Integer id
+    private String[] names; // frame names indexed by id
+    private int size; // number of frames in the table
+}
@@ -0,0 +1,355 @@
+/**
+   GeneTable is a denormalized, read-only view of every gene in one
+   organism.  For each gene it holds the results of enzymes-of-gene,
+   all-products-of-gene, reactions-of-gene, pathways-of-gene,
+   chromosome-of-gene and transcription-units-of-gene, so a report about a
+   gene needs one local lookup instead of six socket connections.
+
+   The table is materialized in one pass.  Genes are split into batches,
+   each batch is answered by a single server-side mapcar, and several
+   batches are fetched in parallel over separate connections.  Records are
+   encoded into one direct (off-heap) ByteBuffer and indexed by the dense
+   id of the gene, so the table adds little to the Java heap however many
+   genes the KB has.
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+public class GeneTable
+{
+    /**
+       Materializes a GeneTable for every gene in the organism currently
+       selected in cyc.
+       @param cyc a Javacyc connected to the organism to load
+       @param threads the number of connections to use in parallel
+       @return the materialized table
+    */
+    public static GeneTable materialize(Javacyc cyc, int threads)
+    {
+	return materialize(cyc, cyc.getClassAllInstances("|Genes|"),
+			   threads);
+    }
+
+    /**
+       Materializes a GeneTable for the given genes.
+       @param cyc a Javacyc connected to the organism to load
+       @param genes an ArrayList of gene frames
+       @param threads the number of connections to use in parallel
+       @return the materialized table
+    */
+    public static GeneTable materialize(Javacyc cyc, ArrayList genes,
+					int threads)
+    {
+	GeneTable table = new GeneTable(genes);
+	Batches batches = new Batches(genes, BATCH_SIZE);
+	Worker[] workers = new Worker[Math.max(1, threads)];
+	for (int i = 0; i < workers.length; i++)
+	{
+	    workers[i] = new Worker(cyc, batches, table);
+	    workers[i].start();
+	}
+	for (int i = 0; i < workers.length; i++)
+	{
+	    try
+	    {
+		workers[i].join();
+	    }
+	    catch (InterruptedException e)
+	    {
+		throw new RuntimeException(e);
+	    }
+	    if (workers[i].failure != null)
+	    {
+		throw workers[i].failure;
+	    }
+	}
+	table.pack();
+	return table;
+    }
+
+    /**
+       Private constructor; use materialize.
+    */
+    private GeneTable(ArrayList geneList)
+    {
+	genes = new FrameTable();
+	for (int i = 0; i < geneList.size(); i++)
+	{
+	    genes.intern((String)geneList.get(i));
+	}
+	encoded = new byte[genes.size()][];
+    }
+
+    /**
+       Encodes the rows of one batch.  Each row is (gene enzymes products
+       reactions pathways chromosome transcription-units).
+    */
+    private void store(ArrayList rows) throws IOException
+    {
+	for (int i = 0; i < rows.size(); i++)
+	{
+	    ArrayList row = (ArrayList)rows.get(i);
+	    int id = genes.indexOf((String)row.get(0));
+	    if (id < 0)
+	    {
+		continue;
+	    }
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    DataOutputStream data = new DataOutputStream(bytes);
+	    for (int field = 1; field < row.size(); field++)
+	    {
+		ArrayList values = Javacyc.asList(row.get(field));
+		data.writeInt(values.size());
+		for (int j = 0; j < values.size(); j++)
+		{
+		    writeString(data, (String)values.get(j));
+		}
+	    }
+	    data.flush();
+	    synchronized (encoded)
+	    {
+		encoded[id] = bytes.toByteArray();
+	    }
+	}
+    }
+
+    /**
+       Copies the encoded records into the off-heap buffer.
+    */
+    private void pack()
+    {
+	int total = 0;
+	for (int i = 0; i < encoded.length; i++)
+	{
+	    total += (encoded[i] == null) ? 0 : encoded[i].length;
+	}
+	records = ByteBuffer.allocateDirect(total);
+	offsets = new int[encoded.length + 1];
+	for (int i = 0; i < encoded.length; i++)
+	{
+	    offsets[i] = records.position();
+	    if (encoded[i] != null)
+	    {
+		records.put(encoded[i]);
+	    }
+	}
+	offsets[encoded.length] = records.position();
+	encoded = null;
+    }
+
+    /**
+       Returns the record of a gene.
+       @param gene a gene frame
+       @return the record, or null if gene is not in the table
+    */
+    public GeneRecord get(String gene)
+    {
+	int id = genes.indexOf(gene);
+	if (id < 0 || offsets[id] == offsets[id + 1])
+	{
+	    return null;
+	}
+	ByteBuffer view = records.duplicate();
+	view.limit(offsets[id + 1]);
+	view.position(offsets[id]);
+	ArrayList[] fields = new ArrayList[FIELD_COUNT];
+	for (int field = 0; field < FIELD_COUNT; field++)
+	{
+	    int count = view.getInt();
+	    fields[field] = new ArrayList(count);
+	    for (int j = 0; j < count; j++)
+	    {
+		fields[field].add(readString(view));
+	    }
+	}
+	return new GeneRecord(gene, fields);
+    }
+
+    /**
+       Writes a string as its length in UTF-8 bytes followed by the bytes.
+       Unlike writeUTF, this has no 64K limit, so long slot values such as
+       comments fit.
+    */
+    private static void writeString(DataOutputStream data, String value)
+	throws IOException
+    {
+	byte[] bytes = value.getBytes("UTF-8");
+	data.writeInt(bytes.length);
+	data.write(bytes);
+    }
+
+    /**
+       Reads a string written by writeString.
+    */
+    private static String readString(ByteBuffer view)
+    {
+	byte[] bytes = new byte[view.getInt()];
+	view.get(bytes);
+	try
+	{
+	    return new String(bytes, "UTF-8");
+	}
+	catch (UnsupportedEncodingException e)
+	{
+	    throw new RuntimeException(e);
+	}
+    }
+
+    /**
+       Returns the number of genes in the table.
+       @return the number of genes
+    */
+    public int size()
+    {
+	return genes.size();
+    }
+
+    /**
+       Returns every gene in the table.
+       @return an ArrayList of gene frames
+    */
+    public ArrayList genes()
+    {
+	ArrayList list = new ArrayList(genes.size());
+	for (int i = 0; i < genes.size(); i++)
+	{
+	    list.add(genes.nameOf(i));
+	}
+	return list;
+    }
+
+    /**
+       Builds the query for one batch of genes.
+    */
+    static String batchQuery(List batch)
+    {
+	return "(mapcar #'(lambda (g) (list (object-name g)"
+	    + " (mapcar #'object-name (enzymes-of-gene g))"
+	    + " (mapcar #'object-name (all-products-of-gene g))"
+	    + " (mapcar #'object-name (reactions-of-gene g))"
+	    + " (mapcar #'object-name (pathways-of-gene g))"
+	    + " (let ((c (chromosome-of-gene g))) (and c (object-name c)))"
+	    + " (mapcar #'object-name (transcription-units-of-gene g))))"
+	    + " " + Javacyc.quoteFrames(batch) + ")";
+    }
+
+    /**
+       A denormalized record of one gene.
+    */
+    public static class GeneRecord
+    {
+	private GeneRecord(String gene, ArrayList[] fields)
+	{
+	    this.gene = gene;
+	    this.fields = fields;
+	}
+
+	/** @return the gene frame */
+	public String getGene() { return gene; }
+
+	/** @return the result of enzymes-of-gene */
+	public ArrayList getEnzymes() { return fields[0]; }
+
+	/** @return the result of all-products-of-gene */
+	public ArrayList getProducts() { return fields[1]; }
+
+	/** @return the result of reactions-of-gene */
+	public ArrayList getReactions() { return fields[2]; }
+
+	/** @return the result of pathways-of-gene */
+	public ArrayList getPathways() { return fields[3]; }
+
+	/** @return the result of chromosome-of-gene, or null */
+	public String getChromosome()
+	{
+	    return fields[4].isEmpty() ? null : (String)fields[4].get(0);
+	}
+
+	/** @return the result of transcription-units-of-gene */
+	public ArrayList getTranscriptionUnits() { return fields[5]; }
+
+	private String gene;
+	private ArrayList[] fields;
+    }
+
+    /**
+       Hands out consecutive batches of genes to the workers.
+    */
+    private static class Batches
+    {
+	Batches(ArrayList genes, int size)
+	{
+	    this.genes = genes;
+	    this.size = size;
+	}
+
+	synchronized List next()
+	{
+	    if (start >= genes.size())
+	    {
+		return null;
+	    }
+	    int end = Math.min(start + size, genes.size());
+	    List batch = genes.subList(start, end);
+	    start = end;
+	    return batch;
+	}
+
+	private ArrayList genes;
+	private int size;
+	private int start = 0;
+    }
+
+    /**
+       Thread that fetches batches until none are left.  Workers share one
+       Javacyc; every call opens its own connection.
+    */
+    private static class Worker extends Thread
+    {
+	Worker(Javacyc cyc, Batches batches, GeneTable table)
+	{
+	    this.cyc = cyc;
+	    this.batches = batches;
+	    this.table = table;
+	    setDaemon(true);
+	}
+
+	public void run()
+	{
+	    try
+	    {
+		List batch = batches.next();
+		while (batch != null)
+		{
+		    table.store(cyc.callFuncList(batchQuery(batch)));
+		    batch = batches.next();
+		}
+	    }
+	    catch (IOException e)
+	    {
+		failure = new RuntimeException(e);
+	    }
+	    catch (RuntimeException e)
+	    {
+		failure = e;
+	    }
+	}
+
+	private Javacyc cyc;
+	private Batches batches;
+	private GeneTable table;
+	private RuntimeException failure; // read after join
+    }
+
+    private static final int BATCH_SIZE = 500; // genes per query
+    private static final int FIELD_COUNT = 6; // lists stored per gene
+
+    private FrameTable genes; // gene frame to record id
+    private byte[][] encoded; // records while materializing
+    private ByteBuffer records; // off-heap encoded records
+    private int[] offsets; // start of each record, plus end
+}
@@ -0,0 +1,595 @@
+/**
+   IndexCheck compares the local indexes with the Javacyc calls they stand
+   in for, without Pathway Tools.  A StandInServer serves a small fixture
+   KB, answering both the bulk queries an index is loaded with and the
+   single calls, from the same data; each check loads an index and asks
+   it and the server the same questions.  The bulk calls are checked the
+   same way against the single calls they batch.  It prints one line per
+   check and exits with status 1 if any failed.
+
+   Usage: java IndexCheck
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class IndexCheck
+{
+    public static void main(String[] args)
+    {
+	String[] names = {
+	    "regulatory network matches the regulation calls",
+	    "protein hierarchy matches the complex and modification calls",
+	    "gene table matches the gene calls",
+	    "compound index matches reactions-of-compound across a refresh",
+	    "frame mirror applies only what changed",
+	    "class hierarchy matches the type calls",
+	    "frame name index finds names across a rename",
+	    "bulk names and predicates match the single calls"
+	};
+	int failures = 0;
+	for (int i = 0; i < names.length; i++)
+	{
+	    try
+	    {
+		run(i);
+		System.out.println("ok\t" + names[i]);
+	    }
+	    catch (Exception e)
+	    {
+		failures++;
+		System.out.println("FAILED\t" + names[i] + ": " + e);
+	    }
+	}
+	System.exit((failures == 0) ? 0 : 1);
+    }
+
+    private static void run(int check) throws Exception
+    {
+	switch (check)
+	{
+	case 0: regulatoryNetwork(); break;
+	case 1: proteinHierarchy(); break;
+	case 2: geneTable(); break;
+	case 3: compoundIndex(); break;
+	case 4: frameMirror(); break;
+	case 5: classHierarchy(); break;
+	case 6: frameNameIndex(); break;
+	case 7: bulkCalls(); break;
+	}
+    }
+
+    /**
+       Two transcription factors, where TF1 regulates TU1 directly and TU2
+       through a modified form, so its regulon is larger than its
+       transcription units.  Regulons are transcription units, and gene
+       lookups do not accept them.
+    */
+    private static void regulatoryNetwork() throws Exception
+    {
+	String[] unitRow = {
+	    "(TU1 (G1 G2) PM1 (BS1) (TERM1) (TF1))",
+	    "(TU2 (G3) PM2 NIL NIL (TF2 TF1-P))"
+	};
+	// The unit query maps over the factors too, so it is matched first
+	StandInServer server = fixture(new String[][] {
+		{"(lambda (tu)", "(" + unitRow[0] + " " + unitRow[1] + ")"},
+		{"(lambda (tf)",
+		 "((TF1 (TU1 TU2) (TU1)) (TF2 (TU2) (TU2)))"},
+		{"(all-transcription-factors)", "(TF1 TF2)"},
+		{"(regulon-of-protein 'TF1)", "(TU1 TU2)"},
+		{"(regulon-of-protein 'TF2)", "(TU2)"},
+		{"(transcription-units-of-protein 'TF1)", "(TU1)"},
+		{"(transcription-units-of-protein 'TF2)", "(TU2)"},
+		{"(transcription-unit-genes 'TU1)", "(G1 G2)"},
+		{"(transcription-unit-genes 'TU2)", "(G3)"},
+		{"(transcription-unit-promoter 'TU1)", "\"PM1\""},
+		{"(transcription-unit-promoter 'TU2)", "\"PM2\""},
+		{"(regulator-proteins-of-transcription-unit 'TU1)", "(TF1)"},
+		{"(regulator-proteins-of-transcription-unit 'TU2)",
+		 "(TF2 TF1-P)"}
+	    });
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    RegulatoryNetwork network = RegulatoryNetwork.load(cyc);
+	    same(network.allTranscriptionFactors(),
+		 cyc.allTranscriptionFactors(), "all-transcription-factors");
+	    String[] factors = {"TF1", "TF2"};
+	    for (int i = 0; i < factors.length; i++)
+	    {
+		same(network.regulonOfProtein(factors[i]),
+		     cyc.regulonOfProtein(factors[i]),
+		     "regulon-of-protein " + factors[i]);
+		same(network.transcriptionUnitsOfProtein(factors[i]),
+		     cyc.transcriptionUnitsOfProtein(factors[i]),
+		     "transcription-units-of-protein " + factors[i]);
+	    }
+	    String[] tus = {"TU1", "TU2"};
+	    for (int i = 0; i < tus.length; i++)
+	    {
+		same(network.transcriptionUnitGenes(tus[i]),
+		     cyc.transcriptionUnitGenes(tus[i]),
+		     "transcription-unit-genes " + tus[i]);
+		same(network.regulatorProteinsOfTranscriptionUnit(tus[i]),
+		     cyc.regulatorProteinsOfTranscriptionUnit(tus[i]),
+		     "regulator-proteins-of-transcription-unit " + tus[i]);
+		expect(network.transcriptionUnitPromoter(tus[i]).equals(
+			   cyc.transcriptionUnitPromoter(tus[i])),
+		       "transcription-unit-promoter " + tus[i]);
+		expect(network.transcriptionUnitsOfGene(tus[i]).isEmpty()
+		       && network.transcriptionFactorsOfGene(tus[i]).isEmpty(),
+		       tus[i] + " is looked up as a gene");
+	    }
+	    same(network.transcriptionFactorsOfGene("G3"),
+		 Arrays.asList(new String[] {"TF2", "TF1-P"}),
+		 "factors of G3");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       CPLX2 contains CPLX1, which contains MONO1 and MONO2; MONO1-P is a
+       modified form of MONO1 and a subunit of CPLX3.  The containment and
+       modification calls include the protein itself.
+    */
+    private static void proteinHierarchy() throws Exception
+    {
+	StandInServer server = fixture(new String[][] {
+		{"(lambda (p)", "((CPLX1 (MONO1 MONO2) NIL) (CPLX2 (CPLX1) NIL)"
+		 + " (CPLX3 (MONO1-P) NIL) (MONO1 NIL (MONO1-P))"
+		 + " (MONO2 NIL NIL) (MONO1-P NIL NIL))"},
+		{"(containers-of 'MONO1)", "(MONO1 CPLX1 CPLX2)"},
+		{"(containers-of 'CPLX2)", "(CPLX2)"},
+		{"(containers-of 'MONO1-P)", "(MONO1-P CPLX3)"},
+		{"(modified-forms 'MONO1)", "(MONO1 MONO1-P)"},
+		{"(modified-forms 'CPLX2)", "(CPLX2)"},
+		{"(modified-forms 'MONO1-P)", "(MONO1-P)"},
+		{"(modified-containers 'MONO1)",
+		 "(MONO1 MONO1-P CPLX1 CPLX2 CPLX3)"},
+		{"(modified-containers 'CPLX2)", "(CPLX2)"},
+		{"(modified-containers 'MONO1-P)", "(MONO1-P CPLX3)"},
+		{"(top-containers 'MONO1)", "(CPLX2)"},
+		{"(top-containers 'CPLX2)", "(CPLX2)"},
+		{"(top-containers 'MONO1-P)", "(CPLX3)"},
+		{"(monomers-of-protein 'MONO1)", "(MONO1)"},
+		{"(monomers-of-protein 'CPLX2)", "(MONO1 MONO2)"},
+		{"(monomers-of-protein 'MONO1-P)", "(MONO1-P)"}
+	    });
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    ProteinHierarchy hierarchy = ProteinHierarchy.load(cyc);
+	    String[] proteins = {"MONO1", "CPLX2", "MONO1-P"};
+	    for (int i = 0; i < proteins.length; i++)
+	    {
+		String p = proteins[i];
+		same(hierarchy.containersOf(p), cyc.containersOf(p),
+		     "containers-of " + p);
+		same(hierarchy.modifiedForms(p), cyc.modifiedForms(p),
+		     "modified-forms " + p);
+		same(hierarchy.modifiedContainers(p),
+		     cyc.modifiedContainers(p), "modified-containers " + p);
+		same(hierarchy.topContainers(p), cyc.topContainers(p),
+		     "top-containers " + p);
+		same(hierarchy.monomersOfProtein(p), cyc.monomersOfProtein(p),
+		     "monomers-of-protein " + p);
+	    }
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       G1 has a value of every kind, one of them longer than 64K and one
+       not ASCII; G2 has none.
+    */
+    private static void geneTable() throws Exception
+    {
+	StringBuffer longName = new StringBuffer("PROTEIN-");
+	while (longName.length() < 70000)
+	{
+	    longName.append("LONG-");
+	}
+	String product = longName.toString();
+	String enzyme = "\u03b2-GAL";
+	StandInServer server = fixture(new String[][] {
+		{"(lambda (g)", "((G1 (" + enzyme + ") (" + product + " CPLX1)"
+		 + " (RXN-1 RXN-2) (PWY-1) CHROM-1 (TU1))"
+		 + " (G2 NIL NIL NIL NIL NIL NIL))"},
+		{"(enzymes-of-gene 'G1)", "(" + enzyme + ")"},
+		{"(all-products-of-gene 'G1)", "(" + product + " CPLX1)"},
+		{"(reactions-of-gene 'G1)", "(RXN-1 RXN-2)"},
+		{"(pathways-of-gene 'G1)", "(PWY-1)"},
+		{"(chromosome-of-gene 'G1)", "\"CHROM-1\""},
+		{"(transcription-units-of-gene 'G1)", "(TU1)"}
+	    });
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    GeneTable table = GeneTable.materialize(cyc, new ArrayList(
+		Arrays.asList(new String[] {"G1", "G2"})), 2);
+	    String[] genes = {"G1", "G2"};
+	    for (int i = 0; i < genes.length; i++)
+	    {
+		String g = genes[i];
+		GeneTable.GeneRecord record = table.get(g);
+		expect(record != null && record.getGene().equals(g),
+		       "no record for " + g);
+		same(record.getEnzymes(), cyc.enzymesOfGene(g),
+		     "enzymes-of-gene " + g);
+		same(record.getProducts(), cyc.allProductsOfGene(g),
+		     "all-products-of-gene " + g);
+		same(record.getReactions(), cyc.reactionsOfGene(g),
+		     "reactions-of-gene " + g);
+		same(record.getPathways(), cyc.pathwaysOfGene(g),
+		     "pathways-of-gene " + g);
+		same(record.getTranscriptionUnits(),
+		     cyc.transcriptionUnitsOfGene(g),
+		     "transcription-units-of-gene " + g);
+		// The server prints a missing chromosome as NIL
+		String chromosome = cyc.chromosomeOfGene(g);
+		String local = record.getChromosome();
+		expect((local == null) ? chromosome.equals("NIL")
+		       : local.equals(chromosome),
+		       "chromosome-of-gene " + g + ": index gave " + local
+		       + ", server " + chromosome);
+	    }
+	    expect(table.get("G3") == null, "record for a gene not loaded");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       Two reactions share ATP.  The KB then loses RXN-2 and gains RXN-3,
+       and a refresh fetches only RXN-3 and drops RXN-2.
+    */
+    private static void compoundIndex() throws Exception
+    {
+	String[][] answers = {
+	    {"(lambda (r)", "((RXN-1 (ATP ADP) (PWY-1))"
+	     + " (RXN-2 (ATP GLC) (PWY-1 PWY-2)))"},
+	    {"(all-rxns)", "(RXN-1 RXN-2)"},
+	    {"(reactions-of-compound 'ATP)", "(RXN-1 RXN-2)"},
+	    {"(reactions-of-compound 'ADP)", "(RXN-1)"},
+	    {"(reactions-of-compound 'GLC)", "(RXN-2)"},
+	    {"(reactions-of-compound 'G6P)", "NIL"}
+	};
+	StandInServer server = fixture(answers);
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    CompoundIndex index = CompoundIndex.load(cyc);
+	    String[] compounds = {"ATP", "ADP", "GLC", "G6P"};
+	    for (int i = 0; i < compounds.length; i++)
+	    {
+		same(index.reactionsOfCompound(compounds[i]),
+		     cyc.reactionsOfCompound(compounds[i]),
+		     "reactions-of-compound " + compounds[i]);
+	    }
+	    same(index.pathwaysOfCompound("ATP"),
+		 Arrays.asList(new String[] {"PWY-1", "PWY-2"}),
+		 "pathways of ATP");
+	    answers[0][1] = "((RXN-3 (GLC G6P) (PWY-3)))";
+	    answers[1][1] = "(RXN-1 RXN-3)";
+	    answers[2][1] = "(RXN-1)";
+	    answers[4][1] = "(RXN-3)";
+	    answers[5][1] = "(RXN-3)";
+	    int fetched = index.refresh(cyc);
+	    expect(fetched == 1, "refresh fetched " + fetched + " reactions");
+	    for (int i = 0; i < compounds.length; i++)
+	    {
+		same(index.reactionsOfCompound(compounds[i]),
+		     cyc.reactionsOfCompound(compounds[i]),
+		     "reactions-of-compound " + compounds[i]
+		     + " after refresh");
+	    }
+	    same(index.pathwaysOfCompound("GLC"),
+		 Arrays.asList(new String[] {"PWY-3"}),
+		 "pathways of GLC after refresh");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       A mirror of two slots of three pathways.  Between refreshes PWY-2
+       changes, PWY-3 goes and PWY-4 comes; the second refresh fetches the
+       values of PWY-2 and PWY-4 only.
+    */
+    private static void frameMirror() throws Exception
+    {
+	String[][] answers = {
+	    {"(sxhash", "((PWY-1 \"11\") (PWY-2 \"22\") (PWY-3 \"33\"))"},
+	    {"(list (object-name f) (vals", "((PWY-1 (\"glycolysis\") (RXN-1))"
+	     + " (PWY-2 (\"TCA\") (RXN-2 RXN-3)) (PWY-3 NIL NIL))"},
+	    {"(get-slot-values 'PWY-1 'COMMON-NAME)", "(\"glycolysis\")"},
+	    {"(get-slot-values 'PWY-1 'REACTION-LIST)", "(RXN-1)"},
+	    {"(get-slot-values 'PWY-2 'COMMON-NAME)", "(\"TCA\")"},
+	    {"(get-slot-values 'PWY-2 'REACTION-LIST)", "(RXN-2 RXN-3)"},
+	    {"(get-slot-values 'PWY-4 'COMMON-NAME)", "(\"urea\")"},
+	    {"(get-slot-values 'PWY-4 'REACTION-LIST)", "(RXN-4)"}
+	};
+	StandInServer server = fixture(answers);
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    FrameMirror mirror = new FrameMirror("|Pathways|", new String[] {
+		    "COMMON-NAME", "REACTION-LIST"});
+	    FrameMirror.Delta delta = mirror.refresh(cyc);
+	    expect(delta.added.size() == 3 && delta.changed.isEmpty()
+		   && delta.removed.isEmpty(), "first refresh " + delta.added);
+	    answers[0][1] = "((PWY-1 \"11\") (PWY-2 \"23\") (PWY-4 \"44\"))";
+	    answers[1][1] = "((PWY-2 (\"TCA\") (RXN-2 RXN-3))"
+		+ " (PWY-4 (\"urea\") (RXN-4)))";
+	    delta = mirror.refresh(cyc);
+	    same(delta.added, Arrays.asList(new String[] {"PWY-4"}), "added");
+	    same(delta.changed, Arrays.asList(new String[] {"PWY-2"}),
+		 "changed");
+	    same(delta.removed, Arrays.asList(new String[] {"PWY-3"}),
+		 "removed");
+	    same(mirror.frames(),
+		 Arrays.asList(new String[] {"PWY-1", "PWY-2", "PWY-4"}),
+		 "mirrored frames");
+	    String[] frames = {"PWY-1", "PWY-2", "PWY-4"};
+	    String[] slots = {"COMMON-NAME", "REACTION-LIST"};
+	    for (int i = 0; i < frames.length; i++)
+	    {
+		for (int j = 0; j < slots.length; j++)
+		{
+		    same(mirror.getSlotValues(frames[i], slots[j]),
+			 cyc.getSlotValues(frames[i], slots[j]),
+			 "get-slot-values " + frames[i] + " " + slots[j]);
+		}
+	    }
+	    expect(mirror.refresh(cyc).isEmpty(), "third refresh not empty");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       HEXOSES is under SUGARS, under COMPOUNDS; PROTEINS is beside it.
+       NEW-CPD is of a class made after the index was loaded, so questions
+       about it go to the server.
+    */
+    private static void classHierarchy() throws Exception
+    {
+	StandInServer server = fixture(new String[][] {
+		{"(lambda (c)", "((FRAMES NIL) (COMPOUNDS (FRAMES))"
+		 + " (SUGARS (COMPOUNDS)) (HEXOSES (SUGARS))"
+		 + " (PROTEINS (FRAMES)))"},
+		{"(get-instance-direct-types 'GLC)", "(HEXOSES)"},
+		{"(get-instance-direct-types 'PROT)", "(PROTEINS)"},
+		{"(get-instance-direct-types 'NEW-CPD)", "(NEW-CLASS)"},
+		{"(get-instance-all-types 'GLC)",
+		 "(HEXOSES SUGARS COMPOUNDS FRAMES)"},
+		{"(get-instance-all-types 'PROT)", "(PROTEINS FRAMES)"},
+		{"(get-instance-all-types 'NEW-CPD)",
+		 "(NEW-CLASS COMPOUNDS FRAMES)"},
+		{"-p 'GLC 'SUGARS)", "T"}, {"-p 'SUGARS 'GLC)", "T"},
+		{"-p 'GLC 'COMPOUNDS)", "T"}, {"-p 'COMPOUNDS 'GLC)", "T"},
+		{"-p 'PROT 'PROTEINS)", "T"}, {"-p 'PROTEINS 'PROT)", "T"},
+		{"-p 'NEW-CPD 'COMPOUNDS)", "T"},
+		{"-p 'COMPOUNDS 'NEW-CPD)", "T"}
+	    });
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    ClassHierarchy hierarchy = ClassHierarchy.load(cyc);
+	    String[] instances = {"GLC", "PROT", "NEW-CPD"};
+	    String[] classes = {"SUGARS", "PROTEINS", "COMPOUNDS"};
+	    for (int i = 0; i < instances.length; i++)
+	    {
+		String x = instances[i];
+		same(hierarchy.getInstanceDirectTypes(x),
+		     cyc.getInstanceDirectTypes(x),
+		     "get-instance-direct-types " + x);
+		same(hierarchy.getInstanceAllTypes(x),
+		     cyc.getInstanceAllTypes(x), "get-instance-all-types " + x);
+		for (int j = 0; j < classes.length; j++)
+		{
+		    String c = classes[j];
+		    expect(hierarchy.instanceAllInstanceOfP(c, x)
+			   == cyc.instanceAllInstanceOfP(c, x),
+			   "instance-all-instance-of-p " + c + " " + x);
+		    expect(hierarchy.classAllTypeOfP(c, x)
+			   == cyc.classAllTypeOfP(c, x),
+			   "class-all-type-of-p " + c + " " + x);
+		}
+	    }
+	    expect(hierarchy.isSubclass("HEXOSES", "COMPOUNDS")
+		   && !hierarchy.isSubclass("COMPOUNDS", "HEXOSES"),
+		   "subclass test");
+	    same(hierarchy.getClassAllSupers("HEXOSES"),
+		 Arrays.asList(new String[] {"SUGARS", "COMPOUNDS", "FRAMES"}),
+		 "supers of HEXOSES");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       Prefix and fuzzy searches find each frame once, by its common name
+       ahead of its synonyms, and a renamed frame is found by its new name
+       only.
+    */
+    private static void frameNameIndex() throws Exception
+    {
+	String[][] answers = {
+	    {"(sxhash", "((GLC \"1\") (GLT \"2\") (ATP \"3\"))"},
+	    {"(list (object-name f) (vals",
+	     "((GLC (\"<i>D</i>-glucose\") (\"glucose\" \"dextrose\"))"
+	     + " (GLT (\"glutamate\") (\"glu\"))"
+	     + " (ATP (\"adenosine-5'-triphosphate\") NIL))"}
+	};
+	StandInServer server = fixture(answers);
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    FrameNameIndex index =
+		new FrameNameIndex(new String[] {"|Compounds|"});
+	    expect(index.refresh(cyc) == 3 && index.size() == 3,
+		   "first refresh indexed " + index.size());
+	    ArrayList matches = index.prefixSearch("GLU", 10);
+	    same(framesOf(matches),
+		 Arrays.asList(new String[] {"GLC", "GLT"}), "prefix GLU");
+	    expect(matches.size() == 2, "a frame found twice: " + matches);
+	    matches = index.prefixSearch("d-gluc", 10);
+	    expect(matches.size() == 1 && ((FrameNameIndex.Match)
+		   matches.get(0)).name.equals("<i>D</i>-glucose"),
+		   "prefix d-gluc: " + matches);
+	    matches = index.fuzzySearch("glucoze", 10);
+	    expect(!matches.isEmpty() && ((FrameNameIndex.Match)
+		   matches.get(0)).frame.equals("GLC"),
+		   "fuzzy glucoze: " + matches);
+	    expect(index.prefixSearch("adenosine-5", 10).size() == 1,
+		   "prefix adenosine-5");
+	    answers[0][1] = "((GLC \"1\") (GLT \"2\") (ATP \"4\"))";
+	    answers[1][1] = "((ATP (\"adenosine triphosphate\") NIL))";
+	    expect(index.refresh(cyc) == 1, "second refresh");
+	    expect(index.prefixSearch("adenosine-5", 10).isEmpty(),
+		   "renamed frame found by its old name");
+	    expect(index.prefixSearch("atp", 10).size() == 1
+		   && index.prefixSearch("adenosine t", 10).size() == 1,
+		   "renamed frame not found by id and new name");
+	    same(framesOf(index.prefixSearch("AT", 10)),
+		 Arrays.asList(new String[] {"ATP"}), "prefix AT");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    // The frames of a list of FrameNameIndex.Matches
+    private static List framesOf(List matches)
+    {
+	ArrayList frames = new ArrayList();
+	for (int i = 0; i < matches.size(); i++)
+	{
+	    frames.add(((FrameNameIndex.Match)matches.get(i)).frame);
+	}
+	return frames;
+    }
+
+    /**
+       The names and predicates fetched for many enzymes in one query are
+       those of the single calls, including for a name that needs bars.
+    */
+    private static void bulkCalls() throws Exception
+    {
+	StandInServer server = fixture(new String[][] {
+		{"(full-enzyme-name f)",
+		 "(\"hexokinase\" \"kinase 2\" \"|E 3| kinase\")"},
+		{"(enzyme-activity-name f)", "(\"a1\" \"a2\" \"a3\")"},
+		{"(enzyme? f)", "(\"101\")"},
+		{"(transporter? f)", "(\"010\")"},
+		{"(full-enzyme-name 'E1)", "\"hexokinase\""},
+		{"(full-enzyme-name 'E2)", "\"kinase 2\""},
+		{"(full-enzyme-name '|E 3|)", "\"|E 3| kinase\""},
+		{"(enzyme-activity-name 'E1)", "\"a1\""},
+		{"(enzyme-activity-name 'E2)", "\"a2\""},
+		{"(enzyme-activity-name '|E 3|)", "\"a3\""},
+		{"(enzyme? 'E1)", "T"},
+		{"(enzyme? '|E 3|)", "T"},
+		{"(transporter? 'E2)", "T"}
+	    });
+	server.start();
+	try
+	{
+	    List enzymes = Arrays.asList(new String[] {"E1", "E2", "E 3"});
+	    Javacyc bulk = new Javacyc("ECOLI", SOCKET);
+	    Map full = bulk.fullEnzymeNames(enzymes);
+	    Map activity = bulk.enzymeActivityNames(enzymes);
+	    BitSet isEnzyme = bulk.isEnzyme(enzymes);
+	    BitSet isTransporter = bulk.isTransporter(enzymes);
+	    expect(new ArrayList(full.keySet()).equals(enzymes),
+		   "full names in the wrong order: " + full.keySet());
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    for (int i = 0; i < enzymes.size(); i++)
+	    {
+		String enzyme = (String)enzymes.get(i);
+		expect(full.get(enzyme).equals(cyc.fullEnzymeName(enzyme)),
+		       "full-enzyme-name " + enzyme + ": " + full.get(enzyme));
+		expect(activity.get(enzyme).equals(
+			   cyc.enzymeActivityName(enzyme)),
+		       "enzyme-activity-name " + enzyme + ": "
+		       + activity.get(enzyme));
+		expect(isEnzyme.get(i) == cyc.isEnzyme(enzyme),
+		       "enzyme? " + enzyme);
+		expect(isTransporter.get(i) == cyc.isTransporter(enzyme),
+		       "transporter? " + enzyme);
+	    }
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       Makes a server for a fixture KB.  Each answer is a pair of a text
+       and a printed value; a query gets the value of the first pair
+       whose text it contains, and NIL if there is none.  Values may be
+       changed between calls, to change the KB.
+    */
+    private static StandInServer fixture(final String[][] answers)
+    {
+	return new StandInServer(SOCKET) {
+		protected byte[] respond(String query)
+		{
+		    for (int i = 0; i < answers.length; i++)
+		    {
+			if (query.indexOf(answers[i][0]) >= 0)
+			{
+			    return (answers[i][1] + "\n").getBytes();
+			}
+		    }
+		    return "NIL\n".getBytes();
+		}
+	    };
+    }
+
+    /**
+       Fails unless two lists hold the same frames, in any order.
+    */
+    private static void same(List local, List remote, String call)
+    {
+	expect(new HashSet(local).equals(new HashSet(remote))
+	       && local.size() == remote.size(),
+	       call + ": index gave " + local + ", server " + remote);
+    }
+
+    private static void expect(boolean condition, String failure)
+    {
+	if (!condition)
+	{
+	    throw new IllegalStateException(failure);
+	}
+    }
+
+    private static final String SOCKET = "/tmp/javacyc-check-index";
+}
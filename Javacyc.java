@@ -2,19 +2,31 @@
    Javacyc is a Java interface for the Pathway Tools software.  Pathway Tools
    needs to run a special socket server for Javacyc to work.
 
-   Javacyc uses J-BUDS for Unix domain sockets.
+   Javacyc talks to the server over a Unix domain socket using NIO socket
+   channels.  It no longer needs the J-BUDS native library, and its
+   blocking reads and writes do not pin the carrier thread when Javacyc is
+   called from virtual threads.
 
    Javacyc accesses Generic Frame Protocol (GFP) and Pathway Tools Internal
    Lisp (PTIL) functions.  These functions either return a boolean, a string,
    or a list.  The lists returned are always an ArrayList of strings unless
    specified otherwise.
 
+   A Javacyc may be shared by any number of threads.  Every call opens its
+   own connection to the server and reads the organism once, so concurrent
+   calls never share a stream.  Use forOrganism to get a view of the same
+   server bound to another organism rather than calling selectOrganism on
+   a shared instance.
+
    @author Thomas Yan
    Copyright (c) 2003; The Arabidopsis Information Resource
    See README file for license details
 */
 
 import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 
 public class Javacyc
@@ -27,38 +39,273 @@ public class Javacyc
     {
 	this.organism = organism;
 	socketName = "/tmp/ptools-socket";
+	retryPolicy = RetryPolicy.NONE;
     }
 
 
     /**
-       Get a socket connection with Pathway Tools using a Unix domain
-       socket.
+       Constructor for a Javacyc that connects to a socket other than the
+       default /tmp/ptools-socket.
+       @param organism the name of the organism
+       @param socketName the path of the server's Unix domain socket
     */
-    private void makeSocket() {
-	try {
-	    // Create socket and connect to the server
-	    uds = new UnixDomainSocket(socketName);
-	    out = new PrintWriter(uds.getOutputStream(), true);
-	    in = new BufferedReader(
-				    new InputStreamReader(uds.getInputStream()));
-	} catch (IOException e) { 
-	    e.printStackTrace();
-	    throw new RuntimeException(); 
+    public Javacyc(String organism, String socketName)
+    {
+	this.organism = organism;
+	this.socketName = socketName;
+	retryPolicy = RetryPolicy.NONE;
+    }
+
+    /**
+       Returns a view of the same Pathway Tools server bound to another
+       organism.  The view and this Javacyc do not affect each other, and
+       creating one does not contact the server.
+       @param organism the name of the organism
+       @return a Javacyc for organism
+    */
+    public Javacyc forOrganism(String organism)
+    {
+	Javacyc view = new Javacyc(organism, socketName);
+	view.limiter = limiter;
+	view.retryPolicy = retryPolicy;
+	view.breaker = breaker;
+	view.scheduler = scheduler;
+	view.caller = caller;
+	view.priority = priority;
+	view.encoding = encoding;
+	view.cache = cache;
+	view.recorder = recorder;
+	view.names = names;
+	view.prefetcher = prefetcher;
+	return view;
+    }
+
+    /**
+       Returns a view of this Javacyc whose calls are queued by the query
+       scheduler under the given caller and priority class.  Calls made
+       directly on a Javacyc are INTERACTIVE calls of the caller "default",
+       so batch jobs should make their calls through a BATCH view.
+       @param caller an identifier of the caller, used for fair queuing
+       @param priority QueryScheduler.INTERACTIVE or QueryScheduler.BATCH
+       @return a Javacyc for the same organism and server
+    */
+    public Javacyc forCaller(String caller, int priority)
+    {
+	Javacyc view = forOrganism(organism);
+	view.caller = caller;
+	view.priority = priority;
+	return view;
+    }
+
+    /**
+       Caps the number of calls this Javacyc has in flight to the server.
+       Calls over the limit wait for a slot, and are rejected with a
+       ServerOverloadedException if they cannot get one in time.  Views
+       created afterwards by forOrganism share the limiter.  A limiter may
+       also be shared by several Javacyc instances that use one server.
+       @param limiter the limiter, or null for no limit
+    */
+    public void setConcurrencyLimiter(ConcurrencyLimiter limiter)
+    {
+	this.limiter = limiter;
+    }
+
+    /**
+       Sets how connections that cannot be opened are retried.  By default
+       a call fails on the first connection error.  Views created
+       afterwards by forOrganism share the policy.
+       @param policy the retry policy
+    */
+    public void setRetryPolicy(RetryPolicy policy)
+    {
+	retryPolicy = (policy == null) ? RetryPolicy.NONE : policy;
+    }
+
+    /**
+       Sets a circuit breaker that makes calls fail fast while the server
+       is down.  Views created afterwards by forOrganism share the breaker,
+       and it may be shared by several Javacyc instances that use one
+       server.
+       @param breaker the circuit breaker, or null for none
+    */
+    public void setCircuitBreaker(CircuitBreaker breaker)
+    {
+	this.breaker = breaker;
+    }
+
+    /**
+       Sets a scheduler that orders calls by priority class and caller
+       before they are sent.  Views created afterwards by forOrganism or
+       forCaller share it, and it should be shared by every Javacyc that
+       uses the same server.
+       @param scheduler the scheduler, or null to send calls in any order
+    */
+    public void setQueryScheduler(QueryScheduler scheduler)
+    {
+	this.scheduler = scheduler;
+    }
+
+    /**
+       Selects how the server encodes the results of list functions.
+       ENCODING_TEXT, the default, has the server print the list.
+       ENCODING_FRONT_CODED has it send each name as the length of the
+       prefix it shares with the previous name followed by the rest of the
+       name, which is much smaller for long lists of similar frame ids,
+       and is decoded as it streams in.  ENCODING_BINARY has the server
+       send a tagged encoding that is decoded without tokenizing; it also
+       applies to the bulk loaders, and needs javacyc.lisp to be loaded
+       into Pathway Tools.  Views created afterwards by forOrganism share
+       the setting.
+       @param encoding ENCODING_TEXT, ENCODING_FRONT_CODED or
+       ENCODING_BINARY
+    */
+    public void setResponseEncoding(int encoding)
+    {
+	if (encoding != ENCODING_TEXT && encoding != ENCODING_FRONT_CODED
+	    && encoding != ENCODING_BINARY)
+	{
+	    throw new IllegalArgumentException("unknown encoding " + encoding);
+	}
+	this.encoding = encoding;
+    }
+
+    /**
+       Sets a cache of query responses.  Calls whose query is in the cache
+       are answered without contacting the server, and the responses of
+       other read-only calls are added to it.  Calls that modify the KB,
+       such as putSlotValue or revertKB, are never cached and clear the
+       cache when they succeed.  Views created afterwards by forOrganism
+       share the cache; queries include the organism, so views of
+       different organisms do not see each other's entries.
+       @param cache the cache, or null for none
+    */
+    public void setQueryCache(QueryCache cache)
+    {
+	this.cache = cache;
+    }
+
+    /**
+       Starts or stops recording the queries sent to the server and their
+       responses.  Responses are read in full before they are parsed while
+       recording.  Views created afterwards by forOrganism share the
+       recorder.
+       @param recorder the recorder, or null to stop recording
+    */
+    public void setTrafficRecorder(TrafficRecorder recorder)
+    {
+	this.recorder = recorder;
+    }
+
+    /**
+       Sets how many enzyme names are kept in memory.  fullEnzymeName,
+       enzymeActivityName and their bulk forms answer names they have
+       fetched before from this cache.  It keeps the most recently used
+       names, DEFAULT_NAME_CACHE_SIZE unless set, and is emptied by calls
+       that modify the KB.  Views created afterwards by forOrganism share
+       the cache.
+       @param size the number of names, or 0 for no cache
+    */
+    public void setNameCacheSize(int size)
+    {
+	names = (size > 0) ? new NameCache(size) : null;
+    }
+
+    /**
+       Sets a prefetcher that learns which calls usually follow which,
+       and fetches the likely follow-up calls into the query cache in the
+       background.  It only has an effect with a query cache.  Views
+       created afterwards by forOrganism share the prefetcher.
+       @param prefetcher the prefetcher, or null for none
+    */
+    public void setPrefetcher(Prefetcher prefetcher)
+    {
+	this.prefetcher = prefetcher;
+    }
+
+    /** Number of names kept by the name cache by default. */
+    public static final int DEFAULT_NAME_CACHE_SIZE = 10000;
+
+    /** Results of list functions are printed lisp lists. */
+    public static final int ENCODING_TEXT = 0;
+
+    /** Results of list functions are front coded names. */
+    public static final int ENCODING_FRONT_CODED = 1;
+
+    /** Results are in the tagged encoding written by javacyc.lisp. */
+    public static final int ENCODING_BINARY = 2;
+
+    /**
+       Get a socket connection with Pathway Tools using a Unix domain
+       socket.  Connecting is retried as the retry policy allows, and the
+       outcome of every attempt is reported to the circuit breaker.  The
+       scheduler and limiter slots are taken for each attempt and given
+       back while backing off, so callers waiting out a server restart do
+       not hold slots other calls could use, and the wait is not taken
+       for server latency by the limiter.
+       @param kind the kind of call, against whose earlier calls the
+       limiter judges its latency
+       @return the connection, owned by the calling method
+       @throws ServerUnavailableException if no attempt succeeds, or the
+       circuit breaker is open
+    */
+    private Connection makeSocket(Object kind) {
+	RetryPolicy policy = retryPolicy;
+	CircuitBreaker cb = breaker;
+	IOException lastError = null;
+	for (int attempt = 1; attempt <= policy.getMaxAttempts(); attempt++) {
+	    if (attempt > 1) {
+		try {
+		    Thread.sleep(policy.delayBefore(attempt - 1));
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    break;
+		}
+	    }
+	    Slots slots = new Slots(scheduler, priority, limiter, kind);
+	    slots.acquire(caller);
+	    try {
+		if (cb != null) {
+		    cb.beforeConnect();
+		}
+		// Create socket and connect to the server
+		SocketChannel channel = SocketChannel.open(
+		    UnixDomainSocketAddress.of(socketName));
+		if (cb != null) {
+		    cb.onSuccess();
+		}
+		return new Connection(channel, slots);
+	    } catch (IOException e) {
+		lastError = e;
+		if (cb != null) {
+		    cb.onFailure();
+		}
+		// Only the call's last attempt counts as a failure
+		if (attempt == policy.getMaxAttempts()) {
+		    slots.release(false);
+		} else {
+		    slots.cancel();
+		}
+	    } catch (RuntimeException e) {
+		slots.release(false);
+		throw e;
+	    }
 	}
+	throw new ServerUnavailableException(
+	    "Unable to connect to Pathway Tools at " + socketName, lastError);
     }
 
     /**
        Close the socket connection with Pathway Tools.
-       @throws IOException if the socket connection cannot be closed
+       @param conn the connection returned by makeSocket
     */
-    private void closeSocket() {
+    private void closeSocket(Connection conn) {
 	try {
-	    uds.close();
-	    out.close();
-	    in.close();
+	    conn.channel.close();
 	} catch (IOException e) {
 	    e.printStackTrace();
 	    throw new RuntimeException(); 
+	} finally {
+	    conn.slots.release(conn.succeeded);
 	}
     }
 
@@ -73,7 +320,7 @@ public class Javacyc
     */
     public ArrayList getSlotValues(String frame, String slotName)
     {
-	return callFuncArray("get-slot-values '" + frame + " '" + slotName);
+	return callFuncArray(GET_SLOT_VALUES, new String[] {frame, slotName});
     }
 
     /**
@@ -84,7 +331,7 @@ public class Javacyc
     */
     public String getSlotValue(String frame, String slotName)
     {
-	return callFuncString("get-slot-value '" + frame + " '" + slotName);
+	return callFuncString(GET_SLOT_VALUE, new String[] {frame, slotName});
     }
 
     /**
@@ -98,8 +345,8 @@ public class Javacyc
     public ArrayList getClassSlotSlotvalue(String className, String slotName,
 					   String slotValue)
     {
-	return callFuncArray("get-class-slot-slotvalue '" + className + " '" 
-			     + slotName + " '" + slotValue);
+	return callFuncArray(GET_CLASS_SLOT_SLOTVALUE,
+			     new String[] {className, slotName, slotValue});
     }
 
     /**
@@ -110,7 +357,8 @@ public class Javacyc
     */
     public ArrayList getClassAllInstances(String classFrame)
     {
-	return callFuncArray("get-class-all-instances '" + classFrame);
+	return callFuncArray(GET_CLASS_ALL_INSTANCES,
+			     new String[] {classFrame});
     }
 
     /**
@@ -121,8 +369,8 @@ public class Javacyc
     */
     public boolean instanceAllInstanceOfP(String classFrame, String instance)
     {
-	return callFuncBool("instance-all-instance-of-p '" + instance + " '"
-			    + classFrame);
+	return callFuncBool(INSTANCE_ALL_INSTANCE_OF_P,
+			    new String[] {instance, classFrame});
     }
 
     /**
@@ -134,8 +382,8 @@ public class Javacyc
     */
     public boolean memberSlotValueP(String frame, String slot, String value)
     {
-	return callFuncBool("member-slot-value-p '" + frame + " '" + slot 
-			    + " '" + value);
+	return callFuncBool(MEMBER_SLOT_VALUE_P,
+			    new String[] {frame, slot, value});
     }
 
     /**
@@ -156,8 +404,8 @@ public class Javacyc
     */
     public ArrayList putSlotValues(String frame, String slot, String values)
     {
-	return callFuncArray("put-slot-values '" + frame + " '" + slot
-			     + " '" + values);
+	return callFuncArray(PUT_SLOT_VALUES,
+			     new String[] {frame, slot, values});
     }
 
     /**
@@ -169,8 +417,8 @@ public class Javacyc
     */
     public ArrayList putSlotValue(String frame, String slot, String value)
     {
-	return callFuncArray("put-slot-value '" + frame + " '" + slot 
-			     + " '" + value);
+	return callFuncArray(PUT_SLOT_VALUE,
+			     new String[] {frame, slot, value});
     }
 
     /**
@@ -182,8 +430,8 @@ public class Javacyc
     */
     public ArrayList addSlotValue(String frame, String slot, String value)
     {
-	return callFuncArray("add-slot-value '" + frame + " '" + slot
-			     + " '" + value);
+	return callFuncArray(ADD_SLOT_VALUE,
+			     new String[] {frame, slot, value});
     }
 
     /**
@@ -197,8 +445,8 @@ public class Javacyc
     public ArrayList replaceSlotValue(String frame, String slot, 
 				      String oldValue, String newValue)
     {
-	return callFuncArray("replace-slot-value '" + frame + " '" + slot
-			     + " '" + oldValue + " '" + newValue);
+	return callFuncArray(REPLACE_SLOT_VALUE,
+			     new String[] {frame, slot, oldValue, newValue});
     }
 
     /**
@@ -209,7 +457,7 @@ public class Javacyc
     */
     public ArrayList removeSlotValue(String frame, String slot)
     {
-	return callFuncArray("remove-slot-value '" + frame + " '" + slot);
+	return callFuncArray(REMOVE_SLOT_VALUE, new String[] {frame, slot});
     }
 
     /**
@@ -220,7 +468,19 @@ public class Javacyc
     */
     public boolean coercibleToFrameP(String thing)
     {
-	return callFuncBool("coercible-to-frame-p '" + thing);
+	return callFuncBool(COERCIBLE_TO_FRAME_P, new String[] {thing});
+    }
+
+    /**
+       Calls the GFP function, coercible-to-frame-p, on many things in
+       one query
+       @param things a List of things
+       @return a BitSet whose bit i is set if things.get(i) is a frame
+       object, the name of a frame in kb, or handle of frame in kb
+    */
+    public BitSet coercibleToFrameP(List things)
+    {
+	return callFuncPredicate(COERCIBLE_TO_FRAME_P, things);
     }
 
     /**
@@ -231,8 +491,8 @@ public class Javacyc
     */
     public boolean classAllTypeOfP(String classFrame, String instance)
     {
-	return callFuncBool("class-all-type-of-p '" + classFrame + " '" 
-			    + instance);
+	return callFuncBool(CLASS_ALL_TYPE_OF_P,
+			    new String[] {classFrame, instance});
     }
 
     /**
@@ -242,7 +502,8 @@ public class Javacyc
     */
     public ArrayList getInstanceDirectTypes(String instance)
     {
-	return callFuncArray("get-instance-direct-types '" + instance);
+	return callFuncArray(GET_INSTANCE_DIRECT_TYPES,
+			     new String[] {instance});
     }
 
     /**
@@ -252,7 +513,7 @@ public class Javacyc
     */
     public ArrayList getInstanceAllTypes(String instance)
     {
-	return callFuncArray("get-instance-all-types '" + instance);
+	return callFuncArray(GET_INSTANCE_ALL_TYPES, new String[] {instance});
     }
 
     /**
@@ -262,7 +523,7 @@ public class Javacyc
     */
     public ArrayList getFrameSlots(String frame)
     {
-	return callFuncArray("get-frame-slots '" + frame);
+	return callFuncArray(GET_FRAME_SLOTS, new String[] {frame});
     }
 
     /**
@@ -273,8 +534,8 @@ public class Javacyc
     */
     public ArrayList putInstanceTypes(String instance, String newTypes)
     {
-	return callFuncArray("put-instance-types '" + instance + " '" 
-			     + newTypes);
+	return callFuncArray(PUT_INSTANCE_TYPES,
+			     new String[] {instance, newTypes});
     }
 
     /**
@@ -283,7 +544,7 @@ public class Javacyc
     */
     public ArrayList saveKB()
     {
-	return callFuncArray("save-kb");
+	return callFuncArray(SAVE_KB, NO_ARGUMENTS);
     }
 
     /**
@@ -292,7 +553,7 @@ public class Javacyc
     */
     public ArrayList revertKB()
     {
-	return callFuncArray("revert-kb");
+	return callFuncArray(REVERT_KB, NO_ARGUMENTS);
     }
 
     /**
@@ -304,8 +565,8 @@ public class Javacyc
     */
     public ArrayList findIndexedFrame(String datum, String className)
     {
-	return callFuncArray("multiple-value-list (find-indexed-frame ' "
-			     + datum + " '" + className);
+	return callFuncArray(FIND_INDEXED_FRAME,
+			     new String[] {datum, className});
     }
 
     // Methods that call Pathway-Tools internal lisp (PTIL) functions
@@ -314,7 +575,9 @@ public class Javacyc
        Changes the organism.  Does not make a call to the select-organism
        lisp function in Pathway-Tools.  Does not make any calls to 
        Pathway-Tools functions.  The organism is prefixed to every query
-       sent to the socket server.
+       sent to the socket server.  Calls already in progress on other
+       threads keep the organism they started with; prefer forOrganism
+       when the instance is shared.
        @param newOrganism the new organism
     */
     public void selectOrganism(String newOrganism)
@@ -328,7 +591,7 @@ public class Javacyc
     */
     public ArrayList allPathways()
     {
-	return callFuncArray("all-pathways");
+	return callFuncArray(ALL_PATHWAYS, NO_ARGUMENTS);
     }
 
     /**
@@ -338,7 +601,7 @@ public class Javacyc
     */
     public ArrayList allOrgs()
     {
-	return callFuncArray("all-orgs");
+	return callFuncArray(ALL_ORGS, NO_ARGUMENTS);
     }
 
     /**
@@ -347,7 +610,7 @@ public class Javacyc
     */
     public ArrayList allRxns()
     {
-	return callFuncArray("all-rxns");
+	return callFuncArray(ALL_RXNS, NO_ARGUMENTS);
     }
 
     /**
@@ -358,7 +621,7 @@ public class Javacyc
     */
     public ArrayList genesOfReaction(String rxn)
     {
-	return callFuncArray("genes-of-reaction '" + rxn);
+	return callFuncArray(GENES_OF_REACTION, new String[] {rxn});
     }
 
     /**
@@ -368,7 +631,7 @@ public class Javacyc
     */
     public ArrayList substratesOfReaction(String rxn)
     {
-	return callFuncArray("substrates-of-reaction '" + rxn);
+	return callFuncArray(SUBSTRATES_OF_REACTION, new String[] {rxn});
     }
 
     /**
@@ -379,7 +642,7 @@ public class Javacyc
     */
     public ArrayList productsOfReaction(String rxn)
     {
-	return callFuncArray("products-of-reaction '" + rxn);
+	return callFuncArray(PRODUCTS_OF_REACTION, new String[] {rxn});
     }
 
     /**
@@ -389,7 +652,7 @@ public class Javacyc
     */
     public ArrayList enzymesOfReaction(String rxn)
     {
-	return callFuncArray("enzymes-of-reaction '" + rxn);
+	return callFuncArray(ENZYMES_OF_REACTION, new String[] {rxn});
     }
 
     /**
@@ -402,9 +665,8 @@ public class Javacyc
     */
     public ArrayList reactionReactantsAndProducts(String rxn, String pwy)
     {
-	return callFuncArray("multiple-value-list (" +
-			     "reaction-reactants-and-products '" + rxn +
-			     " '" + pwy + ")");
+	return callFuncArray(REACTION_REACTANTS_AND_PRODUCTS,
+			     new String[] {rxn, pwy});
     }
 
     /**
@@ -416,7 +678,7 @@ public class Javacyc
     */
     public ArrayList getPredecessors(String rxn, String pwy)
     {
-	return callFuncArray("get-predecessors '" + rxn + " '" + pwy);
+	return callFuncArray(GET_PREDECESSORS, new String[] {rxn, pwy});
     }
 
     /**
@@ -428,7 +690,7 @@ public class Javacyc
     */
     public ArrayList getSuccessors(String rxn, String pwy)
     {
-	return callFuncArray("get-successors '" + rxn + " '" + pwy);
+	return callFuncArray(GET_SUCCESSORS, new String[] {rxn, pwy});
     }
 
     /**
@@ -438,7 +700,7 @@ public class Javacyc
     */
     public ArrayList getReactionList(String pwy)
     {
-	return callFuncArray("get-reaction-list '" + pwy);
+	return callFuncArray(GET_REACTION_LIST, new String[] {pwy});
     }
 
     /**
@@ -449,7 +711,7 @@ public class Javacyc
     */
     public ArrayList genesOfPathway(String pwy)
     {
-	return callFuncArray("genes-of-pathway '" + pwy);
+	return callFuncArray(GENES_OF_PATHWAY, new String[] {pwy});
     }
 
     /**
@@ -459,7 +721,7 @@ public class Javacyc
     */
     public ArrayList enzymesOfPathway(String pwy)
     {
-	return callFuncArray("enzymes-of pathway '" + pwy);
+	return callFuncArray(ENZYMES_OF_PATHWAY, new String[] {pwy});
     }
 
     /**
@@ -470,7 +732,7 @@ public class Javacyc
     */
     public ArrayList compoundsOfPathway(String pwy)
     {
-	return callFuncArray("compounds-of-pathway '" + pwy);
+	return callFuncArray(COMPOUNDS_OF_PATHWAY, new String[] {pwy});
     }
 
     /**
@@ -481,8 +743,7 @@ public class Javacyc
     */
     public ArrayList substratesOfPathway(String pwy)
     {
-	return callFuncArray("multiple-value-list (substrates-of-pathway '" 
-			     + pwy + ")");
+	return callFuncArray(SUBSTRATES_OF_PATHWAY, new String[] {pwy});
     }
 
     /**
@@ -491,7 +752,7 @@ public class Javacyc
     */
     public ArrayList allTranscriptionFactors()
     {
-	return callFuncArray("all-transcription-factors");
+	return callFuncArray(ALL_TRANSCRIPTION_FACTORS, NO_ARGUMENTS);
     }
 
     /**
@@ -502,7 +763,19 @@ public class Javacyc
     */
     public boolean isTranscriptionFactor(String protein)
     {
-	return callFuncBool("transcription-factor? '" + protein);
+	return callFuncBool(TRANSCRIPTION_FACTOR_P, new String[] {protein});
+    }
+
+    /**
+       Calls the PTIL function, transcription-factor?, on many proteins in
+       one query
+       @param proteins a List of proteins
+       @return a BitSet whose bit i is set if proteins.get(i) is a
+       transcription factor in the current organism
+    */
+    public BitSet isTranscriptionFactor(List proteins)
+    {
+	return callFuncPredicate(TRANSCRIPTION_FACTOR_P, proteins);
     }
 
     /**
@@ -512,7 +785,7 @@ public class Javacyc
     */
     public ArrayList allCofactors()
     {
-	return callFuncArray("all-cofactors");
+	return callFuncArray(ALL_COFACTORS, NO_ARGUMENTS);
     }
 
     /**
@@ -522,7 +795,7 @@ public class Javacyc
     */
     public ArrayList allModulators()
     {
-	return callFuncArray("all-modulators");
+	return callFuncArray(ALL_MODULATORS, NO_ARGUMENTS);
     }
 
     /**
@@ -532,7 +805,7 @@ public class Javacyc
     */
     public ArrayList monomersOfProtein(String protein)
     {
-	return callFuncArray("monomers-of-protein '" + protein);
+	return callFuncArray(MONOMERS_OF_PROTEIN, new String[] {protein});
     }
 
     /**
@@ -543,8 +816,7 @@ public class Javacyc
     */
     public ArrayList componentsOfProtein(String protein)
     {
-	return callFuncArray("multiple-value-list (components-of-protein '" 
-			     + protein + ")");
+	return callFuncArray(COMPONENTS_OF_PROTEIN, new String[] {protein});
     }
 
     /**
@@ -555,7 +827,7 @@ public class Javacyc
     */
     public ArrayList genesOfProtein(String protein)
     {
-	return callFuncArray("genes-of-protein '" + protein);
+	return callFuncArray(GENES_OF_PROTEIN, new String[] {protein});
     }
 
     /**
@@ -566,7 +838,7 @@ public class Javacyc
     */
     public ArrayList reactionsOfEnzyme(String enzyme)
     {
-	return callFuncArray("reactions-of-enzyme '" + enzyme);
+	return callFuncArray(REACTIONS_OF_ENZYME, new String[] {enzyme});
     }
 
     /**
@@ -576,7 +848,18 @@ public class Javacyc
     */
     public boolean isEnzyme(String protein)
     {
-	return callFuncBool("enzyme? '" + protein);
+	return callFuncBool(ENZYME_P, new String[] {protein});
+    }
+
+    /**
+       Calls the PTIL function, enzyme?, on many proteins in one query
+       @param proteins a List of proteins
+       @return a BitSet whose bit i is set if proteins.get(i) is an
+       enzyme
+    */
+    public BitSet isEnzyme(List proteins)
+    {
+	return callFuncPredicate(ENZYME_P, proteins);
     }
 
     /**
@@ -586,7 +869,18 @@ public class Javacyc
     */
     public boolean isTransporter(String protein)
     {
-	return callFuncBool("transporter? '" + protein);
+	return callFuncBool(TRANSPORTER_P, new String[] {protein});
+    }
+
+    /**
+       Calls the PTIL function, transporter?, on many proteins in one query
+       @param proteins a List of proteins
+       @return a BitSet whose bit i is set if proteins.get(i) is a
+       transporter
+    */
+    public BitSet isTransporter(List proteins)
+    {
+	return callFuncPredicate(TRANSPORTER_P, proteins);
     }
 
     /**
@@ -596,7 +890,7 @@ public class Javacyc
     */
     public ArrayList containersOf(String protein)
     {
-	return callFuncArray("containers-of '" + protein);
+	return callFuncArray(CONTAINERS_OF, new String[] {protein});
     }
 
     /**
@@ -606,7 +900,7 @@ public class Javacyc
     */
     public ArrayList modifiedForms(String protein)
     {
-	return callFuncArray("modified-forms '" + protein);
+	return callFuncArray(MODIFIED_FORMS, new String[] {protein});
     }
 
     /**
@@ -617,7 +911,7 @@ public class Javacyc
     */
     public ArrayList modifiedContainers(String protein)
     {
-	return callFuncArray("modified-containers '" + protein);
+	return callFuncArray(MODIFIED_CONTAINERS, new String[] {protein});
     }    
 
     /**
@@ -627,7 +921,7 @@ public class Javacyc
     */
     public ArrayList topContainers(String protein)
     {
-	return callFuncArray("top-containers '" + protein);
+	return callFuncArray(TOP_CONTAINERS, new String[] {protein});
     }
 
     /**
@@ -638,7 +932,7 @@ public class Javacyc
     */
     public ArrayList reactionsOfProtein(String protein)
     {
-	return callFuncArray("reactions-of-protein '" + protein);
+	return callFuncArray(REACTIONS_OF_PROTEIN, new String[] {protein});
     }
 
     /**
@@ -649,7 +943,7 @@ public class Javacyc
     */
     public ArrayList regulonOfProtein(String protein)
     {
-	return callFuncArray("regulon-of-protein '" + protein);
+	return callFuncArray(REGULON_OF_PROTEIN, new String[] {protein});
     }
 
     /**
@@ -660,7 +954,8 @@ public class Javacyc
     */
     public ArrayList transcriptionUnitsOfProtein(String protein)
     {
-	return callFuncArray("transcription-units-of-protein '" + protein);
+	return callFuncArray(TRANSCRIPTION_UNITS_OF_PROTEIN,
+			     new String[] {protein});
     }
 
     /**
@@ -670,8 +965,8 @@ public class Javacyc
     */
     public ArrayList regulatorProteinsOfTranscriptionUnit(String tu)
     {
-	return callFuncArray("regulator-proteins-of-transcription-unit '"
-			     + tu);
+	return callFuncArray(REGULATOR_PROTEINS_OF_TRANSCRIPTION_UNIT,
+			     new String[] {tu});
     }
 
     /**
@@ -681,7 +976,7 @@ public class Javacyc
     */
     public ArrayList enzymesOfGene(String gene)
     {
-	return callFuncArray("enzymes-of-gene '" + gene);
+	return callFuncArray(ENZYMES_OF_GENE, new String[] {gene});
     }
 
     /**
@@ -692,7 +987,7 @@ public class Javacyc
     */
     public ArrayList allProductsOfGene(String gene)
     {
-	return callFuncArray("all-products-of-gene '" + gene);
+	return callFuncArray(ALL_PRODUCTS_OF_GENE, new String[] {gene});
     }
 
     /**
@@ -703,7 +998,7 @@ public class Javacyc
     */
     public ArrayList reactionsOfGene(String gene)
     {
-	return callFuncArray("reactions-of-gene '" + gene);
+	return callFuncArray(REACTIONS_OF_GENE, new String[] {gene});
     }
 
     /**
@@ -714,7 +1009,7 @@ public class Javacyc
     */
     public ArrayList pathwaysOfGene(String gene)
     {
-	return callFuncArray("pathways-of-gene '" + gene);
+	return callFuncArray(PATHWAYS_OF_GENE, new String[] {gene});
     }
 
     /**
@@ -724,7 +1019,7 @@ public class Javacyc
     */
     public String chromosomeOfGene(String gene)
     {
-	return callFuncString("chromosome-of-gene '" + gene);
+	return callFuncString(CHROMOSOME_OF_GENE, new String[] {gene});
     }
 
     /**
@@ -735,7 +1030,7 @@ public class Javacyc
     */
     public ArrayList transcriptionUnitsOfGene(String gene)
     {
-	return callFuncArray("transcription-units-of-gene '" + gene);
+	return callFuncArray(TRANSCRIPTION_UNITS_OF_GENE, new String[] {gene});
     }
 
     /**
@@ -745,7 +1040,7 @@ public class Javacyc
     */
     public String transcriptionUnitPromoter(String tu)
     {
-	return callFuncString("transcription-unit-promoter '" + tu);
+	return callFuncString(TRANSCRIPTION_UNIT_PROMOTER, new String[] {tu});
     }
 
     /**
@@ -755,7 +1050,7 @@ public class Javacyc
     */
     public ArrayList transcriptionUnitGenes(String tu)
     {
-	return callFuncArray("transcription-unit-genes '" + tu);
+	return callFuncArray(TRANSCRIPTION_UNIT_GENES, new String[] {tu});
     }
 
     /**
@@ -766,7 +1061,8 @@ public class Javacyc
     */
     public ArrayList transcriptionUnitBindingSites(String tu)
     {
-	return callFuncArray("transcriptional-unit-binding-sites '" + tu);
+	return callFuncArray(TRANSCRIPTIONAL_UNIT_BINDING_SITES,
+			     new String[] {tu});
     }
 
     /**
@@ -777,8 +1073,8 @@ public class Javacyc
     */
     public ArrayList transcriptionUnitTranscriptionFactors(String tu)
     {
-	return callFuncArray("transcription-unit-transcription-factors '"
-			     + tu);
+	return callFuncArray(TRANSCRIPTION_UNIT_TRANSCRIPTION_FACTORS,
+			     new String[] {tu});
     }
 
     /**
@@ -789,7 +1085,8 @@ public class Javacyc
     */
     public ArrayList transcriptionUnitTerminators(String tu)
     {
-	return callFuncArray("transcription-unit-terminators '" + tu);
+	return callFuncArray(TRANSCRIPTION_UNIT_TERMINATORS,
+			     new String[] {tu});
     }
 
     /**
@@ -799,7 +1096,7 @@ public class Javacyc
     */
     public ArrayList allTransportedChemicals()
     {
-	return callFuncArray("all-transported-chemicals");
+	return callFuncArray(ALL_TRANSPORTED_CHEMICALS, NO_ARGUMENTS);
     }
 
     /**
@@ -810,7 +1107,7 @@ public class Javacyc
     */
     public ArrayList reactionsOfCompound(String cpd)
     {
-	return callFuncArray("reactions-of-compound '" + cpd);
+	return callFuncArray(REACTIONS_OF_COMPOUND, new String[] {cpd});
     }
 
     /**
@@ -820,7 +1117,7 @@ public class Javacyc
     */
     public String fullEnzymeName(String enzyme)
     {
-	return callFuncString("full-enzyme-name '" + enzyme);
+	return callFuncName(FULL_ENZYME_NAME, enzyme);
     }
 
     /**
@@ -830,7 +1127,35 @@ public class Javacyc
     */
     public String enzymeActivityName(String enzyme)
     {
-	return callFuncString("enzyme-activity-name '" + enzyme);
+	return callFuncName(ENZYME_ACTIVITY_NAME, enzyme);
+    }
+
+    /**
+       Calls the PTIL function, full-enzyme-name, on many enzymes at once.
+       Names that are not in the name cache are fetched in batches, each
+       with one mapcar on the server.  Each enzyme is quoted as the
+       argument of a single call would be.
+       @param enzymes a collection of enzymes
+       @return a Map from each enzyme to its full name, as fullEnzymeName
+       would return it, in the order of enzymes
+    */
+    public Map fullEnzymeNames(Collection enzymes)
+    {
+	return callFuncNames(FULL_ENZYME_NAME, enzymes);
+    }
+
+    /**
+       Calls the PTIL function, enzyme-activity-name, on many enzymes at
+       once.  Names that are not in the name cache are fetched in batches,
+       each with one mapcar on the server.  Each enzyme is quoted as the
+       argument of a single call would be.
+       @param enzymes a collection of enzymes
+       @return a Map from each enzyme to its activity name, as
+       enzymeActivityName would return it, in the order of enzymes
+    */
+    public Map enzymeActivityNames(Collection enzymes)
+    {
+	return callFuncNames(ENZYME_ACTIVITY_NAME, enzymes);
     }
 
     // Private methods for querying, retrieving results, calling functions,
@@ -838,17 +1163,28 @@ public class Javacyc
 
     /**
        Private method to call a Pathway Tools function that returns a list.
-       @param func the Pathway Tools function to call
+       @param call the template of the Pathway Tools function call
+       @param args the arguments of the call
        @return an ArrayList representation of the lisp list returned by
        Pathway Tools
     */
-    private ArrayList callFuncArray(String func)
+    private ArrayList callFuncArray(QueryTemplate call, String[] args)
     {
-	makeSocket();
+	int format = encoding;
+	QueryTemplate.Buffer query = wrap(ARRAY_QUERIES[format], call, args);
+	String key = queryText(query);
+	byte[] cached = cachedResponse(key);
+	if (cached != null)
+	{
+	    return observe(call, args, retrieveResults(
+			       new ByteArrayInputStream(cached), format));
+	}
+	boolean readOnly = isReadOnly(call.toString());
+	Connection conn = makeSocket(call);
 	try {
-	    String query = wrapQuery(func);
-	    sendQuery(query);
-	    ArrayList results = retrieveResultsArray();
+	    sendQuery(conn, query);
+	    InputStream in = response(conn, key, readOnly);
+	    ArrayList results = retrieveResults(in, format);
 	    // 	try
 	    // 	{
 	    // 	    close();
@@ -857,25 +1193,141 @@ public class Javacyc
 	    // 	{
 	    // 	    e.printStackTrace();
 	    // 	}
-	    return results;
+	    conn.succeed();
+	    if (!readOnly)
+	    {
+		clearCache();
+		return results;
+	    }
+	    remember(key, in);
+	    return observe(call, args, results);
 	} finally {
-	    closeSocket();
+	    closeSocket(conn);
+	}
+    }
+
+    /**
+       Private method to tell the prefetcher, if there is one, about the
+       results of a read-only call.
+       @param call the template of the function call
+       @param args the arguments of the call
+       @param results the results of the call
+       @return results
+    */
+    private ArrayList observe(QueryTemplate call, String[] args,
+			      ArrayList results)
+    {
+	Prefetcher observer = prefetcher;
+	if (observer != null)
+	{
+	    observer.observe(this, call, args, results);
 	}
+	return results;
+    }
+
+    /**
+       Method to fetch the results of a one-argument list function for
+       many frames in one query, and add them to the query cache as if
+       each had been called on its own.  Each frame's result is printed
+       on the server by the same expression a single call evaluates, so
+       the cached responses are the ones the server would have sent.
+       Frames whose results are already cached are skipped.  Does nothing
+       without a query cache.
+       @param call the template of the function call, taking the frame
+       @param frames the frames
+       @return the number of frames whose results were fetched
+       @throws RuntimeException if the server does not answer for every
+       frame; nothing is cached then
+    */
+    int prefetch(QueryTemplate call, List frames)
+    {
+	QueryCache queryCache = cache;
+	if (queryCache == null)
+	{
+	    return 0;
+	}
+	int format = encoding;
+	ArrayList keys = new ArrayList();
+	StringBuffer forms = new StringBuffer("(list");
+	HashSet seen = new HashSet();
+	for (int i = 0; i < frames.size(); i++)
+	{
+	    String[] args = new String[] {(String)frames.get(i)};
+	    String key = wrap(ARRAY_QUERIES[format], call, args).toString();
+	    if (!seen.add(key) || queryCache.get(key) != null)
+	    {
+		continue;
+	    }
+	    keys.add(key);
+	    QueryTemplate.Buffer body = QueryTemplate.Buffer.get();
+	    ARRAY_BODIES[format].appendPart(body, 0);
+	    call.appendTo(body, args);
+	    ARRAY_BODIES[format].appendPart(body, 1);
+	    forms.append(" (prin1-to-string ").append(body).append(')');
+	}
+	if (keys.isEmpty())
+	{
+	    return 0;
+	}
+	// The batch itself is not worth caching
+	Javacyc uncached = forOrganism(organism);
+	uncached.cache = null;
+	ArrayList printed =
+	    uncached.callFuncList(forms.append(')').toString());
+	// A short or damaged answer is dropped whole rather than cached
+	// under the keys of calls it may not answer
+	if (printed.size() != keys.size())
+	{
+	    throw new RuntimeException("prefetch returned " + printed.size()
+				       + " responses for " + keys.size()
+				       + " frames");
+	}
+	byte[][] responses = new byte[keys.size()][];
+	for (int i = 0; i < responses.length; i++)
+	{
+	    String response = asName(printed.get(i));
+	    try
+	    {
+		responses[i] = (response == null) ? null
+		    : (response + "\n").getBytes("UTF-8");
+	    }
+	    catch (UnsupportedEncodingException e)
+	    {
+		throw new RuntimeException(e.toString());
+	    }
+	    if (responses[i] == null || !isCompleteResponse(responses[i]))
+	    {
+		throw new RuntimeException("prefetch returned " + printed.get(i)
+					   + " for " + keys.get(i));
+	    }
+	}
+	for (int i = 0; i < responses.length; i++)
+	{
+	    queryCache.put((String)keys.get(i), responses[i]);
+	}
+	return keys.size();
     }
 
     /**
        Private method to call a Pathway Tools function that returns a string.
-       @param func the Pathway Tools function to call
+       @param call the template of the Pathway Tools function call
+       @param args the arguments of the call
        @return string returned by Pathway Tools function call
     */
-    private String callFuncString(String func)
+    private String callFuncString(QueryTemplate call, String[] args)
     {
-	makeSocket();
+	QueryTemplate.Buffer query = wrap(STRING_QUERY, call, args);
+	String key = queryText(query);
+	byte[] cached = cachedResponse(key);
+	if (cached != null)
+	{
+	    return retrieveResultsString(new ByteArrayInputStream(cached));
+	}
+	Connection conn = makeSocket(call);
 	try {
-	    String query = "(with-organism (:org-id '" + organism +
-		") (object-name (" + func + ")))";
-	    sendQuery(query);
-	    String results = retrieveResultsString();
+	    sendQuery(conn, query);
+	    InputStream in = response(conn, key, true);
+	    String results = retrieveResultsString(in);
 	    // 	try
 	    // 	{
 	    // 	    close();
@@ -884,20 +1336,23 @@ public class Javacyc
 	    // 	{
 	    // 	    e.printStackTrace();
 	    // 	}
+	    conn.succeed();
+	    remember(key, in);
 	    return results;
 	} finally {
-	    closeSocket();
+	    closeSocket(conn);
 	}
     }
 
     /**
        Private method to call a Pathway Tools function that returns a boolean.
-       @param func the Pathway Tools function to call
+       @param call the template of the Pathway Tools function call
+       @param args the arguments of the call
        @return true if the result of the function call is true
     */
-    private boolean callFuncBool(String func)
+    private boolean callFuncBool(QueryTemplate call, String[] args)
     {
-	String result = callFuncString(func);
+	String result = callFuncString(call, args);
 	if (result.equals("NIL"))
 	{
 	    return false;
@@ -909,47 +1364,566 @@ public class Javacyc
     }
 
     /**
-       Private method that wraps a query.
-       @param func the function call to wrap in a query
-       @return a query
+       Private method to call a Pathway Tools function that returns the
+       name of a frame, through the name cache.
+       @param call the template of the function call, taking the frame
+       @param frame the frame
+       @return the name returned by Pathway Tools
+    */
+    private String callFuncName(QueryTemplate call, String frame)
+    {
+	NameCache nameCache = names;
+	String name = (nameCache == null) ? null
+	    : nameCache.get(organism, call.toString(), frame);
+	if (name == null)
+	{
+	    name = callFuncString(call, new String[] {frame});
+	    if (nameCache != null && name != null)
+	    {
+		nameCache.put(organism, call.toString(), frame, name);
+	    }
+	}
+	return name;
+    }
+
+    /**
+       Private method to call a Pathway Tools function that returns the
+       name of a frame on many frames, through the name cache.
+       @param call the template of the function call, taking the frame
+       @param frames the frames
+       @return a Map from each frame to its name, in the order of frames
     */
-    private String wrapQuery(String func)
+    private Map callFuncNames(QueryTemplate call, Collection frames)
     {
-	return "(with-organism (:org-id '" + organism +
-	    ") (mapcar #'object-name (" + func + ")))";
+	NameCache nameCache = names;
+	String function = call.toString();
+	LinkedHashMap result = new LinkedHashMap();
+	ArrayList missing = new ArrayList();
+	Iterator it = frames.iterator();
+	while (it.hasNext())
+	{
+	    String frame = (String)it.next();
+	    if (result.containsKey(frame))
+	    {
+		continue;
+	    }
+	    String name = (nameCache == null) ? null
+		: nameCache.get(organism, function, frame);
+	    result.put(frame, name);
+	    if (name == null)
+	    {
+		missing.add(frame);
+	    }
+	}
+	// The function of the template without its argument, such as
+	// full-enzyme-name
+	String name = function.substring(0, function.indexOf(' '));
+	for (int start = 0; start < missing.size(); start += NAME_BATCH_SIZE)
+	{
+	    List batch = missing.subList(
+		start, Math.min(missing.size(), start + NAME_BATCH_SIZE));
+	    ArrayList values = callFuncList(
+		"(mapcar (lambda (f) (object-name (" + name + " f))) "
+		+ quoteFrames(batch) + ")");
+	    if (values.size() != batch.size())
+	    {
+		throw new RuntimeException(name + " returned " + values.size()
+					   + " names for " + batch.size()
+					   + " frames");
+	    }
+	    for (int i = 0; i < batch.size(); i++)
+	    {
+		String frame = (String)batch.get(i);
+		Object value = values.get(i);
+		String frameName = (value instanceof String) ? (String)value
+		    : "NIL";
+		result.put(frame, frameName);
+		if (nameCache != null)
+		{
+		    nameCache.put(organism, function, frame, frameName);
+		}
+	    }
+	}
+	return result;
     }
 
     /**
-       Private method to send a query to Pathway Tools.
+       Private method to call a Pathway Tools predicate on many frames.
+       The server writes one character, 1 or 0, per frame into a string,
+       so a batch of frames costs one query and a byte per frame.
+       @param call the template of the predicate call, taking the frame
+       @param frames the frames
+       @return a BitSet whose bit i is set if the predicate is true of
+       frames.get(i)
+    */
+    private BitSet callFuncPredicate(QueryTemplate call, List frames)
+    {
+	String function = call.toString();
+	String name = function.substring(0, function.indexOf(' '));
+	BitSet result = new BitSet(frames.size());
+	for (int start = 0; start < frames.size();
+	     start += PREDICATE_BATCH_SIZE)
+	{
+	    List batch = frames.subList(
+		start, Math.min(frames.size(), start + PREDICATE_BATCH_SIZE));
+	    ArrayList values = callFuncList(
+		"(list (with-output-to-string (s) (dolist (f "
+		+ quoteFrames(batch) + ") (write-char (if (" + name
+		+ " f) #\\1 #\\0) s))))");
+	    String bits = (values.size() == 1) ? asName(values.get(0)) : null;
+	    if (bits == null || bits.length() != batch.size())
+	    {
+		throw new RuntimeException(name + " returned " + values
+					   + " for " + batch.size()
+					   + " frames");
+	    }
+	    for (int i = 0; i < bits.length(); i++)
+	    {
+		if (bits.charAt(i) == '1')
+		{
+		    result.set(start + i);
+		}
+	    }
+	}
+	return result;
+    }
+
+    /**
+       Method to call a lisp expression that builds its own result list.
+       Unlike callFuncArray, the expression is not wrapped in
+       mapcar #'object-name, so it may return nested lists.  The expression
+       is responsible for turning frames into names itself.  Used by the
+       bulk loaders to fetch many related lists in one round trip.  An
+       expression that modifies the KB is not cached, and empties the
+       cache, as in callRaw.
+       @param expr the lisp expression to evaluate in the current organism
+       @return an ArrayList representation of the lisp list returned by
+       Pathway Tools.  Some of the elements may be ArrayLists themselves.
+    */
+    ArrayList callFuncList(String expr)
+    {
+	int format = (encoding == ENCODING_BINARY) ? ENCODING_BINARY
+	    : ENCODING_TEXT;
+	QueryTemplate wrapper = (format == ENCODING_BINARY)
+	    ? LIST_QUERY_BINARY : LIST_QUERY;
+	QueryTemplate.Buffer query = QueryTemplate.Buffer.get();
+	wrapper.appendPart(query, 0);
+	query.appendArgument(organism);
+	wrapper.appendPart(query, 1);
+	query.appendText(expr);
+	wrapper.appendPart(query, 2);
+	String key = queryText(query);
+	boolean readOnly = isReadOnlyQuery(expr);
+	byte[] cached = readOnly ? cachedResponse(key) : null;
+	if (cached != null)
+	{
+	    return retrieveResults(new ByteArrayInputStream(cached), format);
+	}
+	Connection conn = makeSocket(expr);
+	try {
+	    sendQuery(conn, query);
+	    InputStream in = response(conn, key, readOnly);
+	    ArrayList results = retrieveResults(in, format);
+	    conn.succeed();
+	    if (!readOnly)
+	    {
+		clearCache();
+		return results;
+	    }
+	    remember(key, in);
+	    return results;
+	} finally {
+	    closeSocket(conn);
+	}
+    }
+
+    /**
+       Method to send a complete query, such as one received from another
+       Javacyc by a QueryGateway, and get the raw response.  The query is
+       sent as it is, with no organism or encoding added, but goes through
+       the query cache and the admission, retry and recording paths of
+       other calls.
+       @param query the query, without the newline
+       @return the response bytes
+    */
+    byte[] callRaw(String query)
+    {
+	boolean readOnly = isReadOnlyQuery(query);
+	byte[] cached = readOnly ? cachedResponse(query) : null;
+	if (cached != null)
+	{
+	    return cached;
+	}
+	Connection conn = makeSocket(query);
+	try {
+	    QueryTemplate.Buffer buffer = QueryTemplate.Buffer.get();
+	    buffer.appendText(query);
+	    sendQuery(conn, buffer);
+	    InputStream in = response(conn, query, readOnly);
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    byte[] chunk = new byte[8192];
+	    int n = in.read(chunk, 0, chunk.length);
+	    while (n >= 0)
+	    {
+		bytes.write(chunk, 0, n);
+		n = in.read(chunk, 0, chunk.length);
+	    }
+	    conn.succeed();
+	    if (!readOnly)
+	    {
+		clearCache();
+	    }
+	    remember(query, in);
+	    return bytes.toByteArray();
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	    throw new RuntimeException();
+	} finally {
+	    closeSocket(conn);
+	}
+    }
+
+    /**
+       Private method that wraps a function call in a query, in the
+       buffer of the current thread.
+       @param wrapper the query, with a hole for the organism and one
+       for the call
+       @param call the template of the function call
+       @param args the arguments of the call
+       @return the buffer holding the query
+    */
+    private QueryTemplate.Buffer wrap(QueryTemplate wrapper,
+				      QueryTemplate call, String[] args)
+    {
+	QueryTemplate.Buffer query = QueryTemplate.Buffer.get();
+	wrapper.appendPart(query, 0);
+	query.appendArgument(organism);
+	wrapper.appendPart(query, 1);
+	call.appendTo(query, args);
+	wrapper.appendPart(query, 2);
+	return query;
+    }
+
+    /**
+       Private method to send a query to Pathway Tools.  The query and
+       the newline that ends it go out in a single write.
+       @param conn the connection to send on
        @param query the query to send to Pathway Tools
     */
-    private void sendQuery(String query)
+    private void sendQuery(Connection conn, QueryTemplate.Buffer query)
     {
-	out.println(query);
+	try
+	{
+	    query.end();
+	    ByteBuffer buffer = query.wrap();
+	    conn.sent = System.nanoTime();
+	    while (buffer.hasRemaining())
+	    {
+		conn.channel.write(buffer);
+	    }
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	    throw new RuntimeException();
+	}
     }
 
     /**
-       Private method to retrieve a string result.
-       @return the string result
+       Private method to get the text of a query, the key of its response
+       in the query cache and in traffic logs.  The text is only built
+       when there is a cache or a recorder.
+       @param query the complete query
+       @return the query text, or null if nothing needs it
+    */
+    private String queryText(QueryTemplate.Buffer query)
+    {
+	return (cache == null && recorder == null) ? null : query.toString();
+    }
+
+    /**
+       Private method to look up a query in the query cache.
+       @param query the query text, or null
+       @return the cached response, or null if there is none
     */
-    private String retrieveResultsString()
+    private byte[] cachedResponse(String query)
     {
+	QueryCache queryCache = cache;
+	return (queryCache == null || query == null) ? null
+	    : queryCache.get(query);
+    }
+
+    /**
+       Private method to get the response stream of a query.  Without a
+       query cache or traffic recorder, or for queries that must not be
+       cached and are not recorded, this is the connection itself, read
+       as the response streams in.  Otherwise the whole response is read,
+       added to the recording, and read back from memory; the caller
+       passes it to remember once it has been read successfully.
+       @param conn the connection the query was sent on
+       @param query the query text, or null
+       @param cacheable false for queries that modify the KB
+       @return the response stream
+    */
+    private InputStream response(Connection conn, String query,
+				 boolean cacheable)
+    {
+	QueryCache queryCache = cacheable ? cache : null;
+	TrafficRecorder trafficRecorder = recorder;
+	if (query == null || (queryCache == null && trafficRecorder == null))
+	{
+	    return conn.bytes;
+	}
 	try
 	{
-	    ArrayList results = new ArrayList();
-	    String readStr = in.readLine();
-	    while (readStr != null)
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    byte[] buffer = new byte[8192];
+	    int n = conn.bytes.read(buffer, 0, buffer.length);
+	    while (n >= 0)
+	    {
+		bytes.write(buffer, 0, n);
+		n = conn.bytes.read(buffer, 0, buffer.length);
+	    }
+	    byte[] response = bytes.toByteArray();
+	    conn.slots.responded();
+	    if (trafficRecorder != null)
+	    {
+		trafficRecorder.record(query, response, conn.sent,
+				       System.nanoTime());
+	    }
+	    return (queryCache == null) ? new ByteArrayInputStream(response)
+		: new BufferedResponse(response);
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	    return new ByteArrayInputStream(new byte[0]);
+	}
+    }
+
+    /**
+       Private method to add a response to the query cache after it was
+       read successfully.  Responses that are not one complete printed
+       value, such as the empty response of a query the server failed on
+       or the text of an error, are not cached, so a failure is not
+       replayed from the cache after the server recovers.
+       @param query the query text, or null
+       @param response the stream returned by response
+    */
+    private void remember(String query, InputStream response)
+    {
+	QueryCache queryCache = cache;
+	if (queryCache == null || query == null
+	    || !(response instanceof BufferedResponse))
+	{
+	    return;
+	}
+	byte[] bytes = ((BufferedResponse)response).getBytes();
+	if (isCompleteResponse(bytes))
+	{
+	    queryCache.put(query, bytes);
+	}
+    }
+
+    /**
+       Tests whether a response is exactly one value printed by prin1: a
+       list with balanced parentheses, a string, or a single atom,
+       followed by nothing but whitespace.
+       @param response the response bytes
+       @return false for an empty response, a truncated one, or anything
+       with more than one value in it, such as an error message
+    */
+    static boolean isCompleteResponse(byte[] response)
+    {
+	int depth = 0;
+	boolean complete = false;
+	int i = 0;
+	while (i < response.length)
+	{
+	    byte c = response[i];
+	    if (c == ' ' || c == '\n' || c == '\r' || c == '\t')
+	    {
+		i++;
+		continue;
+	    }
+	    if (complete)
+	    {
+		return false; // a second value
+	    }
+	    if (c == '(')
+	    {
+		depth++;
+		i++;
+	    }
+	    else if (c == ')')
+	    {
+		if (depth == 0)
+		{
+		    return false;
+		}
+		depth--;
+		i++;
+	    }
+	    else
+	    {
+		i = skipAtom(response, i);
+		if (i < 0)
 		{
-		    // DEBUG ONLY
-		    //System.out.println(readStr);
+		    return false;
+		}
+	    }
+	    complete = (depth == 0);
+	}
+	return complete;
+    }
 
-		    results.add(readStr);
-		    readStr = in.readLine();
+    /**
+       Private method to find the end of one printed atom: a string, an
+       unreadable object such as #<...>, or a symbol or number, which may
+       contain |bars| and backslash escapes.
+       @param response the response bytes
+       @param start the index of the first byte of the atom
+       @return the index just past the atom, or -1 if it is not closed
+    */
+    private static int skipAtom(byte[] response, int start)
+    {
+	int i = start;
+	byte close = 0; // the delimiter being looked for, or 0 in a symbol
+	if (response[i] == '"')
+	{
+	    close = '"';
+	    i++;
+	}
+	else if (response[i] == '#' && i + 1 < response.length
+		 && response[i + 1] == '<')
+	{
+	    close = '>';
+	    i += 2;
+	}
+	while (i < response.length)
+	{
+	    byte c = response[i];
+	    if (c == '\\')
+	    {
+		i += 2;
+	    }
+	    else if (close != 0)
+	    {
+		i++;
+		if (c == close)
+		{
+		    return i;
+		}
+	    }
+	    else if (c == '|')
+	    {
+		do
+		{
+		    i++;
+		} while (i < response.length && response[i] != '|');
+		if (i == response.length)
+		{
+		    return -1;
 		}
-	    String retStr = (String)results.get(0);
+		i++;
+	    }
+	    else if (c == ' ' || c == '\n' || c == '\r' || c == '\t'
+		     || c == '(' || c == ')' || c == '"')
+	    {
+		return i;
+	    }
+	    else
+	    {
+		i++;
+	    }
+	}
+	return (close == 0 && i == response.length) ? i : -1;
+    }
+
+    /**
+       Private method to empty the query cache and the name cache after
+       the KB was modified.
+    */
+    private void clearCache()
+    {
+	QueryCache queryCache = cache;
+	if (queryCache != null)
+	{
+	    queryCache.clear();
+	}
+	NameCache nameCache = names;
+	if (nameCache != null)
+	{
+	    nameCache.clear();
+	}
+    }
+
+    /**
+       Private method to tell whether a function call leaves the KB
+       unchanged, so that its result may be cached.
+       @param func the function call
+       @return false if func modifies or saves the KB
+    */
+    private static boolean isReadOnly(String func)
+    {
+	for (int i = 0; i < MODIFYING_FUNCTIONS.length; i++)
+	{
+	    if (func.startsWith(MODIFYING_FUNCTIONS[i]))
+	    {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+       Tells whether a complete query leaves the KB unchanged, so that its
+       response may be cached.
+       @param query the query
+       @return false if query calls a function that modifies or saves the
+       KB anywhere in it
+    */
+    static boolean isReadOnlyQuery(String query)
+    {
+	for (int i = 0; i < MODIFYING_FUNCTIONS.length; i++)
+	{
+	    if (query.indexOf("(" + MODIFYING_FUNCTIONS[i]) >= 0)
+	    {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    // Functions whose calls are never cached
+    private static final String[] MODIFYING_FUNCTIONS = {
+	"put-slot-values ", "put-slot-value ", "add-slot-value ",
+	"replace-slot-value ", "remove-slot-value ", "put-instance-types ",
+	"save-kb", "revert-kb"
+    };
+
+    /**
+       Private method to retrieve a string result.
+       @param response the response to read
+       @return the string result
+    */
+    private String retrieveResultsString(InputStream response)
+    {
+	try
+	{
+	    // The result is on the first line; the rest is not read
+	    BufferedReader in = new BufferedReader(
+		new InputStreamReader(response));
+	    String retStr = in.readLine();
+	    if (retStr == null)
+	    {
+		return null; // no response
+	    }
 
 	    // DEBUG
-	    //System.out.println("0th element: " + (String)results.get(0));
+	    //System.out.println("0th element: " + retStr);
 
 	    // If retStr is surrounded by quotation marks, remove them
 	    if ((retStr.startsWith("\"")) && (retStr.endsWith("\"")))
@@ -969,23 +1943,134 @@ public class Javacyc
 	return null; // if an IOException has occured
     }
 
+    /**
+       Private method to retrieve a list result in a given encoding.
+       @param response the response to read
+       @param format the encoding the query asked for
+       @return the ArrayList result
+    */
+    private ArrayList retrieveResults(InputStream response, int format)
+    {
+	if (format == ENCODING_FRONT_CODED)
+	{
+	    return retrieveResultsFrontCoded(response);
+	}
+	if (format == ENCODING_BINARY)
+	{
+	    try
+	    {
+		return BinaryDecoder.decode(response);
+	    }
+	    catch (IOException e)
+	    {
+		e.printStackTrace();
+		return new ArrayList();
+	    }
+	}
+	return retrieveResultsArray(response);
+    }
+
     /**
        Private method to retrieve an ArrayList result.
        This method is like retrieve_results in perlcyc, not perlcyc's 
        retrieve_results_array subroutine.
+       @param response the response to read
        @return the ArrayList result
     */
-    private ArrayList retrieveResultsArray()
+    private ArrayList retrieveResultsArray(InputStream response)
     {
-	LinkedList tokens = tokenize();
+	LinkedList tokens = tokenize(new BufferedReader(
+	    new InputStreamReader(response)));
 	return parseExpr(tokens);
     }
 
+    /**
+       Private method to retrieve a list sent with ENCODING_FRONT_CODED.
+       The server sends one printed string holding a line per name; each
+       name is rebuilt from the previous one as the line is read, without
+       tokenizing the response.
+       @param response the response to read
+       @return the ArrayList result
+    */
+    private ArrayList retrieveResultsFrontCoded(InputStream response)
+    {
+	ArrayList results = new ArrayList();
+	try
+	{
+	    Reader in = new BufferedReader(new InputStreamReader(response));
+	    int c = in.read();
+	    while (c == ' ' || c == '\n' || c == '\r')
+	    {
+		c = in.read();
+	    }
+	    if (c != '"')
+	    {
+		return results; // NIL or an error instead of a string
+	    }
+	    StringBuffer name = new StringBuffer();
+	    c = in.read();
+	    while (c != '"' && c != -1)
+	    {
+		int shared = 0;
+		while (c >= '0' && c <= '9')
+		{
+		    shared = shared * 10 + (c - '0');
+		    c = in.read();
+		}
+		name.setLength(Math.min(shared, name.length()));
+		// c is the space after the prefix length; skip it to the
+		// first character of the rest of the name
+		c = in.read();
+		while (c != '\n' && c != '"' && c != -1)
+		{
+		    if (c == '\\')
+		    {
+			c = in.read(); // escaped quote or backslash
+		    }
+		    name.append((char)c);
+		    c = in.read();
+		}
+		results.add(decodeName(name.toString()));
+		if (c == '\n')
+		{
+		    c = in.read();
+		}
+	    }
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	}
+	return results;
+    }
+
+    /**
+       Private method to turn a name printed by prin1 into the element the
+       text parser would have produced: strings lose their quotes, and
+       lists are parsed into ArrayLists.
+       @param printed the printed name
+       @return a String or an ArrayList
+    */
+    private Object decodeName(String printed)
+    {
+	if (printed.startsWith("(") || printed.startsWith("\""))
+	{
+	    LinkedList tokens = tokenize(new StringReader(printed));
+	    if (printed.startsWith("\""))
+	    {
+		return tokens.isEmpty() ? "" : tokens.getFirst();
+	    }
+	    return parseExpr(tokens);
+	}
+	return printed;
+    }
+
     /**
        Private method to tokenize a lisp expression.
+       @param in the reader to tokenize
        @return an LinkedList containing the tokens of the lisp expression
     */
-    private LinkedList tokenize()
+    private LinkedList tokenize(Reader in)
     {
 	LinkedList tokens = new LinkedList();
 	try
@@ -1130,10 +2215,418 @@ public class Javacyc
 	}
     }
 
-    private UnixDomainSocket uds; // J-BUDS Unix domain socket
-    private String socketName; // name of the socket
-    private String organism; // name of the organism
-    private PrintWriter out; // output to the Pathway Tools server
-    private BufferedReader in; // input from the Pathway Tools server
+    // Helpers shared by the bulk loaders
+
+    /**
+       Builds a quoted lisp list of frames, suitable for splicing into an
+       expression passed to callFuncList.  Each frame is quoted as the
+       argument of a single call would be, so a frame with whitespace or
+       characters such as ; | or ' in it stays one element.
+       @param frames a collection of frame ids
+       @return a quoted lisp list, such as '(RXN-1 RXN-2 |a b|)
+    */
+    static String quoteFrames(Collection frames)
+    {
+	StringBuffer buffer = new StringBuffer("'(");
+	Iterator it = frames.iterator();
+	while (it.hasNext())
+	{
+	    buffer.append(QueryTemplate.quote((String)it.next()));
+	    if (it.hasNext())
+	    {
+		buffer.append(' ');
+	    }
+	}
+	buffer.append(')');
+	return buffer.toString();
+    }
+
+    /**
+       Interprets an element of a parsed result as a list.  Lisp prints the
+       empty list as NIL, so NIL becomes an empty ArrayList and a lone name
+       becomes a list of one.
+       @param value an element returned by callFuncList
+       @return the element as an ArrayList
+    */
+    static ArrayList asList(Object value)
+    {
+	if (value instanceof ArrayList)
+	{
+	    return (ArrayList)value;
+	}
+	ArrayList list = new ArrayList();
+	if (value != null && !value.equals("NIL"))
+	{
+	    list.add(value);
+	}
+	return list;
+    }
+
+    /**
+       Interprets an element of a parsed result as a single name.
+       @param value an element returned by callFuncList
+       @return the name, or null if the value is NIL or a list
+    */
+    static String asName(Object value)
+    {
+	if (value instanceof String && !value.equals("NIL"))
+	{
+	    return (String)value;
+	}
+	return null;
+    }
+
+    /**
+       The socket and streams of a single call.  Each call opens its own
+       Connection and closes it before returning, so a Javacyc holds no
+       per-call state of its own.
+    */
+    private static class Connection
+    {
+	Connection(SocketChannel channel, Slots slots)
+	{
+	    this.channel = channel;
+	    this.slots = slots;
+	    bytes = new ChannelInputStream(channel);
+	}
+
+	// Marks the call successful once its result has been read
+	void succeed()
+	{
+	    succeeded = true;
+	    slots.responded();
+	}
+
+	final SocketChannel channel; // Unix domain socket to the server
+	final InputStream bytes; // input from the Pathway Tools server
+	final Slots slots; // admission slots to give back when closed
+	boolean succeeded; // set once a result has been read
+	long sent; // System.nanoTime() when the query was sent
+    }
+
+    /**
+       The admission slots held by one call: a place in the query
+       scheduler, then a slot in the concurrency limiter.  Either may be
+       absent.  The latency reported to the limiter runs until the
+       response was read, not until the call gives the slots back after
+       parsing it.
+    */
+    private static class Slots
+    {
+	Slots(QueryScheduler scheduler, int priority,
+	      ConcurrencyLimiter limiter, Object kind)
+	{
+	    this.scheduler = scheduler;
+	    this.priority = priority;
+	    this.limiter = limiter;
+	    this.kind = kind;
+	}
+
+	void acquire(String caller)
+	{
+	    if (scheduler != null) {
+		scheduler.acquire(priority, caller);
+	    }
+	    if (limiter != null) {
+		try {
+		    limiter.acquire();
+		} catch (RuntimeException e) {
+		    if (scheduler != null) {
+			scheduler.release(priority);
+		    }
+		    throw e;
+		}
+	    }
+	    started = System.nanoTime();
+	}
+
+	// Notes that the whole response has been read
+	void responded()
+	{
+	    if (responded == 0) {
+		responded = System.nanoTime();
+	    }
+	}
+
+	void release(boolean succeeded)
+	{
+	    if (limiter != null) {
+		long end = (responded != 0) ? responded : System.nanoTime();
+		limiter.release(kind, end - started, succeeded);
+	    }
+	    if (scheduler != null) {
+		scheduler.release(priority);
+	    }
+	}
+
+	// Gives the slots back without telling the limiter how it went
+	void cancel()
+	{
+	    if (limiter != null) {
+		limiter.cancel();
+	    }
+	    if (scheduler != null) {
+		scheduler.release(priority);
+	    }
+	}
+
+	final QueryScheduler scheduler; // orders calls, or null
+	final int priority; // priority class in scheduler
+	final ConcurrencyLimiter limiter; // caps calls in flight, or null
+	final Object kind; // the call, as the limiter groups latencies
+	long started; // System.nanoTime() when the slots were taken
+	long responded; // System.nanoTime() the response was read, or 0
+    }
+
+    /**
+       A response read into memory that may still be added to the query
+       cache.
+    */
+    private static class BufferedResponse extends ByteArrayInputStream
+    {
+	BufferedResponse(byte[] bytes)
+	{
+	    super(bytes);
+	}
+
+	byte[] getBytes()
+	{
+	    return buf;
+	}
+    }
+
+    /**
+       An unsynchronized InputStream over a blocking channel.  Unlike the
+       stream returned by Channels.newInputStream, it holds no monitor
+       while blocked in read, so a virtual thread waiting for the server
+       releases its carrier thread.
+    */
+    private static class ChannelInputStream extends InputStream
+    {
+	ChannelInputStream(ReadableByteChannel channel)
+	{
+	    this.channel = channel;
+	}
+
+	public int read() throws IOException
+	{
+	    byte[] one = new byte[1];
+	    int n = read(one, 0, 1);
+	    return (n < 0) ? -1 : (one[0] & 0xFF);
+	}
+
+	public int read(byte[] bytes, int offset, int length)
+	    throws IOException
+	{
+	    if (length == 0)
+	    {
+		return 0;
+	    }
+	    int n = channel.read(ByteBuffer.wrap(bytes, offset, length));
+	    while (n == 0)
+	    {
+		n = channel.read(ByteBuffer.wrap(bytes, offset, length));
+	    }
+	    return n;
+	}
+
+	public void close() throws IOException
+	{
+	    channel.close();
+	}
+
+	private final ReadableByteChannel channel;
+    }
+
+    private final String socketName; // name of the socket
+    private volatile String organism; // name of the organism
+    private volatile ConcurrencyLimiter limiter; // caps calls in flight
+    private volatile RetryPolicy retryPolicy; // how connects are retried
+    private volatile CircuitBreaker breaker; // fails fast when server is down
+    private volatile QueryScheduler scheduler; // orders calls, or null
+    private volatile String caller = "default"; // caller for fair queuing
+    private volatile int priority = QueryScheduler.INTERACTIVE; // call class
+    private volatile int encoding = ENCODING_TEXT; // list response format
+    private volatile QueryCache cache; // cached responses, or null
+    private volatile TrafficRecorder recorder; // logs traffic, or null
+    private volatile Prefetcher prefetcher; // learns follow-up calls, or null
+    private volatile NameCache names =
+	new NameCache(DEFAULT_NAME_CACHE_SIZE); // enzyme names, or null
+
+    // Expressions around a function call, one for each list encoding.
+    // The hole is for the call.
+    private static final QueryTemplate[] ARRAY_BODIES = {
+	new QueryTemplate("(mapcar #'object-name ({}))"),
+	// One line per name: the length of the prefix shared with the
+	// previous name, a space, and the rest of the name
+	new QueryTemplate("(let ((prev \"\") (out (make-string-output-stream)))"
+			  + " (dolist (x (mapcar #'object-name ({})))"
+			  + " (let* ((s (prin1-to-string x))"
+			  + " (n (or (mismatch prev s) (length s))))"
+			  + " (format out \"~D ~A~%\" n (subseq s n))"
+			  + " (setq prev s)))"
+			  + " (get-output-stream-string out))"),
+	new QueryTemplate("(javacyc-encode (mapcar #'object-name ({})))")
+    };
+    // The same in queries.  The first hole is for the organism and the
+    // second for the call.
+    private static final QueryTemplate[] ARRAY_QUERIES = {
+	new QueryTemplate("(with-organism (:org-id '{}) "
+			  + ARRAY_BODIES[0] + ")"),
+	new QueryTemplate("(with-organism (:org-id '{}) "
+			  + ARRAY_BODIES[1] + ")"),
+	new QueryTemplate("(with-organism (:org-id '{}) "
+			  + ARRAY_BODIES[2] + ")")
+    };
+    private static final QueryTemplate STRING_QUERY = new QueryTemplate(
+	"(with-organism (:org-id '{}) (object-name ({})))");
+    private static final QueryTemplate LIST_QUERY = new QueryTemplate(
+	"(with-organism (:org-id '{}) {})");
+    private static final QueryTemplate LIST_QUERY_BINARY = new QueryTemplate(
+	"(with-organism (:org-id '{}) (javacyc-encode {}))");
+
+    private static final int NAME_BATCH_SIZE = 1000; // frames per query
+    private static final int PREDICATE_BATCH_SIZE = 5000; // frames per query
+
+    // Templates of the function calls
+    private static final String[] NO_ARGUMENTS = new String[0];
+    private static final QueryTemplate GET_SLOT_VALUES =
+	new QueryTemplate("get-slot-values '{} '{}");
+    private static final QueryTemplate GET_SLOT_VALUE =
+	new QueryTemplate("get-slot-value '{} '{}");
+    private static final QueryTemplate GET_CLASS_SLOT_SLOTVALUE =
+	new QueryTemplate("get-class-slot-slotvalue '{} '{} '{}");
+    private static final QueryTemplate GET_CLASS_ALL_INSTANCES =
+	new QueryTemplate("get-class-all-instances '{}");
+    private static final QueryTemplate INSTANCE_ALL_INSTANCE_OF_P =
+	new QueryTemplate("instance-all-instance-of-p '{} '{}");
+    private static final QueryTemplate MEMBER_SLOT_VALUE_P =
+	new QueryTemplate("member-slot-value-p '{} '{} '{}");
+    private static final QueryTemplate PUT_SLOT_VALUES =
+	new QueryTemplate("put-slot-values '{} '{} '{}");
+    private static final QueryTemplate PUT_SLOT_VALUE =
+	new QueryTemplate("put-slot-value '{} '{} '{}");
+    private static final QueryTemplate ADD_SLOT_VALUE =
+	new QueryTemplate("add-slot-value '{} '{} '{}");
+    private static final QueryTemplate REPLACE_SLOT_VALUE =
+	new QueryTemplate("replace-slot-value '{} '{} '{} '{}");
+    private static final QueryTemplate REMOVE_SLOT_VALUE =
+	new QueryTemplate("remove-slot-value '{} '{}");
+    private static final QueryTemplate COERCIBLE_TO_FRAME_P =
+	new QueryTemplate("coercible-to-frame-p '{}");
+    private static final QueryTemplate CLASS_ALL_TYPE_OF_P =
+	new QueryTemplate("class-all-type-of-p '{} '{}");
+    private static final QueryTemplate GET_INSTANCE_DIRECT_TYPES =
+	new QueryTemplate("get-instance-direct-types '{}");
+    private static final QueryTemplate GET_INSTANCE_ALL_TYPES =
+	new QueryTemplate("get-instance-all-types '{}");
+    private static final QueryTemplate GET_FRAME_SLOTS =
+	new QueryTemplate("get-frame-slots '{}");
+    private static final QueryTemplate PUT_INSTANCE_TYPES =
+	new QueryTemplate("put-instance-types '{} '{}");
+    private static final QueryTemplate SAVE_KB = new QueryTemplate("save-kb");
+    private static final QueryTemplate REVERT_KB =
+	new QueryTemplate("revert-kb");
+    private static final QueryTemplate FIND_INDEXED_FRAME =
+	new QueryTemplate("multiple-value-list (find-indexed-frame '{} '{})");
+    private static final QueryTemplate ALL_PATHWAYS =
+	new QueryTemplate("all-pathways");
+    private static final QueryTemplate ALL_ORGS =
+	new QueryTemplate("all-orgs");
+    private static final QueryTemplate ALL_RXNS =
+	new QueryTemplate("all-rxns");
+    private static final QueryTemplate GENES_OF_REACTION =
+	new QueryTemplate("genes-of-reaction '{}");
+    private static final QueryTemplate SUBSTRATES_OF_REACTION =
+	new QueryTemplate("substrates-of-reaction '{}");
+    private static final QueryTemplate PRODUCTS_OF_REACTION =
+	new QueryTemplate("products-of-reaction '{}");
+    private static final QueryTemplate ENZYMES_OF_REACTION =
+	new QueryTemplate("enzymes-of-reaction '{}");
+    private static final QueryTemplate REACTION_REACTANTS_AND_PRODUCTS =
+	new QueryTemplate("multiple-value-list"
+			  + " (reaction-reactants-and-products '{} '{})");
+    private static final QueryTemplate GET_PREDECESSORS =
+	new QueryTemplate("get-predecessors '{} '{}");
+    private static final QueryTemplate GET_SUCCESSORS =
+	new QueryTemplate("get-successors '{} '{}");
+    private static final QueryTemplate GET_REACTION_LIST =
+	new QueryTemplate("get-reaction-list '{}");
+    private static final QueryTemplate GENES_OF_PATHWAY =
+	new QueryTemplate("genes-of-pathway '{}");
+    private static final QueryTemplate ENZYMES_OF_PATHWAY =
+	new QueryTemplate("enzymes-of-pathway '{}");
+    private static final QueryTemplate COMPOUNDS_OF_PATHWAY =
+	new QueryTemplate("compounds-of-pathway '{}");
+    private static final QueryTemplate SUBSTRATES_OF_PATHWAY =
+	new QueryTemplate("multiple-value-list (substrates-of-pathway '{})");
+    private static final QueryTemplate ALL_TRANSCRIPTION_FACTORS =
+	new QueryTemplate("all-transcription-factors");
+    private static final QueryTemplate TRANSCRIPTION_FACTOR_P =
+	new QueryTemplate("transcription-factor? '{}");
+    private static final QueryTemplate ALL_COFACTORS =
+	new QueryTemplate("all-cofactors");
+    private static final QueryTemplate ALL_MODULATORS =
+	new QueryTemplate("all-modulators");
+    private static final QueryTemplate MONOMERS_OF_PROTEIN =
+	new QueryTemplate("monomers-of-protein '{}");
+    private static final QueryTemplate COMPONENTS_OF_PROTEIN =
+	new QueryTemplate("multiple-value-list (components-of-protein '{})");
+    private static final QueryTemplate GENES_OF_PROTEIN =
+	new QueryTemplate("genes-of-protein '{}");
+    private static final QueryTemplate REACTIONS_OF_ENZYME =
+	new QueryTemplate("reactions-of-enzyme '{}");
+    private static final QueryTemplate ENZYME_P =
+	new QueryTemplate("enzyme? '{}");
+    private static final QueryTemplate TRANSPORTER_P =
+	new QueryTemplate("transporter? '{}");
+    private static final QueryTemplate CONTAINERS_OF =
+	new QueryTemplate("containers-of '{}");
+    private static final QueryTemplate MODIFIED_FORMS =
+	new QueryTemplate("modified-forms '{}");
+    private static final QueryTemplate MODIFIED_CONTAINERS =
+	new QueryTemplate("modified-containers '{}");
+    private static final QueryTemplate TOP_CONTAINERS =
+	new QueryTemplate("top-containers '{}");
+    private static final QueryTemplate REACTIONS_OF_PROTEIN =
+	new QueryTemplate("reactions-of-protein '{}");
+    private static final QueryTemplate REGULON_OF_PROTEIN =
+	new QueryTemplate("regulon-of-protein '{}");
+    private static final QueryTemplate TRANSCRIPTION_UNITS_OF_PROTEIN =
+	new QueryTemplate("transcription-units-of-protein '{}");
+    private static final QueryTemplate
+	REGULATOR_PROTEINS_OF_TRANSCRIPTION_UNIT =
+	new QueryTemplate("regulator-proteins-of-transcription-unit '{}");
+    private static final QueryTemplate ENZYMES_OF_GENE =
+	new QueryTemplate("enzymes-of-gene '{}");
+    private static final QueryTemplate ALL_PRODUCTS_OF_GENE =
+	new QueryTemplate("all-products-of-gene '{}");
+    private static final QueryTemplate REACTIONS_OF_GENE =
+	new QueryTemplate("reactions-of-gene '{}");
+    private static final QueryTemplate PATHWAYS_OF_GENE =
+	new QueryTemplate("pathways-of-gene '{}");
+    private static final QueryTemplate CHROMOSOME_OF_GENE =
+	new QueryTemplate("chromosome-of-gene '{}");
+    private static final QueryTemplate TRANSCRIPTION_UNITS_OF_GENE =
+	new QueryTemplate("transcription-units-of-gene '{}");
+    private static final QueryTemplate TRANSCRIPTION_UNIT_PROMOTER =
+	new QueryTemplate("transcription-unit-promoter '{}");
+    private static final QueryTemplate TRANSCRIPTION_UNIT_GENES =
+	new QueryTemplate("transcription-unit-genes '{}");
+    private static final QueryTemplate TRANSCRIPTIONAL_UNIT_BINDING_SITES =
+	new QueryTemplate("transcriptional-unit-binding-sites '{}");
+    private static final QueryTemplate
+	TRANSCRIPTION_UNIT_TRANSCRIPTION_FACTORS =
+	new QueryTemplate("transcription-unit-transcription-factors '{}");
+    private static final QueryTemplate TRANSCRIPTION_UNIT_TERMINATORS =
+	new QueryTemplate("transcription-unit-terminators '{}");
+    private static final QueryTemplate ALL_TRANSPORTED_CHEMICALS =
+	new QueryTemplate("all-transported-chemicals");
+    private static final QueryTemplate REACTIONS_OF_COMPOUND =
+	new QueryTemplate("reactions-of-compound '{}");
+    private static final QueryTemplate FULL_ENZYME_NAME =
+	new QueryTemplate("full-enzyme-name '{}");
+    private static final QueryTemplate ENZYME_ACTIVITY_NAME =
+	new QueryTemplate("enzyme-activity-name '{}");
 }
 
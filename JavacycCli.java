@@ -0,0 +1,304 @@
+/**
+   JavacycCli is a command-line client for shell pipelines.  It reads one
+   call per line from standard input, makes them all over one Javacyc,
+   and writes one line of results per call to standard output, as TSV or
+   as JSON lines.  A pipeline that needs many answers therefore pays for
+   one JVM start instead of one per call.  The start itself is cut by the
+   cds target of the makefile, which archives the loaded classes, and
+   the native target builds a binary that starts in a few milliseconds.
+
+   An input line is the name of a Javacyc method that takes strings,
+   followed by its arguments, separated by tabs or spaces:
+	getSlotValues	TRP	COMMON-NAME
+	isEnzyme	EG10001-MONOMER
+   A line that starts with ( is a lisp expression, evaluated in the
+   organism as callFuncList does.  Empty lines and lines starting with #
+   are skipped.
+
+   In TSV, each output line is the arguments of the call followed by its
+   results: the elements of a list, the string, or true or false.  A call
+   that fails gets its arguments followed by #ERROR, and the error is
+   reported on standard error.  In JSON, each line is an object with the
+   call, its args, and its result or error.  Either way output line n
+   answers the nth call.
+
+   Usage: java JavacycCli [-org ORG] [-socket PATH] [-json]
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+public class JavacycCli
+{
+    public static void main(String[] args) throws IOException
+    {
+	String organism = "ARA";
+	String socketName = "/tmp/ptools-socket";
+	boolean json = false;
+	for (int i = 0; i < args.length; i++)
+	{
+	    if (args[i].equals("-json"))
+	    {
+		json = true;
+	    }
+	    else if (args[i].equals("-org") && i + 1 < args.length)
+	    {
+		organism = args[++i];
+	    }
+	    else if (args[i].equals("-socket") && i + 1 < args.length)
+	    {
+		socketName = args[++i];
+	    }
+	    else
+	    {
+		System.err.println("Usage: java JavacycCli [-org ORG]"
+				   + " [-socket PATH] [-json]");
+		System.exit(2);
+	    }
+	}
+
+	Javacyc cyc = new Javacyc(organism, socketName);
+	BufferedReader in = new BufferedReader(
+	    new InputStreamReader(System.in, "UTF-8"));
+	OutputStream stdout = new BufferedOutputStream(
+	    new FileOutputStream(FileDescriptor.out), 65536);
+	PrintStream out = new PrintStream(stdout, false, "UTF-8");
+	int failures = 0;
+	String line = in.readLine();
+	while (line != null)
+	{
+	    String trimmed = line.trim();
+	    if (trimmed.length() > 0 && !trimmed.startsWith("#"))
+	    {
+		String call;
+		String[] callArgs;
+		if (trimmed.startsWith("("))
+		{
+		    call = "callFuncList";
+		    callArgs = new String[] {trimmed};
+		}
+		else
+		{
+		    StringTokenizer tokens =
+			new StringTokenizer(trimmed, "\t ");
+		    call = tokens.nextToken();
+		    callArgs = new String[tokens.countTokens()];
+		    for (int i = 0; i < callArgs.length; i++)
+		    {
+			callArgs[i] = tokens.nextToken();
+		    }
+		}
+		Object result = null;
+		String error = null;
+		try
+		{
+		    result = call(cyc, call, callArgs);
+		}
+		catch (Exception e)
+		{
+		    error = (e.getMessage() == null) ? e.toString()
+			: e.getMessage();
+		    failures++;
+		}
+		if (json)
+		{
+		    writeJson(out, call, callArgs, result, error);
+		}
+		else if (error != null)
+		{
+		    System.err.println(trimmed + ": " + error);
+		    writeTsv(out, callArgs, ERROR_MARKER);
+		}
+		else
+		{
+		    writeTsv(out, callArgs, result);
+		}
+	    }
+	    line = in.readLine();
+	}
+	out.flush();
+	System.exit((failures == 0) ? 0 : 1);
+    }
+
+    /**
+       Makes one call.
+       @return the result of the method
+       @throws Exception if there is no such method or the call failed
+    */
+    private static Object call(Javacyc cyc, String name, String[] args)
+	throws Exception
+    {
+	if (name.equals("callFuncList"))
+	{
+	    return cyc.callFuncList(args[0]);
+	}
+	Method[] methods = Javacyc.class.getMethods();
+	for (int i = 0; i < methods.length; i++)
+	{
+	    Class[] types = methods[i].getParameterTypes();
+	    if (!methods[i].getName().equals(name)
+		|| types.length != args.length)
+	    {
+		continue;
+	    }
+	    boolean strings = true;
+	    for (int j = 0; j < types.length; j++)
+	    {
+		strings &= (types[j] == String.class);
+	    }
+	    if (!strings)
+	    {
+		continue;
+	    }
+	    try
+	    {
+		return methods[i].invoke(cyc, (Object[])args);
+	    }
+	    catch (InvocationTargetException e)
+	    {
+		Throwable cause = e.getCause();
+		throw (cause instanceof Exception) ? (Exception)cause : e;
+	    }
+	}
+	throw new NoSuchMethodException("no Javacyc method " + name
+					+ " taking " + args.length
+					+ " strings");
+    }
+
+    /**
+       Writes the arguments and results of a call as one TSV line.
+    */
+    private static void writeTsv(PrintStream out, String[] args,
+				 Object result)
+    {
+	ArrayList fields = new ArrayList(Arrays.asList(args));
+	if (result instanceof List)
+	{
+	    List list = (List)result;
+	    for (int i = 0; i < list.size(); i++)
+	    {
+		fields.add(lisp(list.get(i)));
+	    }
+	}
+	else if (result != null)
+	{
+	    fields.add(result.toString());
+	}
+	StringBuffer line = new StringBuffer();
+	for (int i = 0; i < fields.size(); i++)
+	{
+	    if (i > 0)
+	    {
+		line.append('\t');
+	    }
+	    line.append(tsvField((String)fields.get(i)));
+	}
+	out.println(line);
+    }
+
+    // Replaces the characters that would break a TSV field with spaces
+    private static String tsvField(String value)
+    {
+	return value.replace('\t', ' ').replace('\n', ' ')
+	    .replace('\r', ' ');
+    }
+
+    // Prints a result element: nested lists in lisp syntax
+    private static String lisp(Object value)
+    {
+	if (!(value instanceof List))
+	{
+	    return String.valueOf(value);
+	}
+	List list = (List)value;
+	StringBuffer buffer = new StringBuffer("(");
+	for (int i = 0; i < list.size(); i++)
+	{
+	    if (i > 0)
+	    {
+		buffer.append(' ');
+	    }
+	    buffer.append(lisp(list.get(i)));
+	}
+	return buffer.append(')').toString();
+    }
+
+    /**
+       Writes a call and its result or error as one JSON object.
+    */
+    private static void writeJson(PrintStream out, String call,
+				  String[] args, Object result, String error)
+    {
+	StringBuffer line = new StringBuffer("{\"call\":");
+	appendJson(line, call);
+	line.append(",\"args\":");
+	appendJson(line, Arrays.asList(args));
+	if (error != null)
+	{
+	    line.append(",\"error\":");
+	    appendJson(line, error);
+	}
+	else
+	{
+	    line.append(",\"result\":");
+	    appendJson(line, result);
+	}
+	out.println(line.append('}'));
+    }
+
+    // Appends a value as JSON: lists as arrays, booleans as they are, and
+    // everything else as a string
+    private static void appendJson(StringBuffer out, Object value)
+    {
+	if (value == null)
+	{
+	    out.append("null");
+	}
+	else if (value instanceof Boolean)
+	{
+	    out.append(value);
+	}
+	else if (value instanceof List)
+	{
+	    List list = (List)value;
+	    out.append('[');
+	    for (int i = 0; i < list.size(); i++)
+	    {
+		if (i > 0)
+		{
+		    out.append(',');
+		}
+		appendJson(out, list.get(i));
+	    }
+	    out.append(']');
+	}
+	else
+	{
+	    String s = value.toString();
+	    out.append('"');
+	    for (int i = 0; i < s.length(); i++)
+	    {
+		char c = s.charAt(i);
+		if (c == '"' || c == '\\')
+		{
+		    out.append('\\').append(c);
+		}
+		else if (c < 0x20)
+		{
+		    out.append(String.format("\\u%04x", new Object[] {
+				Integer.valueOf(c) }));
+		}
+		else
+		{
+		    out.append(c);
+		}
+	    }
+	    out.append('"');
+	}
+    }
+
+    private static final String ERROR_MARKER = "#ERROR"; // TSV failed call
+}
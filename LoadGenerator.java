@@ -0,0 +1,649 @@
+/**
+   LoadGenerator drives a weighted mix of Javacyc calls from many threads
+   and reports throughput and latency percentiles per call, to size a
+   Pathway Tools deployment or compare client changes.  It can run
+   against a real server, a StandInServer or a ReplayServer.
+
+   Calls are made at a target rate, or as fast as the threads allow when
+   no rate is set.  With a target rate every call has an intended start
+   time on a fixed schedule, and its latency is measured from that time
+   rather than from when a thread got to it.  A stall therefore shows up
+   in the latency of every call that should have started during it, and
+   not only in the one call that hit it; this corrects for coordinated
+   omission.  Without a rate there is no schedule, and latencies are
+   plain service times.
+
+   Latencies are counted in logarithmic buckets with 64 sub-buckets per
+   power of two, so percentiles are within about 1.6% of the true value.
+
+   Usage: java LoadGenerator [-org ORG] [-socket PATH] [-threads N]
+	  [-virtual] [-rate CALLS-PER-SECOND] [-duration SECONDS]
+	  [-mix METHOD[:ARG...]=WEIGHT,...] [-class CLASS]
+	  [-stand-in SERVICE-MILLIS]
+
+   Each METHOD is a Javacyc method taking String arguments.  The ARGs
+   given are passed last; if the method takes one more argument, the
+   first is a frame picked at random from the instances of CLASS.  The
+   default mix reads the reaction slots of enzymatic reactions, as the
+   old StressTest did.  With -stand-in a StandInServer with the given
+   service time is started on the socket first.
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class LoadGenerator
+{
+    /**
+       A call in the mix.
+    */
+    public interface Call
+    {
+	/**
+	   Makes the call.
+	   @param cyc the Javacyc to call
+	   @param frame a frame picked at random from the frame pool, or
+	   null if there is no pool
+	   @throws Exception if the call fails; it is counted as an error
+	*/
+	void call(Javacyc cyc, String frame) throws Exception;
+    }
+
+    /**
+       Constructor for LoadGenerator.
+       @param cyc the Javacyc all calls are made on
+    */
+    public LoadGenerator(Javacyc cyc)
+    {
+	this.cyc = cyc;
+	names = new ArrayList();
+	calls = new ArrayList();
+	weights = new ArrayList();
+	frames = new ArrayList();
+	threads = 16;
+	durationMillis = 10000;
+    }
+
+    /**
+       Adds a call to the mix.
+       @param name the name the call is reported under
+       @param weight the relative frequency of the call
+       @param call the call
+    */
+    public void add(String name, int weight, Call call)
+    {
+	if (weight <= 0)
+	{
+	    throw new IllegalArgumentException("bad weight: " + weight);
+	}
+	names.add(name);
+	weights.add(Integer.valueOf(weight));
+	calls.add(call);
+    }
+
+    /**
+       Adds a call of a Javacyc method taking only String arguments.  If
+       the method takes one more argument than given, a frame from the
+       pool is passed first.
+       @param method the method name, such as getSlotValue
+       @param args the arguments passed last
+       @param weight the relative frequency of the call
+    */
+    public void addMethod(String method, final String[] args, int weight)
+    {
+	final Method target = findMethod(method, args.length);
+	final boolean takesFrame =
+	    target.getParameterTypes().length > args.length;
+	String name = method;
+	for (int i = 0; i < args.length; i++)
+	{
+	    name += ":" + args[i];
+	}
+	add(name, weight, new Call() {
+		public void call(Javacyc cyc, String frame) throws Exception
+		{
+		    Object[] values = new Object[args.length
+						 + (takesFrame ? 1 : 0)];
+		    int next = 0;
+		    if (takesFrame)
+		    {
+			values[next++] = frame;
+		    }
+		    System.arraycopy(args, 0, values, next, args.length);
+		    try
+		    {
+			target.invoke(cyc, values);
+		    }
+		    catch (InvocationTargetException e)
+		    {
+			Throwable cause = e.getCause();
+			throw (cause instanceof Exception) ? (Exception)cause : e;
+		    }
+		}
+	    });
+    }
+
+    /**
+       Sets the frames passed to calls.
+       @param frames the frame names
+    */
+    public void setFrames(List frames)
+    {
+	this.frames = new ArrayList(frames);
+    }
+
+    /**
+       Sets the number of threads making calls.
+       @param threads the number of threads
+    */
+    public void setThreads(int threads)
+    {
+	this.threads = threads;
+    }
+
+    /**
+       Makes the calls from virtual threads when the JVM supports them.
+       @param virtual true for virtual threads
+    */
+    public void setVirtualThreads(boolean virtual)
+    {
+	this.virtual = virtual;
+    }
+
+    /**
+       Sets the rate calls are started at.
+       @param callsPerSecond the target rate, or 0 to call as fast as the
+       threads allow
+    */
+    public void setRate(double callsPerSecond)
+    {
+	this.rate = callsPerSecond;
+    }
+
+    /**
+       Sets how long the load runs.
+       @param millis the duration in milliseconds
+    */
+    public void setDuration(long millis)
+    {
+	this.durationMillis = millis;
+    }
+
+    /**
+       Runs the load and waits for it to finish.
+       @return the report
+       @throws InterruptedException if interrupted while waiting
+    */
+    public Report run() throws InterruptedException
+    {
+	if (calls.isEmpty())
+	{
+	    throw new IllegalStateException("no calls in the mix");
+	}
+	final int[] cumulative = new int[weights.size()];
+	int total = 0;
+	for (int i = 0; i < cumulative.length; i++)
+	{
+	    total += ((Integer)weights.get(i)).intValue();
+	    cumulative[i] = total;
+	}
+	final int totalWeight = total;
+	final Histogram[] latencies = new Histogram[calls.size()];
+	final AtomicLongArray errors = new AtomicLongArray(calls.size());
+	for (int i = 0; i < latencies.length; i++)
+	{
+	    latencies[i] = new Histogram();
+	}
+	final AtomicLong tickets = new AtomicLong();
+	final long start = System.nanoTime();
+	final long end = start + durationMillis * 1000000L;
+	final double interval = (rate > 0) ? 1e9 / rate : 0;
+	ExecutorService executor = virtual
+	    ? StandInServer.perTaskExecutor(threads)
+	    : Executors.newFixedThreadPool(threads);
+	for (int t = 0; t < threads; t++)
+	{
+	    executor.execute(new Runnable() {
+		    public void run()
+		    {
+			Random random = new Random();
+			while (true)
+			{
+			    long intended;
+			    if (interval > 0)
+			    {
+				intended = start + (long)(
+				    tickets.getAndIncrement() * interval);
+				if (intended >= end)
+				{
+				    return;
+				}
+				sleepUntil(intended);
+			    }
+			    else
+			    {
+				intended = System.nanoTime();
+				if (intended >= end)
+				{
+				    return;
+				}
+			    }
+			    int pick = random.nextInt(totalWeight);
+			    int i = 0;
+			    while (cumulative[i] <= pick)
+			    {
+				i++;
+			    }
+			    String frame = frames.isEmpty() ? null
+				: (String)frames.get(
+				    random.nextInt(frames.size()));
+			    try
+			    {
+				((Call)calls.get(i)).call(cyc, frame);
+			    }
+			    catch (Exception e)
+			    {
+				errors.incrementAndGet(i);
+			    }
+			    latencies[i].record(
+				(System.nanoTime() - intended) / 1000);
+			}
+		    }
+		});
+	}
+	executor.shutdown();
+	executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	long elapsed = System.nanoTime() - start;
+
+	Report report = new Report(elapsed / 1e9);
+	for (int i = 0; i < latencies.length; i++)
+	{
+	    report.add((String)names.get(i), latencies[i], errors.get(i));
+	}
+	return report;
+    }
+
+    /**
+       Throughput and latency of a run, per call in the mix and overall.
+    */
+    public static class Report
+    {
+	Report(double seconds)
+	{
+	    this.seconds = seconds;
+	    names = new ArrayList();
+	    histograms = new ArrayList();
+	    errors = new ArrayList();
+	    total = new Histogram();
+	}
+
+	void add(String name, Histogram histogram, long errorCount)
+	{
+	    names.add(name);
+	    histograms.add(histogram);
+	    errors.add(Long.valueOf(errorCount));
+	    total.add(histogram);
+	    totalErrors += errorCount;
+	}
+
+	/**
+	   Returns the number of calls made, including failed ones.
+	   @return the number of calls
+	*/
+	public long getCalls()
+	{
+	    return total.count();
+	}
+
+	/**
+	   Returns the number of calls that failed.
+	   @return the number of errors
+	*/
+	public long getErrors()
+	{
+	    return totalErrors;
+	}
+
+	/**
+	   Returns the calls completed per second.
+	   @return the throughput
+	*/
+	public double getThroughput()
+	{
+	    return total.count() / seconds;
+	}
+
+	/**
+	   Returns a latency percentile over all calls.
+	   @param percentile the percentile, such as 99.9
+	   @return the latency in microseconds
+	*/
+	public long getLatency(double percentile)
+	{
+	    return total.percentile(percentile);
+	}
+
+	/**
+	   Formats the report as a table, one line per call in the mix and
+	   a last line for all calls.  Latencies are in milliseconds.
+	   @return the table
+	*/
+	public String toString()
+	{
+	    StringBuffer out = new StringBuffer();
+	    out.append(format("call", "calls", "errors", "per sec",
+			      "p50", "p99", "p99.9", "max"));
+	    for (int i = 0; i < names.size(); i++)
+	    {
+		out.append(line((String)names.get(i),
+				(Histogram)histograms.get(i),
+				((Long)errors.get(i)).longValue()));
+	    }
+	    out.append(line("all", total, totalErrors));
+	    return out.toString();
+	}
+
+	private String line(String name, Histogram histogram, long errorCount)
+	{
+	    return format(name, String.valueOf(histogram.count()),
+			  String.valueOf(errorCount),
+			  millis(histogram.count() / seconds * 1000),
+			  millis(histogram.percentile(50)),
+			  millis(histogram.percentile(99)),
+			  millis(histogram.percentile(99.9)),
+			  millis(histogram.percentile(100)));
+	}
+
+	private static String millis(double micros)
+	{
+	    return String.format("%.2f", new Object[] {
+		    Double.valueOf(micros / 1000) });
+	}
+
+	private static String format(String name, String calls, String errors,
+				     String perSecond, String p50, String p99,
+				     String p999, String max)
+	{
+	    return String.format("%-36s %9s %7s %9s %9s %9s %9s %9s%n",
+				 new Object[] {name, calls, errors, perSecond,
+					       p50, p99, p999, max});
+	}
+
+	private final double seconds; // length of the run
+	private final ArrayList names; // name of each call
+	private final ArrayList histograms; // latencies of each call
+	private final ArrayList errors; // Long errors of each call
+	private final Histogram total; // latencies of all calls
+	private long totalErrors; // errors of all calls
+    }
+
+    /**
+       Counts latencies in logarithmic buckets: values below 128 exactly,
+       and larger values in 64 buckets per power of two.
+    */
+    static class Histogram
+    {
+	/**
+	   Counts a value.
+	   @param micros the latency in microseconds
+	*/
+	void record(long micros)
+	{
+	    counts.incrementAndGet(bucket(Math.max(0, micros)));
+	}
+
+	/**
+	   Adds the counts of another histogram.
+	   @param other the histogram to add
+	*/
+	void add(Histogram other)
+	{
+	    for (int i = 0; i < BUCKETS; i++)
+	    {
+		counts.addAndGet(i, other.counts.get(i));
+	    }
+	}
+
+	/**
+	   Returns the number of values counted.
+	   @return the count
+	*/
+	long count()
+	{
+	    long n = 0;
+	    for (int i = 0; i < BUCKETS; i++)
+	    {
+		n += counts.get(i);
+	    }
+	    return n;
+	}
+
+	/**
+	   Returns a percentile of the values counted.
+	   @param percentile the percentile, from 0 to 100
+	   @return the middle of the bucket the percentile falls in, or 0 if
+	   nothing was counted
+	*/
+	long percentile(double percentile)
+	{
+	    long n = count();
+	    if (n == 0)
+	    {
+		return 0;
+	    }
+	    long rank = Math.max(1, (long)Math.ceil(n * percentile / 100));
+	    long seen = 0;
+	    for (int i = 0; i < BUCKETS; i++)
+	    {
+		seen += counts.get(i);
+		if (seen >= rank)
+		{
+		    return value(i);
+		}
+	    }
+	    return value(BUCKETS - 1);
+	}
+
+	private static int bucket(long micros)
+	{
+	    if (micros < 128)
+	    {
+		return (int)micros;
+	    }
+	    int shift = 63 - Long.numberOfLeadingZeros(micros) - 6;
+	    return 64 * (shift + 1) + (int)((micros >> shift) - 64);
+	}
+
+	private static long value(int bucket)
+	{
+	    if (bucket < 128)
+	    {
+		return bucket;
+	    }
+	    int shift = bucket / 64 - 1;
+	    long low = (long)(64 + bucket % 64) << shift;
+	    return low + (1L << shift) / 2;
+	}
+
+	private static final int BUCKETS = 64 * 59; // up to 2^63 micros
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    }
+
+    // Finds a Javacyc method taking args or args + 1 String arguments
+    private static Method findMethod(String name, int args)
+    {
+	Method[] methods = Javacyc.class.getMethods();
+	for (int i = 0; i < methods.length; i++)
+	{
+	    Class[] types = methods[i].getParameterTypes();
+	    if (!methods[i].getName().equals(name)
+		|| (types.length != args && types.length != args + 1))
+	    {
+		continue;
+	    }
+	    boolean strings = true;
+	    for (int j = 0; j < types.length; j++)
+	    {
+		strings &= (types[j] == String.class);
+	    }
+	    if (strings)
+	    {
+		return methods[i];
+	    }
+	}
+	throw new IllegalArgumentException("no Javacyc method " + name
+					   + " taking " + args + " or "
+					   + (args + 1) + " strings");
+    }
+
+    // Sleeps until System.nanoTime() reaches the given time
+    private static void sleepUntil(long time)
+    {
+	long wait = time - System.nanoTime();
+	while (wait > 0)
+	{
+	    try
+	    {
+		Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+	    }
+	    catch (InterruptedException e)
+	    {
+		Thread.currentThread().interrupt();
+		return;
+	    }
+	    wait = time - System.nanoTime();
+	}
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+	String organism = "ARA";
+	String socketName = "/tmp/ptools-socket";
+	String mix = "getSlotValue:Reaction=1,getSlotValue:Reaction-Direction=1";
+	String frameClass = "|Enzymatic-Reactions|";
+	int threads = 16;
+	boolean virtual = false;
+	double rate = 0;
+	long seconds = 10;
+	long standIn = -1;
+	for (int i = 0; i < args.length; i++)
+	{
+	    String option = args[i];
+	    if (option.equals("-virtual"))
+	    {
+		virtual = true;
+		continue;
+	    }
+	    if (i + 1 == args.length)
+	    {
+		usage();
+	    }
+	    String value = args[++i];
+	    if (option.equals("-org"))
+	    {
+		organism = value;
+	    }
+	    else if (option.equals("-socket"))
+	    {
+		socketName = value;
+	    }
+	    else if (option.equals("-threads"))
+	    {
+		threads = Integer.parseInt(value);
+	    }
+	    else if (option.equals("-rate"))
+	    {
+		rate = Double.parseDouble(value);
+	    }
+	    else if (option.equals("-duration"))
+	    {
+		seconds = Long.parseLong(value);
+	    }
+	    else if (option.equals("-mix"))
+	    {
+		mix = value;
+	    }
+	    else if (option.equals("-class"))
+	    {
+		frameClass = value;
+	    }
+	    else if (option.equals("-stand-in"))
+	    {
+		standIn = Long.parseLong(value);
+	    }
+	    else
+	    {
+		usage();
+	    }
+	}
+
+	StandInServer server = null;
+	if (standIn >= 0)
+	{
+	    server = new StandInServer(socketName);
+	    server.setServiceTime(standIn);
+	    server.start();
+	}
+	Javacyc cyc = new Javacyc(organism, socketName);
+	LoadGenerator load = new LoadGenerator(cyc);
+	StringTokenizer entries = new StringTokenizer(mix, ",");
+	while (entries.hasMoreTokens())
+	{
+	    String entry = entries.nextToken();
+	    int equals = entry.lastIndexOf('=');
+	    int weight = (equals < 0) ? 1
+		: Integer.parseInt(entry.substring(equals + 1));
+	    StringTokenizer parts = new StringTokenizer(
+		(equals < 0) ? entry : entry.substring(0, equals), ":");
+	    String method = parts.nextToken();
+	    String[] fixed = new String[parts.countTokens()];
+	    for (int i = 0; i < fixed.length; i++)
+	    {
+		fixed[i] = parts.nextToken();
+	    }
+	    load.addMethod(method, fixed, weight);
+	}
+	load.setFrames(cyc.getClassAllInstances(frameClass));
+	load.setThreads(threads);
+	load.setVirtualThreads(virtual);
+	load.setRate(rate);
+	load.setDuration(seconds * 1000);
+
+	System.out.println("Threads: " + threads + " ("
+			   + ((virtual && StandInServer.hasVirtualThreads())
+			      ? "virtual" : "platform") + "), rate: "
+			   + ((rate > 0) ? rate + " calls/s" : "unlimited")
+			   + ", duration: " + seconds + " s");
+	System.out.print(load.run());
+	if (server != null)
+	{
+	    server.close();
+	}
+    }
+
+    private static void usage()
+    {
+	System.err.println("Usage: java LoadGenerator [-org ORG] [-socket PATH]"
+			   + " [-threads N] [-virtual] [-rate CALLS-PER-SECOND]"
+			   + " [-duration SECONDS]"
+			   + " [-mix METHOD[:ARG...]=WEIGHT,...] [-class CLASS]"
+			   + " [-stand-in SERVICE-MILLIS]");
+	System.exit(2);
+    }
+
+    private final Javacyc cyc; // the Javacyc all calls are made on
+    private final ArrayList names; // name of each call in the mix
+    private final ArrayList calls; // the Calls of the mix
+    private final ArrayList weights; // Integer weight of each call
+    private volatile ArrayList frames; // frames passed to calls
+    private int threads; // threads making calls
+    private boolean virtual; // use virtual threads if available
+    private double rate; // target calls per second, or 0
+    private long durationMillis; // length of the run
+}
@@ -0,0 +1,79 @@
+/**
+   MemoryQueryCache keeps query responses on the heap, up to a bound on
+   the bytes they take.  When it is full, the least recently used
+   responses are evicted first.  Use PersistentQueryCache instead for
+   responses that should survive a restart.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class MemoryQueryCache implements QueryCache
+{
+    /**
+       Constructor for an empty MemoryQueryCache.
+       @param maxBytes the most bytes of queries and responses kept
+    */
+    public MemoryQueryCache(long maxBytes)
+    {
+	this.maxBytes = maxBytes;
+	entries = new LinkedHashMap(16, 0.75f, true);
+    }
+
+    public synchronized byte[] get(String query)
+    {
+	return (byte[])entries.get(query);
+    }
+
+    public synchronized void put(String query, byte[] response)
+    {
+	long size = sizeOf(query, response);
+	if (size > maxBytes)
+	{
+	    return; // would evict everything else
+	}
+	byte[] old = (byte[])entries.put(query, response);
+	if (old != null)
+	{
+	    bytes -= sizeOf(query, old);
+	}
+	bytes += size;
+	Iterator it = entries.entrySet().iterator();
+	while (bytes > maxBytes && it.hasNext())
+	{
+	    Map.Entry eldest = (Map.Entry)it.next();
+	    bytes -= sizeOf((String)eldest.getKey(),
+			    (byte[])eldest.getValue());
+	    it.remove();
+	}
+    }
+
+    public synchronized void clear()
+    {
+	entries.clear();
+	bytes = 0;
+    }
+
+    /**
+       Returns the number of responses cached.
+       @return the number of entries
+    */
+    public synchronized int size()
+    {
+	return entries.size();
+    }
+
+    // Approximate heap size of an entry: chars of the query and bytes of
+    // the response
+    private static long sizeOf(String query, byte[] response)
+    {
+	return 2L * query.length() + response.length + ENTRY_OVERHEAD;
+    }
+
+    private static final int ENTRY_OVERHEAD = 64; // map entry and headers
+
+    private final long maxBytes; // bound on bytes
+    private final LinkedHashMap entries; // query to response, oldest first
+    private long bytes; // bytes held
+}
@@ -0,0 +1,81 @@
+/**
+   NameCache holds the display names Javacyc has fetched, such as full
+   enzyme names, so that reports that show the same names over and over
+   do not ask the server again.  It is bounded: when full, the least
+   recently used name is dropped.  Names are keyed by organism, the PTIL
+   function that produced them and the frame, so one cache can be shared
+   by views of different organisms.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+class NameCache
+{
+    /**
+       Creates an empty cache.
+       @param capacity the most names kept
+    */
+    NameCache(final int capacity)
+    {
+	this.capacity = capacity;
+	names = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest)
+		{
+		    return size() > capacity;
+		}
+	    };
+    }
+
+    /**
+       Looks up a name.
+       @param organism the organism of the frame
+       @param function the PTIL function that gives the name
+       @param frame the frame
+       @return the name, or null if it is not cached
+    */
+    synchronized String get(String organism, String function, String frame)
+    {
+	return (String)names.get(key(organism, function, frame));
+    }
+
+    /**
+       Stores a name.
+       @param organism the organism of the frame
+       @param function the PTIL function that gave the name
+       @param frame the frame
+       @param name the name
+    */
+    synchronized void put(String organism, String function, String frame,
+			  String name)
+    {
+	names.put(key(organism, function, frame), name);
+    }
+
+    /**
+       Removes every name, for example after the KB was modified.
+    */
+    synchronized void clear()
+    {
+	names.clear();
+    }
+
+    /**
+       Returns the most names the cache keeps.
+       @return the capacity
+    */
+    int capacity()
+    {
+	return capacity;
+    }
+
+    // Builds the key of a name
+    private static String key(String organism, String function, String frame)
+    {
+	return organism + ' ' + function + ' ' + frame;
+    }
+
+    private final int capacity; // the most names kept
+    private final LinkedHashMap names; // key to name, least recent first
+}
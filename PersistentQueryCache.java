@@ -0,0 +1,334 @@
+/**
+   PersistentQueryCache keeps query responses on disk, so that a JVM that
+   restarts can answer the queries it made before without contacting
+   Pathway Tools.
+
+   The cache is an append-only log split into a fixed number of segment
+   files of equal size, each memory-mapped in full.  New entries are
+   appended to the current segment.  When it is full, the oldest segment
+   is emptied and becomes the current one, so the cache never grows past
+   its size bound and evicts the oldest entries first.  An in-memory hash
+   index maps each query to the place of its latest response; it is
+   rebuilt by scanning the segments when the cache is opened.  Each entry
+   carries a CRC32 of its query and response, and a segment is cut short
+   at the first entry that fails it, so an entry torn by a crash is not
+   served.
+
+   Each segment records a version stamp given by the caller, such as a
+   date or a KB version that changes when the KB is reloaded.  Segments
+   written under another stamp are emptied on open, which invalidates
+   every response cached for an older KB.
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class PersistentQueryCache implements QueryCache
+{
+    /**
+       Opens the cache in a directory, creating it if needed.
+       @param directory the directory holding the segment files
+       @param maxBytes the size bound of the cache on disk
+       @param stamp the version stamp of the KB; entries written under any
+       other stamp are discarded
+       @throws IOException if the segment files cannot be opened
+    */
+    public PersistentQueryCache(File directory, long maxBytes, String stamp)
+	throws IOException
+    {
+	long perSegment = maxBytes / SEGMENT_COUNT;
+	if (perSegment < HEADER_SIZE * 2 || perSegment > Integer.MAX_VALUE)
+	{
+	    throw new IllegalArgumentException("bad cache size: " + maxBytes);
+	}
+	directory.mkdirs();
+	segmentSize = (int)perSegment;
+	this.stamp = stamp;
+	byte[] stampBytes = stamp.getBytes("UTF-8");
+	if (stampBytes.length > HEADER_SIZE - 20)
+	{
+	    throw new IllegalArgumentException("stamp too long: " + stamp);
+	}
+	segments = new MappedByteBuffer[SEGMENT_COUNT];
+	sequences = new long[SEGMENT_COUNT];
+	index = new HashMap();
+	for (int i = 0; i < SEGMENT_COUNT; i++)
+	{
+	    RandomAccessFile file = new RandomAccessFile(
+		new File(directory, "segment-" + i + ".log"), "rw");
+	    try
+	    {
+		segments[i] = file.getChannel().map(
+		    FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+	    }
+	    finally
+	    {
+		file.close(); // the mapping stays valid
+	    }
+	    if (!validHeader(segments[i]))
+	    {
+		reset(i, 0);
+	    }
+	    sequences[i] = segments[i].getLong(8);
+	}
+	// Scan from the oldest segment so later entries win
+	Integer[] order = new Integer[SEGMENT_COUNT];
+	for (int i = 0; i < SEGMENT_COUNT; i++)
+	{
+	    order[i] = Integer.valueOf(i);
+	}
+	Arrays.sort(order, new Comparator() {
+		public int compare(Object a, Object b)
+		{
+		    long sa = sequences[((Integer)a).intValue()];
+		    long sb = sequences[((Integer)b).intValue()];
+		    return (sa < sb) ? -1 : (sa == sb) ? 0 : 1;
+		}
+	    });
+	for (int i = 0; i < SEGMENT_COUNT; i++)
+	{
+	    scan(order[i].intValue());
+	}
+	current = order[SEGMENT_COUNT - 1].intValue();
+    }
+
+    /**
+       Tests whether a segment was written by this version of the cache
+       under the current stamp.
+    */
+    private boolean validHeader(MappedByteBuffer segment)
+	throws IOException
+    {
+	if (segment.getInt(0) != MAGIC)
+	{
+	    return false;
+	}
+	int end = segment.getInt(4);
+	if (end < HEADER_SIZE || end > segmentSize)
+	{
+	    return false;
+	}
+	int length = segment.getShort(16);
+	if (length < 0 || length > HEADER_SIZE - 20)
+	{
+	    return false;
+	}
+	byte[] bytes = new byte[length];
+	ByteBuffer view = segment.duplicate();
+	view.position(18);
+	view.get(bytes);
+	return new String(bytes, "UTF-8").equals(stamp);
+    }
+
+    /**
+       Empties a segment and gives it a sequence number.
+    */
+    private void reset(int segment, long sequence) throws IOException
+    {
+	MappedByteBuffer buffer = segments[segment];
+	byte[] stampBytes = stamp.getBytes("UTF-8");
+	buffer.putInt(0, MAGIC);
+	buffer.putInt(4, HEADER_SIZE);
+	buffer.putLong(8, sequence);
+	buffer.putShort(16, (short)stampBytes.length);
+	ByteBuffer view = buffer.duplicate();
+	view.position(18);
+	view.put(stampBytes);
+	sequences[segment] = sequence;
+    }
+
+    /**
+       Adds the entries of a segment to the index.  The segment is cut
+       short at the first record that does not fit in it or does not match
+       its checksum, as after a torn write or a damaged file, so later
+       appends overwrite the damage.
+    */
+    private void scan(int segment) throws IOException
+    {
+	ByteBuffer view = segments[segment].duplicate();
+	int end = view.getInt(4);
+	int position = HEADER_SIZE;
+	while (position < end)
+	{
+	    if (end - position < RECORD_HEADER)
+	    {
+		break;
+	    }
+	    int keyLength = view.getInt(position);
+	    int valueLength = view.getInt(position + 4);
+	    // Empty keys and responses are never written
+	    if (keyLength <= 0 || valueLength <= 0
+		|| (long)RECORD_HEADER + keyLength + valueLength
+		> end - position)
+	    {
+		break;
+	    }
+	    byte[] key = new byte[keyLength];
+	    byte[] value = new byte[valueLength];
+	    view.position(position + RECORD_HEADER);
+	    view.get(key);
+	    view.get(value);
+	    if (view.getInt(position + 8) != checksum(key, value))
+	    {
+		break;
+	    }
+	    index.put(new String(key, "UTF-8"),
+		      Long.valueOf(((long)segment << 32) | position));
+	    position += RECORD_HEADER + keyLength + valueLength;
+	}
+	if (position < end)
+	{
+	    // Drop whatever follows the last good record
+	    segments[segment].putInt(4, position);
+	}
+    }
+
+    /**
+       Computes the checksum stored with a record.
+    */
+    private static int checksum(byte[] key, byte[] value)
+    {
+	CRC32 crc = new CRC32();
+	crc.update(key);
+	crc.update(value);
+	return (int)crc.getValue();
+    }
+
+    public synchronized byte[] get(String query)
+    {
+	Long location = (Long)index.get(query);
+	if (location == null)
+	{
+	    return null;
+	}
+	int segment = (int)(location.longValue() >>> 32);
+	int position = (int)location.longValue();
+	ByteBuffer view = segments[segment].duplicate();
+	int keyLength = view.getInt(position);
+	int valueLength = view.getInt(position + 4);
+	byte[] value = new byte[valueLength];
+	view.position(position + RECORD_HEADER + keyLength);
+	view.get(value);
+	return value;
+    }
+
+    public synchronized void put(String query, byte[] response)
+    {
+	try
+	{
+	    byte[] key = query.getBytes("UTF-8");
+	    int size = RECORD_HEADER + key.length + response.length;
+	    if (key.length == 0 || response.length == 0)
+	    {
+		return; // nothing worth keeping, and scan rejects it
+	    }
+	    if (size > segmentSize - HEADER_SIZE)
+	    {
+		return; // larger than a segment; not worth evicting for
+	    }
+	    MappedByteBuffer buffer = segments[current];
+	    int end = buffer.getInt(4);
+	    if (end + size > segmentSize)
+	    {
+		rotate();
+		buffer = segments[current];
+		end = buffer.getInt(4);
+	    }
+	    ByteBuffer view = buffer.duplicate();
+	    view.position(end);
+	    view.putInt(key.length);
+	    view.putInt(response.length);
+	    view.putInt(checksum(key, response));
+	    view.put(key);
+	    view.put(response);
+	    // Publish the entry only once it is complete
+	    buffer.putInt(4, end + size);
+	    index.put(query, Long.valueOf(((long)current << 32) | end));
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+    /**
+       Empties the oldest segment and makes it the current one.
+    */
+    private void rotate() throws IOException
+    {
+	int oldest = 0;
+	for (int i = 1; i < SEGMENT_COUNT; i++)
+	{
+	    if (sequences[i] < sequences[oldest])
+	    {
+		oldest = i;
+	    }
+	}
+	long next = sequences[current] + 1;
+	Iterator it = index.values().iterator();
+	while (it.hasNext())
+	{
+	    if ((int)(((Long)it.next()).longValue() >>> 32) == oldest)
+	    {
+		it.remove();
+	    }
+	}
+	reset(oldest, next);
+	current = oldest;
+    }
+
+    public synchronized void clear()
+    {
+	try
+	{
+	    long next = sequences[current] + 1;
+	    for (int i = 0; i < SEGMENT_COUNT; i++)
+	    {
+		reset(i, next + i);
+	    }
+	    current = SEGMENT_COUNT - 1;
+	    index.clear();
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+    /**
+       Returns the number of cached queries.
+       @return the number of entries
+    */
+    public synchronized int size()
+    {
+	return index.size();
+    }
+
+    /**
+       Writes every segment back to disk.
+    */
+    public synchronized void flush()
+    {
+	for (int i = 0; i < SEGMENT_COUNT; i++)
+	{
+	    segments[i].force();
+	}
+    }
+
+    private static final int MAGIC = 0x4A435132; // "JCQ2"
+    private static final int SEGMENT_COUNT = 4; // a quarter is evicted at once
+    private static final int HEADER_SIZE = 256; // magic, end, sequence, stamp
+    private static final int RECORD_HEADER = 12; // lengths and checksum
+
+    private final int segmentSize; // bytes per segment file
+    private final String stamp; // KB version stamp
+    private final MappedByteBuffer[] segments; // the mapped segment files
+    private final long[] sequences; // age of each segment, larger is newer
+    private final HashMap index; // query to Long (segment << 32 | offset)
+    private int current; // segment new entries are appended to
+}
@@ -0,0 +1,305 @@
+/**
+   Prefetcher learns which calls an application makes on the results of
+   other calls, and fetches the likely follow-up calls into the query
+   cache before they are made.  A report that walks a pathway, for
+   instance, calls getReactionList and then enzymesOfReaction and
+   genesOfReaction on each reaction; once the prefetcher has seen that
+   happen a few times, each getReactionList is followed in the background
+   by one query that fetches the enzymes of all its reactions, and the
+   enzymesOfReaction calls that follow are answered from the cache.
+
+   A call B is learned to follow a call A when B is made with one of the
+   frames A returned, shortly after A.  B is prefetched after A once it
+   has followed enough of A's calls.  Only list calls that take a single
+   frame are prefetched, and only for a Javacyc with a query cache.
+
+   The background queries are made one at a time through a BATCH view of
+   the observed Javacyc, so they queue behind interactive calls, and they
+   are capped at a number of queries per second.  Prefetches over the cap,
+   or for which there is no room in the queue, are dropped.
+
+   Usage:
+	cyc.setQueryCache(new MemoryQueryCache(64 << 20));
+	cyc.setPrefetcher(new Prefetcher(10));
+
+   See README file for license details
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class Prefetcher
+{
+    /**
+       Constructor for Prefetcher with the default thresholds.
+       @param queriesPerSecond the most prefetch queries sent per second
+    */
+    public Prefetcher(double queriesPerSecond)
+    {
+	this(queriesPerSecond, DEFAULT_THRESHOLD, DEFAULT_MIN_SAMPLES);
+    }
+
+    /**
+       Constructor for Prefetcher.
+       @param queriesPerSecond the most prefetch queries sent per second
+       @param threshold the fraction of the times a call was made that
+       must have been followed by another call on its results before that
+       one is prefetched, from 0 to 1
+       @param minSamples the number of times a call must have been made
+       before its follow-ups are prefetched
+    */
+    public Prefetcher(double queriesPerSecond, double threshold,
+		      int minSamples)
+    {
+	this.queriesPerSecond = queriesPerSecond;
+	this.threshold = threshold;
+	this.minSamples = minSamples;
+	recent = new Observation[HISTORY];
+	calls = new HashMap();
+	follows = new HashMap();
+	tokens = queriesPerSecond;
+	lastRefill = System.nanoTime();
+	prefetched = new AtomicLong();
+	skipped = new AtomicLong();
+	worker = new ThreadPoolExecutor(
+	    1, 1, 0, TimeUnit.MILLISECONDS,
+	    new ArrayBlockingQueue(QUEUE_SIZE),
+	    new ThreadFactory() {
+		public Thread newThread(Runnable task)
+		{
+		    Thread thread = new Thread(task, "javacyc-prefetch");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    },
+	    new RejectedExecutionHandler() {
+		public void rejectedExecution(Runnable task,
+					      ThreadPoolExecutor executor)
+		{
+		    skipped.addAndGet(((Prefetch)task).frames.size());
+		}
+	    });
+    }
+
+    /**
+       Records a list call made by a Javacyc, learns from it, and queues
+       prefetches of the calls that usually follow it.
+       @param cyc the Javacyc that made the call
+       @param call the template of the call
+       @param args the arguments of the call
+       @param results the results of the call
+    */
+    void observe(Javacyc cyc, QueryTemplate call, String[] args,
+		 ArrayList results)
+    {
+	HashSet frames = new HashSet();
+	for (int i = 0; i < results.size() && i < MAX_RESULTS; i++)
+	{
+	    String frame = Javacyc.asName(results.get(i));
+	    if (frame != null)
+	    {
+		frames.add(frame);
+	    }
+	}
+	ArrayList predicted = new ArrayList();
+	synchronized (this)
+	{
+	    if (args.length == 1)
+	    {
+		credit(call, args[0]);
+	    }
+	    if (frames.isEmpty() || results.size() > MAX_RESULTS)
+	    {
+		return;
+	    }
+	    recent[next] = new Observation(call, frames);
+	    next = (next + 1) % HISTORY;
+	    int seen = increment(calls, call);
+	    HashMap counts = (HashMap)follows.get(call);
+	    if (seen < minSamples || counts == null)
+	    {
+		return;
+	    }
+	    Iterator it = counts.entrySet().iterator();
+	    while (it.hasNext())
+	    {
+		Map.Entry entry = (Map.Entry)it.next();
+		int count = ((int[])entry.getValue())[0];
+		if (count >= threshold * seen)
+		{
+		    predicted.add(entry.getKey());
+		}
+	    }
+	}
+	if (predicted.isEmpty())
+	{
+	    return;
+	}
+	ArrayList list = new ArrayList(frames);
+	for (int i = 0; i < predicted.size(); i++)
+	{
+	    QueryTemplate followUp = (QueryTemplate)predicted.get(i);
+	    for (int j = 0; j < list.size(); j += BATCH_SIZE)
+	    {
+		worker.execute(new Prefetch(cyc, followUp, new ArrayList(
+		    list.subList(j, Math.min(j + BATCH_SIZE, list.size())))));
+	    }
+	}
+    }
+
+    /**
+       Counts a call made with a frame as a follow-up of each recent call
+       that returned the frame, once per recent call.
+    */
+    private void credit(QueryTemplate call, String frame)
+    {
+	for (int i = 0; i < HISTORY; i++)
+	{
+	    Observation earlier = recent[i];
+	    if (earlier == null || !earlier.results.contains(frame)
+		|| !earlier.credited.add(call))
+	    {
+		continue;
+	    }
+	    HashMap counts = (HashMap)follows.get(earlier.call);
+	    if (counts == null)
+	    {
+		counts = new HashMap();
+		follows.put(earlier.call, counts);
+	    }
+	    increment(counts, call);
+	}
+    }
+
+    // Adds one to the count of key in counts, and returns the new count
+    private static int increment(HashMap counts, Object key)
+    {
+	int[] count = (int[])counts.get(key);
+	if (count == null)
+	{
+	    count = new int[1];
+	    counts.put(key, count);
+	}
+	return ++count[0];
+    }
+
+    /**
+       Takes a query from the budget, if one is left.
+       @return true if a query may be sent now
+    */
+    private synchronized boolean takeToken()
+    {
+	long now = System.nanoTime();
+	tokens = Math.min(Math.max(queriesPerSecond, 1), tokens
+			  + queriesPerSecond * (now - lastRefill) / 1e9);
+	lastRefill = now;
+	if (tokens < 1)
+	{
+	    return false;
+	}
+	tokens--;
+	return true;
+    }
+
+    /**
+       Returns the number of frames whose follow-up calls were fetched
+       into the cache.
+       @return the number of frames prefetched
+    */
+    public long getPrefetchedCount()
+    {
+	return prefetched.get();
+    }
+
+    /**
+       Returns the number of frames whose follow-up calls were not
+       fetched because of the budget, a full queue or an error.
+       @return the number of frames skipped
+    */
+    public long getSkippedCount()
+    {
+	return skipped.get();
+    }
+
+    /**
+       Stops the background thread.  Queued prefetches are dropped.
+    */
+    public void close()
+    {
+	worker.shutdownNow();
+    }
+
+    /**
+       A call that returned frames, kept to match later calls against.
+    */
+    private static class Observation
+    {
+	Observation(QueryTemplate call, HashSet results)
+	{
+	    this.call = call;
+	    this.results = results;
+	    credited = new HashSet();
+	}
+
+	final QueryTemplate call; // the call made
+	final HashSet results; // the frames it returned
+	final HashSet credited; // templates already counted as follow-ups
+    }
+
+    /**
+       One batch of frames to fetch a follow-up call for.
+    */
+    private class Prefetch implements Runnable
+    {
+	Prefetch(Javacyc cyc, QueryTemplate call, ArrayList frames)
+	{
+	    this.cyc = cyc;
+	    this.call = call;
+	    this.frames = frames;
+	}
+
+	public void run()
+	{
+	    if (!takeToken())
+	    {
+		skipped.addAndGet(frames.size());
+		return;
+	    }
+	    try
+	    {
+		Javacyc batch = cyc.forCaller("prefetch", QueryScheduler.BATCH);
+		prefetched.addAndGet(batch.prefetch(call, frames));
+	    }
+	    catch (RuntimeException e)
+	    {
+		// A prefetch is only a guess; the real call will report it
+		skipped.addAndGet(frames.size());
+	    }
+	}
+
+	final Javacyc cyc; // the Javacyc whose call is anticipated
+	final QueryTemplate call; // the follow-up call
+	final ArrayList frames; // the frames to call it on
+    }
+
+    private static final double DEFAULT_THRESHOLD = 0.5;
+    private static final int DEFAULT_MIN_SAMPLES = 5;
+    private static final int HISTORY = 16; // recent calls matched against
+    private static final int MAX_RESULTS = 10000; // larger results ignored
+    private static final int BATCH_SIZE = 100; // frames per query
+    private static final int QUEUE_SIZE = 64; // batches waiting
+
+    private final double queriesPerSecond; // budget of prefetch queries
+    private final double threshold; // share of calls followed to predict
+    private final int minSamples; // calls seen before predicting
+    private final Observation[] recent; // ring of recent calls
+    private int next; // slot of recent to fill next
+    private final HashMap calls; // template to int[] times seen
+    private final HashMap follows; // template to (template to int[] count)
+    private double tokens; // queries left in the budget
+    private long lastRefill; // nanoTime the budget was last topped up
+    private final AtomicLong prefetched; // frames fetched into the cache
+    private final AtomicLong skipped; // frames dropped
+    private final ThreadPoolExecutor worker; // sends prefetch queries
+}
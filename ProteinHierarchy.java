@@ -0,0 +1,343 @@
+/**
+   ProteinHierarchy is a local index of how the proteins of one organism
+   are assembled from each other: which complexes contain which subunits,
+   and which proteins are modified forms of which.  It is loaded with a
+   single batched query over every protein in the KB, after which the
+   containment and modification questions that would otherwise need
+   monomers-of-protein, components-of-protein, containers-of,
+   top-containers, modified-forms and modified-containers are answered
+   locally.
+
+   Only the direct edges are fetched.  Transitive closures are computed on
+   first use and memoized as BitSets over dense protein ids, so repeated
+   closure queries and membership tests cost no further work.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class ProteinHierarchy
+{
+    /**
+       Loads the protein hierarchy of the organism currently selected in
+       cyc.
+       @param cyc a Javacyc connected to the organism to load
+       @return the loaded hierarchy
+    */
+    public static ProteinHierarchy load(Javacyc cyc)
+    {
+	ProteinHierarchy hierarchy = new ProteinHierarchy();
+	hierarchy.loadProteins(cyc.callFuncList(PROTEIN_QUERY));
+	return hierarchy;
+    }
+
+    /**
+       Private constructor; use load.
+    */
+    private ProteinHierarchy()
+    {
+	proteins = new FrameTable();
+    }
+
+    /**
+       Records the rows returned by PROTEIN_QUERY and packs the edges.
+       Each row is (protein components modified-forms).
+    */
+    private void loadProteins(ArrayList rows)
+    {
+	AdjacencyIndex.Builder componentEdges = new AdjacencyIndex.Builder();
+	AdjacencyIndex.Builder modifiedEdges = new AdjacencyIndex.Builder();
+	for (int i = 0; i < rows.size(); i++)
+	{
+	    ArrayList row = (ArrayList)rows.get(i);
+	    int protein = proteins.intern((String)row.get(0));
+	    ArrayList parts = Javacyc.asList(row.get(1));
+	    for (int j = 0; j < parts.size(); j++)
+	    {
+		componentEdges.add(protein,
+				   proteins.intern((String)parts.get(j)));
+	    }
+	    ArrayList forms = Javacyc.asList(row.get(2));
+	    for (int j = 0; j < forms.size(); j++)
+	    {
+		modifiedEdges.add(protein,
+				  proteins.intern((String)forms.get(j)));
+	    }
+	}
+	int n = proteins.size();
+	components = componentEdges.build(n);
+	containers = components.reverse(n);
+	modified = modifiedEdges.build(n);
+	down = new BitSet[n];
+	up = new BitSet[n];
+	forms = new BitSet[n];
+    }
+
+    // Closures
+
+    /**
+       Returns the memoized transitive closure of a node in a graph.  The
+       node itself is not included unless it lies on a cycle.
+       @param graph the graph to follow
+       @param memo the memo table for graph
+       @param node a protein id
+       @return a BitSet of every protein reachable from node; callers must
+       not modify it
+    */
+    private synchronized BitSet closure(AdjacencyIndex graph, BitSet[] memo,
+					int node)
+    {
+	if (memo[node] != null)
+	{
+	    return memo[node];
+	}
+	// Iterative search, so deep complexes cannot overflow the stack
+	BitSet reached = new BitSet(proteins.size());
+	int[] stack = new int[16];
+	int top = 0;
+	stack[top++] = node;
+	while (top > 0)
+	{
+	    int current = stack[--top];
+	    for (int i = 0; i < graph.degree(current); i++)
+	    {
+		int next = graph.target(current, i);
+		if (reached.get(next))
+		{
+		    continue;
+		}
+		reached.set(next);
+		if (memo[next] != null)
+		{
+		    reached.or(memo[next]);
+		    continue;
+		}
+		if (top == stack.length)
+		{
+		    int[] grown = new int[top * 2];
+		    System.arraycopy(stack, 0, grown, 0, top);
+		    stack = grown;
+		}
+		stack[top++] = next;
+	    }
+	}
+	memo[node] = reached;
+	return reached;
+    }
+
+    /**
+       Returns a copy of a closure with its start node added, as the
+       PTIL functions include the protein itself.
+    */
+    private static BitSet including(int node, BitSet closure)
+    {
+	BitSet set = (BitSet)closure.clone();
+	set.set(node);
+	return set;
+    }
+
+    /**
+       Converts a BitSet of protein ids to an ArrayList of names.
+    */
+    private ArrayList namesOf(BitSet set)
+    {
+	ArrayList list = new ArrayList(set.cardinality());
+	for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+	{
+	    list.add(proteins.nameOf(i));
+	}
+	return list;
+    }
+
+    /**
+       Returns every subunit of a protein, at any depth.
+       @param protein a protein frame
+       @return a BitSet of protein ids; callers must not modify it
+    */
+    BitSet subunitSet(String protein)
+    {
+	int id = proteins.indexOf(protein);
+	return (id < 0) ? new BitSet() : closure(components, down, id);
+    }
+
+    /**
+       Returns every complex that contains a protein, at any depth.
+       @param protein a protein frame
+       @return a BitSet of protein ids; callers must not modify it
+    */
+    BitSet containerSet(String protein)
+    {
+	int id = proteins.indexOf(protein);
+	return (id < 0) ? new BitSet() : closure(containers, up, id);
+    }
+
+    // Lookups mirroring the Javacyc methods
+
+    /**
+       Local equivalent of Javacyc.componentsOfProtein, without the
+       coefficients.
+       @param protein a protein frame
+       @return an ArrayList of all subunits of protein, at any depth
+    */
+    public ArrayList componentsOfProtein(String protein)
+    {
+	return namesOf(subunitSet(protein));
+    }
+
+    /**
+       Local equivalent of Javacyc.monomersOfProtein.
+       @param protein a protein frame
+       @return an ArrayList of the subunits of protein that have no
+       subunits of their own, or protein itself if it is a monomer
+    */
+    public ArrayList monomersOfProtein(String protein)
+    {
+	int id = proteins.indexOf(protein);
+	ArrayList list = new ArrayList();
+	if (id < 0)
+	{
+	    return list;
+	}
+	if (components.degree(id) == 0)
+	{
+	    list.add(protein);
+	    return list;
+	}
+	BitSet parts = closure(components, down, id);
+	for (int i = parts.nextSetBit(0); i >= 0; i = parts.nextSetBit(i + 1))
+	{
+	    if (components.degree(i) == 0)
+	    {
+		list.add(proteins.nameOf(i));
+	    }
+	}
+	return list;
+    }
+
+    /**
+       Local equivalent of Javacyc.containersOf.
+       @param protein a protein frame
+       @return an ArrayList of protein and all complexes that contain it,
+       at any depth
+    */
+    public ArrayList containersOf(String protein)
+    {
+	int id = proteins.indexOf(protein);
+	return (id < 0) ? new ArrayList()
+	    : namesOf(including(id, closure(containers, up, id)));
+    }
+
+    /**
+       Local equivalent of Javacyc.topContainers.
+       @param protein a protein frame
+       @return an ArrayList of the complexes containing protein that are not
+       themselves contained in anything, or protein itself if it is not
+       part of any complex
+    */
+    public ArrayList topContainers(String protein)
+    {
+	int id = proteins.indexOf(protein);
+	ArrayList list = new ArrayList();
+	if (id < 0)
+	{
+	    return list;
+	}
+	if (containers.degree(id) == 0)
+	{
+	    list.add(protein);
+	    return list;
+	}
+	BitSet above = closure(containers, up, id);
+	for (int i = above.nextSetBit(0); i >= 0; i = above.nextSetBit(i + 1))
+	{
+	    if (containers.degree(i) == 0)
+	    {
+		list.add(proteins.nameOf(i));
+	    }
+	}
+	return list;
+    }
+
+    /**
+       Local equivalent of Javacyc.modifiedForms.
+       @param protein a protein frame
+       @return an ArrayList of protein and all its modified forms,
+       following modifications of modified forms
+    */
+    public ArrayList modifiedForms(String protein)
+    {
+	int id = proteins.indexOf(protein);
+	return (id < 0) ? new ArrayList()
+	    : namesOf(including(id, closure(modified, forms, id)));
+    }
+
+    /**
+       Local equivalent of Javacyc.modifiedContainers.
+       @param protein a protein frame
+       @return an ArrayList of protein, its modified forms, and all
+       complexes that contain protein or one of its modified forms
+    */
+    public ArrayList modifiedContainers(String protein)
+    {
+	int id = proteins.indexOf(protein);
+	if (id < 0)
+	{
+	    return new ArrayList();
+	}
+	BitSet result = including(id, closure(containers, up, id));
+	BitSet variants = closure(modified, forms, id);
+	result.or(variants);
+	for (int i = variants.nextSetBit(0); i >= 0;
+	     i = variants.nextSetBit(i + 1))
+	{
+	    result.or(closure(containers, up, i));
+	}
+	return namesOf(result);
+    }
+
+    /**
+       Tests whether a complex contains a protein at any depth.
+       @param complex a protein complex frame
+       @param protein a protein frame
+       @return true if protein is a subunit of complex
+    */
+    public boolean contains(String complex, String protein)
+    {
+	int part = proteins.indexOf(protein);
+	return part >= 0 && subunitSet(complex).get(part);
+    }
+
+    /**
+       Returns every protein known to the hierarchy, including subunits and
+       modified forms that are not instances of the protein class.
+       @return an ArrayList of protein frames
+    */
+    public ArrayList allProteins()
+    {
+	ArrayList list = new ArrayList(proteins.size());
+	for (int i = 0; i < proteins.size(); i++)
+	{
+	    list.add(proteins.nameOf(i));
+	}
+	return list;
+    }
+
+    // One row per protein: (protein components modified-forms).  Slot
+    // values that are not frames, such as coefficients, are dropped.
+    private static final String PROTEIN_QUERY =
+	"(mapcar #'(lambda (p) (list (object-name p)"
+	+ " (mapcar #'object-name (remove-if-not #'coercible-to-frame-p"
+	+ " (get-slot-values p 'components)))"
+	+ " (mapcar #'object-name (remove-if-not #'coercible-to-frame-p"
+	+ " (get-slot-values p 'modified-form)))))"
+	+ " (get-class-all-instances '|Proteins|))";
+
+    private FrameTable proteins; // every protein, subunit and modified form
+    private AdjacencyIndex components; // complex to direct subunits
+    private AdjacencyIndex containers; // subunit to direct complexes
+    private AdjacencyIndex modified; // protein to direct modified forms
+    private BitSet[] down; // memoized subunit closures
+    private BitSet[] up; // memoized container closures
+    private BitSet[] forms; // memoized modified form closures
+}
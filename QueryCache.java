@@ -0,0 +1,30 @@
+/**
+   A cache of raw Pathway Tools responses, keyed by the complete query
+   sent to the server.  The query names the organism and the response
+   encoding, so one cache can serve any number of Javacyc views.
+   Implementations must be safe to use from several threads.
+
+   See README file for license details
+*/
+
+public interface QueryCache
+{
+    /**
+       Looks up the response to a query.
+       @param query the complete query
+       @return the response bytes, or null if the query is not cached
+    */
+    byte[] get(String query);
+
+    /**
+       Stores the response to a query.  The cache may decline to keep it.
+       @param query the complete query
+       @param response the response bytes
+    */
+    void put(String query, byte[] response);
+
+    /**
+       Removes every entry, for example after the KB was modified.
+    */
+    void clear();
+}
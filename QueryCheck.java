@@ -0,0 +1,459 @@
+/**
+   QueryCheck checks the exact text of the queries Javacyc sends, without
+   Pathway Tools.  A StandInServer records each query it gets, and each
+   check makes a few calls and compares what arrived with the text the
+   calls were sent as when queries were built by string concatenation:
+   arguments written as they are, except that names the reader would not
+   read as one symbol are put between vertical bars.  The last checks
+   read a binary response with non-ASCII names, and a front-coded
+   response against the same list printed.  It prints one line per check
+   and exits with status 1 if any failed.
+
+   Usage: java QueryCheck
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.util.*;
+
+public class QueryCheck
+{
+    public static void main(String[] args)
+    {
+	String[] names = {
+	    "function calls are sent as before",
+	    "arguments are bar-quoted only when needed",
+	    "response encodings wrap calls as before",
+	    "frame mirrors quote the class and slots",
+	    "query plans quote their arguments",
+	    "frame sets quote their arguments and organism",
+	    "binary response lengths count characters, not bytes",
+	    "front-coded lists decode as the printed list"
+	};
+	int failures = 0;
+	for (int i = 0; i < names.length; i++)
+	{
+	    try
+	    {
+		run(i);
+		System.out.println("ok\t" + names[i]);
+	    }
+	    catch (Exception e)
+	    {
+		failures++;
+		System.out.println("FAILED\t" + names[i] + ": " + e);
+	    }
+	}
+	System.exit((failures == 0) ? 0 : 1);
+    }
+
+    private static void run(int check) throws Exception
+    {
+	switch (check)
+	{
+	case 0: functionCalls(); break;
+	case 1: argumentQuoting(); break;
+	case 2: responseEncodings(); break;
+	case 3: frameMirror(); break;
+	case 4: queryPlan(); break;
+	case 5: frameSet(); break;
+	case 6: binaryLengths(); break;
+	case 7: frontCoded(); break;
+	}
+    }
+
+    /**
+       Plain frames, a list argument, a string argument and a non-ASCII
+       name are written as they are.
+    */
+    private static void functionCalls() throws Exception
+    {
+	Recorder server = new Recorder();
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    cyc.genesOfReaction("RXN-1");
+	    cyc.getSlotValues("RXN-1", "LEFT");
+	    cyc.getSlotValue("CPD-1", "COMMON-NAME");
+	    cyc.putSlotValues("CPD-1", "SYNONYMS", "(\"a\" \"b\")");
+	    cyc.putSlotValue("CPD-1", "COMMENT", "\"x (y)\"");
+	    cyc.getSlotValues("\u03b1-D-GLUCOSE", "SYNONYMS");
+	    server.expect(new String[] {
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (genes-of-reaction 'RXN-1)))",
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (get-slot-values 'RXN-1 'LEFT)))",
+		    "(with-organism (:org-id 'ECOLI) (object-name"
+		    + " (get-slot-value 'CPD-1 'COMMON-NAME)))",
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (put-slot-values 'CPD-1 'SYNONYMS '(\"a\" \"b\"))))",
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (put-slot-value 'CPD-1 'COMMENT '\"x (y)\")))",
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (get-slot-values '\u03b1-D-GLUCOSE 'SYNONYMS)))"
+		});
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       Names with spaces or reader characters get bars, with bars and
+       backslashes in them escaped; names already between bars, and the
+       organism, are left alone unless they need them.
+    */
+    private static void argumentQuoting() throws Exception
+    {
+	Recorder server = new Recorder();
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    cyc.getSlotValues("ATP synthase", "COMMON-NAME");
+	    cyc.getSlotValues("|Proteins|", "SUBS");
+	    cyc.getSlotValues("A|B", "X\\Y");
+	    cyc.getSlotValues("CPD;1", "'LEFT");
+	    new Javacyc("MY ORG", SOCKET).genesOfReaction("RXN-1");
+	    server.expect(new String[] {
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (get-slot-values '|ATP synthase| 'COMMON-NAME)))",
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (get-slot-values '|Proteins| 'SUBS)))",
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (get-slot-values '|A\\|B| '|X\\\\Y|)))",
+		    "(with-organism (:org-id 'ECOLI) (mapcar #'object-name"
+		    + " (get-slot-values '|CPD;1| '|'LEFT|)))",
+		    "(with-organism (:org-id '|MY ORG|) (mapcar #'object-name"
+		    + " (genes-of-reaction 'RXN-1)))"
+		});
+	    expect(QueryTemplate.quote("RXN-1").equals("RXN-1")
+		   && QueryTemplate.quote("a b").equals("|a b|")
+		   && QueryTemplate.quote("").equals("||"),
+		   "quote differs from the query arguments");
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       The front-coded and binary encodings, and expressions sent with
+       callFuncList, wrap the call as the string-built queries did.
+    */
+    private static void responseEncodings() throws Exception
+    {
+	Recorder server = new Recorder();
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    cyc.setResponseEncoding(Javacyc.ENCODING_FRONT_CODED);
+	    try
+	    {
+		cyc.genesOfReaction("RXN-1");
+	    }
+	    catch (RuntimeException e)
+	    {
+		// the recorder does not answer in this encoding
+	    }
+	    cyc.setResponseEncoding(Javacyc.ENCODING_BINARY);
+	    try
+	    {
+		cyc.genesOfReaction("RXN-1");
+	    }
+	    catch (RuntimeException e)
+	    {
+		// nor in this one
+	    }
+	    cyc.setResponseEncoding(Javacyc.ENCODING_TEXT);
+	    cyc.callFuncList("(all-pathways)");
+	    server.expect(new String[] {
+		    "(with-organism (:org-id 'ECOLI)"
+		    + " (let ((prev \"\") (out (make-string-output-stream)))"
+		    + " (dolist (x (mapcar #'object-name"
+		    + " (genes-of-reaction 'RXN-1)))"
+		    + " (let* ((s (prin1-to-string x))"
+		    + " (n (or (mismatch prev s) (length s))))"
+		    + " (format out \"~D ~A~%\" n (subseq s n))"
+		    + " (setq prev s)))"
+		    + " (get-output-stream-string out)))",
+		    "(with-organism (:org-id 'ECOLI) (javacyc-encode"
+		    + " (mapcar #'object-name (genes-of-reaction 'RXN-1))))",
+		    "(with-organism (:org-id 'ECOLI) (all-pathways))"
+		});
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       The class and slot names of a mirror are quoted like arguments.
+    */
+    private static void frameMirror() throws Exception
+    {
+	Recorder server = new Recorder();
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    new FrameMirror("|Proteins|", new String[] {"COMMON-NAME"})
+		.refresh(cyc);
+	    new FrameMirror("Protein complexes",
+			    new String[] {"LEFT)) (save-kb", "A|B"})
+		.refresh(cyc);
+	    server.expectContaining(new String[] {
+		    "(list (vals f 'COMMON-NAME))"
+		    + ")))) (get-class-all-instances '|Proteins|)",
+		    "(list (vals f '|LEFT)) (save-kb|) (vals f '|A\\|B|))"
+		    + ")))) (get-class-all-instances '|Protein complexes|)"
+		});
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       The arguments of each step of a plan are quoted like arguments of
+       single calls.
+    */
+    private static void queryPlan()
+    {
+	String lisp = QueryPlan.from("get-class-all-instances",
+				     new String[] {"|Pathways|"})
+	    .then("get-slot-values", new String[] {"SUB PATHWAYS"})
+	    .map("get-slot-value", new String[] {"X) (save-kb"})
+	    .map("get-slot-value", new String[] {"COMMON-NAME"})
+	    .toLisp();
+	String[] calls = {
+	    "(get-class-all-instances '|Pathways|)",
+	    " '|SUB PATHWAYS|)",
+	    " '|X) (save-kb|)",
+	    " 'COMMON-NAME)"
+	};
+	for (int i = 0; i < calls.length; i++)
+	{
+	    expect(lisp.indexOf(calls[i]) >= 0,
+		   "plan " + lisp + " lacks " + calls[i]);
+	}
+	expect(lisp.indexOf("(save-kb)") < 0, "plan " + lisp + " saves");
+    }
+
+    /**
+       The arguments and organism of a set are quoted like arguments of
+       single calls.
+    */
+    private static void frameSet()
+    {
+	String lisp = FrameSet.of("genes-of-pathway", new String[] {"PWY 1"})
+	    .inOrganism("MY ORG")
+	    .union(FrameSet.of("get-class-all-instances",
+			       new String[] {"|Genes|"}))
+	    .minus(FrameSet.ofFrames(Arrays.asList(new String[] {"G;1"})))
+	    .toLisp();
+	String[] parts = {
+	    "(with-organism (:org-id '|MY ORG|)",
+	    "(genes-of-pathway '|PWY 1|)",
+	    "(get-class-all-instances '|Genes|)",
+	    "'(|G;1|)"
+	};
+	for (int i = 0; i < parts.length; i++)
+	{
+	    expect(lisp.indexOf(parts[i]) >= 0,
+		   "set " + lisp + " lacks " + parts[i]);
+	}
+    }
+
+    /**
+       JAVACYC-ENCODE writes the length of a string in characters and its
+       text as it is, so the non-ASCII names of a binary response take
+       more bytes than their lengths.  Lisp characters are code points, so
+       one outside the BMP counts once.
+    */
+    private static void binaryLengths() throws Exception
+    {
+	final String alpha = "\u03b1-D-glucose";
+	final String emoji = "\ud83d\ude00";
+	StandInServer server = new StandInServer(SOCKET) {
+		protected byte[] respond(String query)
+		{
+		    try
+		    {
+			return ("\"l" + alpha.length() + ":" + alpha
+				+ "1:" + emoji + "3:a\\\"be\"\n")
+			    .getBytes("UTF-8");
+		    }
+		    catch (UnsupportedEncodingException e)
+		    {
+			throw new RuntimeException(e);
+		    }
+		}
+	    };
+	server.start();
+	try
+	{
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    cyc.setResponseEncoding(Javacyc.ENCODING_BINARY);
+	    ArrayList names = cyc.genesOfReaction("RXN-1");
+	    expect(names.equals(Arrays.asList(new String[] {
+			alpha, emoji, "a\"b"})),
+		   "decoded " + names);
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       The same names, sent printed and front coded, read as the same
+       list: names sharing prefixes, a string with an escaped quote, and a
+       list.
+    */
+    private static void frontCoded() throws Exception
+    {
+	final String[] printed = {
+	    "PWY-1", "PWY-12", "PWY-2", "\"say \\\"hi\\\"\"", "\"sa\"",
+	    "(A B)"
+	};
+	StandInServer server = new StandInServer(SOCKET) {
+		protected byte[] respond(String query)
+		{
+		    StringBuffer out = new StringBuffer();
+		    if (query.indexOf("(mismatch prev s)") < 0)
+		    {
+			out.append('(');
+			for (int i = 0; i < printed.length; i++)
+			{
+			    out.append(printed[i]).append(' ');
+			}
+			return out.append(")\n").toString().getBytes();
+		    }
+		    String prev = "";
+		    for (int i = 0; i < printed.length; i++)
+		    {
+			String s = printed[i];
+			int n = 0;
+			while (n < prev.length() && n < s.length()
+			       && prev.charAt(n) == s.charAt(n))
+			{
+			    n++;
+			}
+			out.append(n).append(' ').append(s.substring(n))
+			    .append('\n');
+			prev = s;
+		    }
+		    // The lines, printed as one string
+		    StringBuffer string = new StringBuffer("\"");
+		    for (int i = 0; i < out.length(); i++)
+		    {
+			char c = out.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+			    string.append('\\');
+			}
+			string.append(c);
+		    }
+		    return string.append("\"\n").toString().getBytes();
+		}
+	    };
+	server.start();
+	try
+	{
+	    Javacyc text = new Javacyc("ECOLI", SOCKET);
+	    Javacyc cyc = new Javacyc("ECOLI", SOCKET);
+	    cyc.setResponseEncoding(Javacyc.ENCODING_FRONT_CODED);
+	    ArrayList expected = text.genesOfReaction("RXN-1");
+	    ArrayList names = cyc.genesOfReaction("RXN-1");
+	    expect(expected.size() == printed.length,
+		   "printed list read as " + expected);
+	    expect(names.equals(expected),
+		   "decoded " + names + ", printed " + expected);
+	}
+	finally
+	{
+	    server.close();
+	}
+    }
+
+    /**
+       A server that keeps every query it gets, as UTF-8 bytes, and
+       answers each with an empty list.
+    */
+    private static class Recorder extends StandInServer
+    {
+	Recorder()
+	{
+	    super(SOCKET);
+	}
+
+	protected synchronized byte[] respond(String query)
+	{
+	    try
+	    {
+		received.add(query.getBytes("UTF-8"));
+	    }
+	    catch (UnsupportedEncodingException e)
+	    {
+		throw new RuntimeException(e);
+	    }
+	    return "NIL\n".getBytes();
+	}
+
+	/**
+	   Fails unless the queries received so far are exactly these, in
+	   order, encoded in UTF-8.
+	*/
+	synchronized void expect(String[] queries) throws Exception
+	{
+	    QueryCheck.expect(received.size() == queries.length,
+			      received.size() + " queries, not "
+			      + queries.length);
+	    for (int i = 0; i < queries.length; i++)
+	    {
+		byte[] sent = (byte[])received.get(i);
+		QueryCheck.expect(
+		    Arrays.equals(sent, queries[i].getBytes("UTF-8")),
+		    "sent " + new String(sent, "UTF-8") + ", expected "
+		    + queries[i]);
+	    }
+	}
+
+	/**
+	   Fails unless the queries received so far are as many as these
+	   texts, and each contains its text.
+	*/
+	synchronized void expectContaining(String[] texts) throws Exception
+	{
+	    QueryCheck.expect(received.size() == texts.length,
+			      received.size() + " queries, not "
+			      + texts.length);
+	    for (int i = 0; i < texts.length; i++)
+	    {
+		String sent = new String((byte[])received.get(i), "UTF-8");
+		QueryCheck.expect(sent.indexOf(texts[i]) >= 0,
+				  "sent " + sent + ", expected " + texts[i]);
+	    }
+	}
+
+	private final ArrayList received = new ArrayList(); // query bytes
+    }
+
+    private static void expect(boolean condition, String failure)
+    {
+	if (!condition)
+	{
+	    throw new IllegalStateException(failure);
+	}
+    }
+
+    private static final String SOCKET = "/tmp/javacyc-check-query";
+}
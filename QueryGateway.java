@@ -0,0 +1,348 @@
+/**
+   QueryGateway is a daemon that sits between many Javacyc clients and
+   one Pathway Tools server.  It listens on its own Unix domain socket
+   and speaks the same protocol as Pathway Tools, one query line per
+   connection, so a Javacyc created with the gateway's socket name uses
+   it unchanged:
+	Javacyc cyc = new Javacyc("ARA", "/tmp/javacyc-gateway");
+
+   The gateway forwards queries through a Javacyc of its own, so the
+   connections to Pathway Tools are bounded by its concurrency limiter
+   and go through its retry policy and circuit breaker, and responses
+   are kept in one query cache shared by every client.  Identical
+   read-only queries that arrive while the first is still being answered
+   wait for its response instead of being sent again.  Queries that
+   modify the KB are always forwarded, and clear the cache.
+
+   When a query cannot be answered the client connection is closed
+   without a response, as Pathway Tools does when a query fails.  So is
+   a connection whose query is over 16 MB long, or does not arrive
+   within the read timeout, so a stalled client cannot hold a handler.
+
+   Usage: java QueryGateway [-listen PATH] [-upstream PATH]
+	  [-connections N] [-cache-mb N] [-cache-dir DIR -stamp STAMP]
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class QueryGateway
+{
+    /**
+       Constructor for QueryGateway.  Set the upstream's cache, limiter,
+       retry policy and circuit breaker before starting the gateway.
+       @param socketName the path of the Unix domain socket to listen on
+       @param upstream the Javacyc queries are forwarded through; its
+       organism is not used
+    */
+    public QueryGateway(String socketName, Javacyc upstream)
+    {
+	this.socketName = socketName;
+	this.upstream = upstream;
+	inFlight = new ConcurrentHashMap();
+	requests = new AtomicLong();
+	coalesced = new AtomicLong();
+	readTimeout = 30000;
+    }
+
+    /**
+       Sets how long a client has to send its query before its connection
+       is closed.  The default is 30 seconds.
+       @param millis the timeout in milliseconds
+    */
+    public void setReadTimeout(long millis)
+    {
+	readTimeout = millis;
+    }
+
+    /**
+       Starts accepting connections in the background.  Any existing file
+       at the socket name is deleted.
+       @throws IOException if the socket cannot be bound
+    */
+    public void start() throws IOException
+    {
+	new File(socketName).delete();
+	server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+	server.bind(UnixDomainSocketAddress.of(socketName), BACKLOG);
+	handlers = StandInServer.perTaskExecutor(256);
+	timeouts = Executors.newSingleThreadScheduledExecutor(
+	    new ThreadFactory() {
+		public Thread newThread(Runnable task)
+		{
+		    Thread thread = new Thread(task, "gateway-timeouts");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+	Thread acceptor = new Thread(new Runnable() {
+		public void run()
+		{
+		    acceptLoop();
+		}
+	    }, "gateway-acceptor");
+	acceptor.setDaemon(true);
+	acceptor.start();
+    }
+
+    /**
+       Stops the gateway and deletes its socket file.
+    */
+    public void close()
+    {
+	try
+	{
+	    server.close();
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	}
+	handlers.shutdownNow();
+	timeouts.shutdownNow();
+	new File(socketName).delete();
+    }
+
+    /**
+       Returns the number of queries received from clients.
+       @return the number of queries
+    */
+    public long getRequestCount()
+    {
+	return requests.get();
+    }
+
+    /**
+       Returns the number of queries that were answered with the response
+       to an identical query already in flight.
+       @return the number of coalesced queries
+    */
+    public long getCoalescedCount()
+    {
+	return coalesced.get();
+    }
+
+    /**
+       Answers a query, sharing the upstream call with identical
+       read-only queries in flight.
+       @param query the query, without the newline
+       @return the response bytes
+       @throws Exception if the upstream call failed
+    */
+    byte[] answer(final String query) throws Exception
+    {
+	if (!Javacyc.isReadOnlyQuery(query))
+	{
+	    return upstream.callRaw(query);
+	}
+	FutureTask call = new FutureTask(new Callable() {
+		public Object call()
+		{
+		    return upstream.callRaw(query);
+		}
+	    });
+	FutureTask first = (FutureTask)inFlight.putIfAbsent(query, call);
+	if (first != null)
+	{
+	    coalesced.incrementAndGet();
+	    call = first;
+	}
+	else
+	{
+	    try
+	    {
+		call.run();
+	    }
+	    finally
+	    {
+		inFlight.remove(query, call);
+	    }
+	}
+	try
+	{
+	    return (byte[])call.get();
+	}
+	catch (ExecutionException e)
+	{
+	    Throwable cause = e.getCause();
+	    throw (cause instanceof Exception) ? (Exception)cause : e;
+	}
+    }
+
+    /**
+       Accepts connections until the gateway is closed.
+    */
+    private void acceptLoop()
+    {
+	while (server.isOpen())
+	{
+	    try
+	    {
+		final SocketChannel client = server.accept();
+		handlers.execute(new Runnable() {
+			public void run()
+			{
+			    serve(client);
+			}
+		    });
+	    }
+	    catch (RejectedExecutionException e)
+	    {
+		return;
+	    }
+	    catch (IOException e)
+	    {
+		return; // closed
+	    }
+	}
+    }
+
+    /**
+       Answers the one query sent on a connection.
+    */
+    private void serve(final SocketChannel client)
+    {
+	// Closing the channel ends a read that is still blocked
+	ScheduledFuture timeout = timeouts.schedule(new Runnable() {
+		public void run()
+		{
+		    try
+		    {
+			client.close();
+		    }
+		    catch (IOException e)
+		    {
+		    }
+		}
+	    }, readTimeout, TimeUnit.MILLISECONDS);
+	try
+	{
+	    String query;
+	    try
+	    {
+		query = StandInServer.readLine(client, MAX_QUERY_BYTES);
+	    }
+	    finally
+	    {
+		timeout.cancel(false);
+	    }
+	    requests.incrementAndGet();
+	    ByteBuffer buffer = ByteBuffer.wrap(answer(query));
+	    while (buffer.hasRemaining())
+	    {
+		client.write(buffer);
+	    }
+	}
+	catch (IOException e)
+	{
+	    // client went away; nothing to answer
+	}
+	catch (Exception e)
+	{
+	    // upstream failed; the client sees the connection close
+	    System.err.println("QueryGateway: " + e);
+	}
+	finally
+	{
+	    try
+	    {
+		client.close();
+	    }
+	    catch (IOException e)
+	    {
+	    }
+	}
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+	String socketName = "/tmp/javacyc-gateway";
+	String upstreamName = "/tmp/ptools-socket";
+	int connections = 4;
+	long cacheMegabytes = 256;
+	String cacheDir = null;
+	String stamp = "";
+	for (int i = 0; i + 1 < args.length; i += 2)
+	{
+	    if (args[i].equals("-listen"))
+	    {
+		socketName = args[i + 1];
+	    }
+	    else if (args[i].equals("-upstream"))
+	    {
+		upstreamName = args[i + 1];
+	    }
+	    else if (args[i].equals("-connections"))
+	    {
+		connections = Integer.parseInt(args[i + 1]);
+	    }
+	    else if (args[i].equals("-cache-mb"))
+	    {
+		cacheMegabytes = Long.parseLong(args[i + 1]);
+	    }
+	    else if (args[i].equals("-cache-dir"))
+	    {
+		cacheDir = args[i + 1];
+	    }
+	    else if (args[i].equals("-stamp"))
+	    {
+		stamp = args[i + 1];
+	    }
+	    else
+	    {
+		usage();
+	    }
+	}
+	if (args.length % 2 != 0)
+	{
+	    usage();
+	}
+
+	Javacyc upstream = new Javacyc("META", upstreamName);
+	upstream.setConcurrencyLimiter(new ConcurrencyLimiter(
+	    connections, 1, connections, 10000, 30000));
+	upstream.setRetryPolicy(new RetryPolicy(8, 100, 5000));
+	upstream.setCircuitBreaker(new CircuitBreaker(5, 2000));
+	long cacheBytes = cacheMegabytes << 20;
+	upstream.setQueryCache((cacheDir == null)
+			       ? (QueryCache)new MemoryQueryCache(cacheBytes)
+			       : new PersistentQueryCache(new File(cacheDir),
+							  cacheBytes, stamp));
+	QueryGateway gateway = new QueryGateway(socketName, upstream);
+	gateway.start();
+	System.out.println("Gateway on " + socketName + " for " + upstreamName);
+	while (true)
+	{
+	    Thread.sleep(60000);
+	    System.out.println("Queries: " + gateway.getRequestCount()
+			       + ", coalesced: " + gateway.getCoalescedCount());
+	}
+    }
+
+    private static void usage()
+    {
+	System.err.println("Usage: java QueryGateway [-listen PATH]"
+			   + " [-upstream PATH] [-connections N] [-cache-mb N]"
+			   + " [-cache-dir DIR -stamp STAMP]");
+	System.exit(2);
+    }
+
+    private static final int BACKLOG = 4096; // pending connections
+    private static final int MAX_QUERY_BYTES = 16 << 20; // longest query
+
+    private final String socketName; // path of the listening socket
+    private final Javacyc upstream; // forwards queries to Pathway Tools
+    private final ConcurrentHashMap inFlight; // query to its FutureTask
+    private final AtomicLong requests; // queries received
+    private final AtomicLong coalesced; // queries that shared a response
+    private volatile long readTimeout; // milliseconds to send a query
+    private ServerSocketChannel server; // the listening socket
+    private ExecutorService handlers; // runs one task per connection
+    private ScheduledExecutorService timeouts; // closes stalled clients
+}
@@ -0,0 +1,215 @@
+/**
+   QueryPlan describes a chain of Pathway Tools calls, each applied to the
+   results of the one before, and runs the whole chain on the server in a
+   single round trip.  For example, the common names of the enzymes of
+   every reaction of every pathway:
+
+	ArrayList rows = QueryPlan.from("all-pathways")
+	    .then("get-reaction-list")
+	    .then("enzymes-of-reaction")
+	    .map("get-slot-value", new String[] {"COMMON-NAME"})
+	    .execute(cyc);
+
+   Done with the Javacyc methods, that chain makes one call per pathway,
+   per reaction and per enzyme.  A QueryPlan compiles it into one lisp
+   form with a nested loop per step and returns the result as a table:
+   one ArrayList row per path through the chain, holding the value
+   produced by each step.
+
+   A step added with then returns a list and fans out, giving one row per
+   element.  A step added with map returns a single value and adds a
+   column without fanning out.  A value for which a then step returns
+   nothing produces no rows.  Plans are immutable; every method returns
+   a new plan.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class QueryPlan
+{
+    /**
+       Starts a plan from a function of no arguments that returns a list,
+       such as all-pathways.
+       @param func the Pathway Tools function
+       @return the plan
+    */
+    public static QueryPlan from(String func)
+    {
+	return from(func, new String[0]);
+    }
+
+    /**
+       Starts a plan from a function that returns a list.
+       @param func the Pathway Tools function
+       @param args the arguments, quoted when sent, such as a class frame
+       @return the plan
+    */
+    public static QueryPlan from(String func, String[] args)
+    {
+	return new QueryPlan(new ArrayList(), false).add(
+	    new Step(func, args, true));
+    }
+
+    /**
+       Private constructor; use from.
+    */
+    private QueryPlan(ArrayList steps, boolean distinct)
+    {
+	this.steps = steps;
+	this.distinct = distinct;
+    }
+
+    /**
+       Adds a step that calls a list function on each value of the
+       previous step, with one row per element of its result.
+       @param func the Pathway Tools function, such as get-reaction-list
+       @return the extended plan
+    */
+    public QueryPlan then(String func)
+    {
+	return then(func, new String[0]);
+    }
+
+    /**
+       Adds a step that calls a list function on each value of the
+       previous step, with one row per element of its result.
+       @param func the Pathway Tools function
+       @param args arguments passed after the value, quoted when sent
+       @return the extended plan
+    */
+    public QueryPlan then(String func, String[] args)
+    {
+	return add(new Step(func, args, true));
+    }
+
+    /**
+       Adds a step that calls a single-valued function on each value of the
+       previous step, adding a column.
+       @param func the Pathway Tools function, such as full-enzyme-name
+       @return the extended plan
+    */
+    public QueryPlan map(String func)
+    {
+	return map(func, new String[0]);
+    }
+
+    /**
+       Adds a step that calls a single-valued function on each value of the
+       previous step, adding a column.
+       @param func the Pathway Tools function, such as get-slot-value
+       @param args arguments passed after the value, quoted when sent
+       @return the extended plan
+    */
+    public QueryPlan map(String func, String[] args)
+    {
+	return add(new Step(func, args, false));
+    }
+
+    /**
+       Removes duplicate rows on the server before they are sent.
+       @return the plan with duplicates removed
+    */
+    public QueryPlan distinct()
+    {
+	return new QueryPlan(steps, true);
+    }
+
+    private QueryPlan add(Step step)
+    {
+	ArrayList extended = new ArrayList(steps);
+	extended.add(step);
+	return new QueryPlan(extended, distinct);
+    }
+
+    /**
+       Runs the plan in one round trip.
+       @param cyc a Javacyc connected to the organism to query
+       @return an ArrayList of rows, each an ArrayList holding the value of
+       every step in order; NIL values are the string NIL
+    */
+    public ArrayList execute(Javacyc cyc)
+    {
+	return cyc.callFuncList(toLisp());
+    }
+
+    /**
+       Compiles the plan into the lisp form that execute sends.
+       @return the lisp form
+    */
+    public String toLisp()
+    {
+	String rows = body(0);
+	if (distinct)
+	{
+	    rows = "(remove-duplicates " + rows + " :test #'equal)";
+	}
+	return "(flet ((name (x) (if (or (null x) (stringp x) (numberp x))"
+	    + " x (object-name x)))) " + rows + ")";
+    }
+
+    /**
+       Builds a form that evaluates to the list of rows produced by the
+       steps from index onwards, with v0 to v(index - 1) already bound.
+    */
+    private String body(int index)
+    {
+	if (index == steps.size())
+	{
+	    StringBuffer row = new StringBuffer("(list (list");
+	    for (int i = 0; i < steps.size(); i++)
+	    {
+		row.append(" (name v").append(i).append(')');
+	    }
+	    return row.append("))").toString();
+	}
+	Step step = (Step)steps.get(index);
+	String call = step.call(index == 0 ? null : "v" + (index - 1));
+	if (step.fansOut)
+	{
+	    return "(loop for v" + index + " in " + call + " append "
+		+ body(index + 1) + ")";
+	}
+	return "(let ((v" + index + " " + call + ")) "
+	    + body(index + 1) + ")";
+    }
+
+    /**
+       One function call in the chain.
+    */
+    private static class Step
+    {
+	Step(String func, String[] args, boolean fansOut)
+	{
+	    this.func = func;
+	    this.args = args.clone();
+	    this.fansOut = fansOut;
+	}
+
+	/**
+	   Builds the call, passing the previous value first if there is
+	   one.
+	*/
+	String call(String previous)
+	{
+	    StringBuffer call = new StringBuffer("(").append(func);
+	    if (previous != null)
+	    {
+		call.append(' ').append(previous);
+	    }
+	    for (int i = 0; i < args.length; i++)
+	    {
+		call.append(" '").append(QueryTemplate.quote(args[i]));
+	    }
+	    return call.append(')').toString();
+	}
+
+	final String func; // the Pathway Tools function
+	final String[] args; // quoted arguments after the previous value
+	final boolean fansOut; // whether func returns a list to fan out
+    }
+
+    private final ArrayList steps; // Steps in order
+    private final boolean distinct; // whether to remove duplicate rows
+}
@@ -0,0 +1,262 @@
+/**
+   QueryScheduler decides which waiting call goes to the Pathway Tools
+   server next, so that short interactive queries are not stuck behind
+   long batch enumerations.
+
+   Calls belong to a priority class and to a caller.  The scheduler hands
+   out a fixed number of slots.  A free slot always goes to an interactive
+   call if one is waiting, and batch calls may hold at most a bounded
+   number of slots, so some slots are always left for interactive traffic.
+   Within a class, callers take turns (round robin), so one caller that
+   queues thousands of calls cannot starve the others.
+
+   Install a scheduler with Javacyc.setQueryScheduler, and tag calls with
+   a view from Javacyc.forCaller.
+
+   See README file for license details
+*/
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+public class QueryScheduler
+{
+    /** Priority class of short queries issued on behalf of a user. */
+    public static final int INTERACTIVE = 0;
+
+    /** Priority class of bulk queries that can tolerate waiting. */
+    public static final int BATCH = 1;
+
+    /**
+       Constructor for QueryScheduler.
+       @param slots the number of calls allowed in flight
+       @param batchSlots the number of those slots batch calls may hold;
+       less than slots leaves room for interactive calls
+    */
+    public QueryScheduler(int slots, int batchSlots)
+    {
+	if (slots < 1 || batchSlots < 1 || batchSlots > slots)
+	{
+	    throw new IllegalArgumentException("bad slot counts");
+	}
+	this.slots = slots;
+	this.batchSlots = batchSlots;
+	lock = new ReentrantLock();
+	queues = new ClassQueue[] { new ClassQueue(), new ClassQueue() };
+    }
+
+    /**
+       Waits for a slot.  Every acquire must be followed by exactly one
+       release with the same priority.
+       @param priority INTERACTIVE or BATCH
+       @param caller an identifier of the caller, used for fair queuing
+       @throws ServerOverloadedException if interrupted while waiting
+    */
+    public void acquire(int priority, String caller)
+    {
+	lock.lock();
+	try
+	{
+	    if (canRun(priority) && !waitingAtOrAbove(priority))
+	    {
+		take(priority);
+		return;
+	    }
+	    Waiter waiter = new Waiter(lock.newCondition());
+	    queues[priority].add(caller, waiter);
+	    try
+	    {
+		while (!waiter.granted)
+		{
+		    waiter.ready.await();
+		}
+	    }
+	    catch (InterruptedException e)
+	    {
+		if (waiter.granted)
+		{
+		    untake(priority);
+		    dispatch();
+		}
+		else
+		{
+		    queues[priority].remove(caller, waiter);
+		}
+		Thread.currentThread().interrupt();
+		throw new ServerOverloadedException(
+		    "interrupted waiting for a query slot");
+	    }
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    /**
+       Gives back a slot and hands it to the next waiting call.
+       @param priority the priority the slot was acquired with
+    */
+    public void release(int priority)
+    {
+	lock.lock();
+	try
+	{
+	    untake(priority);
+	    dispatch();
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    /**
+       Returns the number of calls waiting in a priority class.
+       @param priority INTERACTIVE or BATCH
+       @return the number of waiting calls
+    */
+    public int getWaiting(int priority)
+    {
+	lock.lock();
+	try
+	{
+	    return queues[priority].size;
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    // The methods below are called with the lock held
+
+    private boolean canRun(int priority)
+    {
+	return inUse < slots
+	    && (priority == INTERACTIVE || batchInUse < batchSlots);
+    }
+
+    private boolean waitingAtOrAbove(int priority)
+    {
+	for (int p = INTERACTIVE; p <= priority; p++)
+	{
+	    if (queues[p].size > 0)
+	    {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private void take(int priority)
+    {
+	inUse++;
+	if (priority == BATCH)
+	{
+	    batchInUse++;
+	}
+    }
+
+    private void untake(int priority)
+    {
+	inUse--;
+	if (priority == BATCH)
+	{
+	    batchInUse--;
+	}
+    }
+
+    /**
+       Grants free slots to waiting calls, interactive calls first.
+    */
+    private void dispatch()
+    {
+	for (int p = INTERACTIVE; p <= BATCH; p++)
+	{
+	    while (queues[p].size > 0 && canRun(p))
+	    {
+		Waiter waiter = queues[p].next();
+		take(p);
+		waiter.granted = true;
+		waiter.ready.signal();
+	    }
+	}
+    }
+
+    /**
+       A call waiting for a slot.
+    */
+    private static class Waiter
+    {
+	Waiter(Condition ready)
+	{
+	    this.ready = ready;
+	}
+
+	final Condition ready; // signalled when granted
+	boolean granted; // set when a slot is handed over
+    }
+
+    /**
+       The waiting calls of one priority class, queued per caller and
+       served round robin across callers.
+    */
+    private static class ClassQueue
+    {
+	void add(String caller, Waiter waiter)
+	{
+	    LinkedList waiters = (LinkedList)byCaller.get(caller);
+	    if (waiters == null)
+	    {
+		waiters = new LinkedList();
+		byCaller.put(caller, waiters);
+		turns.addLast(caller);
+	    }
+	    waiters.addLast(waiter);
+	    size++;
+	}
+
+	void remove(String caller, Waiter waiter)
+	{
+	    LinkedList waiters = (LinkedList)byCaller.get(caller);
+	    if (waiters != null && waiters.remove(waiter))
+	    {
+		size--;
+		if (waiters.isEmpty())
+		{
+		    byCaller.remove(caller);
+		    turns.remove(caller);
+		}
+	    }
+	}
+
+	Waiter next()
+	{
+	    String caller = (String)turns.removeFirst();
+	    LinkedList waiters = (LinkedList)byCaller.get(caller);
+	    Waiter waiter = (Waiter)waiters.removeFirst();
+	    size--;
+	    if (waiters.isEmpty())
+	    {
+		byCaller.remove(caller);
+	    }
+	    else
+	    {
+		turns.addLast(caller);
+	    }
+	    return waiter;
+	}
+
+	HashMap byCaller = new HashMap(); // caller to LinkedList of Waiters
+	LinkedList turns = new LinkedList(); // callers with waiters, in turn
+	int size = 0; // total waiters
+    }
+
+    private final int slots; // calls allowed in flight
+    private final int batchSlots; // of which batch calls may hold
+    private final ReentrantLock lock; // guards the fields below
+    private final ClassQueue[] queues; // waiting calls by priority
+    private int inUse; // slots held
+    private int batchInUse; // slots held by batch calls
+}
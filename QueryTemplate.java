@@ -0,0 +1,285 @@
+/**
+   QueryTemplate is a query, or part of one, whose constant text is
+   encoded to bytes once.  The places where arguments go are marked with
+   {} in the pattern; a call is made by appending the constant parts and
+   the arguments, in turn, to a Buffer that is reused by each thread, and
+   the buffer is sent in one write.  No strings are built per call.
+
+   Arguments are written as they are, so that frame names are read by the
+   Lisp reader exactly as they were when queries were built by string
+   concatenation: unquoted, and upcased by the reader.  An argument that
+   would not be read as a single symbol, because it contains whitespace
+   or one of the characters the reader treats specially, is written
+   between vertical bars instead.  Arguments that are already quoted with
+   bars, and lists, strings and #-syntax, are left alone.
+
+   See README file for license details
+*/
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class QueryTemplate
+{
+    /**
+       Creates a template.
+       @param pattern the query text, with {} where each argument goes
+    */
+    QueryTemplate(String pattern)
+    {
+	this.pattern = pattern;
+	int holes = 0;
+	for (int i = pattern.indexOf(HOLE); i >= 0;
+	     i = pattern.indexOf(HOLE, i + HOLE.length()))
+	{
+	    holes++;
+	}
+	parts = new byte[holes + 1][];
+	int start = 0;
+	for (int i = 0; i < holes; i++)
+	{
+	    int end = pattern.indexOf(HOLE, start);
+	    parts[i] = pattern.substring(start, end)
+		.getBytes(StandardCharsets.UTF_8);
+	    start = end + HOLE.length();
+	}
+	parts[holes] = pattern.substring(start)
+	    .getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+       Gets the number of arguments the template takes.
+       @return the number of {} in the pattern
+    */
+    int arguments()
+    {
+	return parts.length - 1;
+    }
+
+    /**
+       Appends the template, with its arguments filled in.
+       @param out the buffer to append to
+       @param args the arguments, one for each {} in the pattern
+    */
+    void appendTo(Buffer out, String[] args)
+    {
+	if (args.length != arguments())
+	{
+	    throw new IllegalArgumentException(pattern + " takes "
+					       + arguments() + " arguments");
+	}
+	for (int i = 0; i < args.length; i++)
+	{
+	    out.append(parts[i]);
+	    out.appendArgument(args[i]);
+	}
+	out.append(parts[args.length]);
+    }
+
+    /**
+       Appends one of the constant parts of the template, for templates
+       whose holes are not all filled with plain arguments.
+       @param out the buffer to append to
+       @param i the index of the part: the text before the i-th {}, or
+       after the last one
+    */
+    void appendPart(Buffer out, int i)
+    {
+	out.append(parts[i]);
+    }
+
+    /**
+       Gets the pattern the template was created from.
+       @return the pattern
+    */
+    public String toString()
+    {
+	return pattern;
+    }
+
+    /**
+       Quotes an argument as appendArgument writes it into a query, for
+       expressions built as strings, such as the frame lists of bulk
+       queries.
+       @param arg the argument
+       @return arg, between vertical bars if the reader would not
+       otherwise read it as one symbol
+    */
+    static String quote(String arg)
+    {
+	return Buffer.needsBars(arg) ? Buffer.barQuoted(arg) : arg;
+    }
+
+    /**
+       Buffer collects the bytes of one query.  Each thread has its own,
+       which is emptied by get() and grows as needed, so it is allocated
+       once per thread.  The contents must be sent, or copied, before the
+       thread calls get() again.
+    */
+    static final class Buffer
+    {
+	/**
+	   Gets the buffer of the current thread, emptied.
+	   @return the buffer
+	*/
+	static Buffer get()
+	{
+	    Buffer buffer = (Buffer) LOCAL.get();
+	    buffer.length = 0;
+	    return buffer;
+	}
+
+	/**
+	   Appends bytes.
+	   @param part the bytes to append
+	*/
+	void append(byte[] part)
+	{
+	    ensure(part.length);
+	    System.arraycopy(part, 0, bytes, length, part.length);
+	    length += part.length;
+	}
+
+	/**
+	   Appends text as it is, encoded in UTF-8.
+	   @param text the text to append
+	*/
+	void appendText(String text)
+	{
+	    ensure(text.length());
+	    for (int i = 0; i < text.length(); i++)
+	    {
+		char c = text.charAt(i);
+		if (c >= 0x80)
+		{
+		    // Not ASCII: encode the rest the slow way
+		    append(text.substring(i).getBytes(StandardCharsets.UTF_8));
+		    return;
+		}
+		bytes[length++] = (byte) c;
+	    }
+	}
+
+	/**
+	   Appends an argument, between vertical bars if the reader would
+	   not otherwise read it as one symbol.
+	   @param arg the argument
+	*/
+	void appendArgument(String arg)
+	{
+	    appendText(needsBars(arg) ? barQuoted(arg) : arg);
+	}
+
+	/**
+	   Appends the newline that ends a query.
+	*/
+	void end()
+	{
+	    ensure(1);
+	    bytes[length++] = '\n';
+	}
+
+	/**
+	   Gets the contents as a buffer ready to be written to a channel.
+	   @return a buffer over the contents, which is only valid until
+	   the contents change
+	*/
+	ByteBuffer wrap()
+	{
+	    return ByteBuffer.wrap(bytes, 0, length);
+	}
+
+	/**
+	   Gets the number of bytes in the buffer.
+	   @return the length
+	*/
+	int length()
+	{
+	    return length;
+	}
+
+	/**
+	   Gets the contents as a string, for use as a cache key.
+	   @return the query text
+	*/
+	public String toString()
+	{
+	    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	// Makes room for n more bytes
+	private void ensure(int n)
+	{
+	    if (length + n > bytes.length)
+	    {
+		byte[] grown = new byte[Math.max(bytes.length * 2, length + n)];
+		System.arraycopy(bytes, 0, grown, 0, length);
+		bytes = grown;
+	    }
+	}
+
+	// Writes an argument between bars, escaping bars and backslashes
+	private static String barQuoted(String arg)
+	{
+	    StringBuffer quoted = new StringBuffer(arg.length() + 2);
+	    quoted.append('|');
+	    for (int i = 0; i < arg.length(); i++)
+	    {
+		char c = arg.charAt(i);
+		if (c == '|' || c == '\\')
+		{
+		    quoted.append('\\');
+		}
+		quoted.append(c);
+	    }
+	    return quoted.append('|').toString();
+	}
+
+	// Tells whether an argument must be written between bars
+	private static boolean needsBars(String arg)
+	{
+	    if (arg.length() == 0)
+	    {
+		return true;
+	    }
+	    char first = arg.charAt(0);
+	    if (first == '(' || first == '"' || first == '#')
+	    {
+		return false; // a list, string or #-syntax, not a name
+	    }
+	    if (arg.length() > 1 && first == '|'
+		&& arg.charAt(arg.length() - 1) == '|')
+	    {
+		return false; // already quoted
+	    }
+	    for (int i = 0; i < arg.length(); i++)
+	    {
+		char c = arg.charAt(i);
+		if (Character.isWhitespace(c) || SPECIAL.indexOf(c) >= 0)
+		{
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	private byte[] bytes = new byte[1024]; // the query so far
+	private int length; // number of bytes used
+
+	// Characters that end a symbol or change how it is read
+	private static final String SPECIAL = "()'\";`,|\\";
+
+	private static final ThreadLocal LOCAL = new ThreadLocal() {
+		protected Object initialValue()
+		{
+		    return new Buffer();
+		}
+	    };
+    }
+
+    private final String pattern; // the query text with {} holes
+    private final byte[][] parts; // the text around the holes, encoded
+
+    // Marks where an argument goes in a pattern
+    private static final String HOLE = "{}";
+}
@@ -0,0 +1,334 @@
+/**
+   RegulatoryNetwork is a local copy of the transcriptional regulatory
+   network of one organism.  It is loaded with two batched queries instead
+   of one query per transcription factor and transcription unit, and
+   answers the same questions as the corresponding Javacyc methods without
+   contacting Pathway Tools.
+
+   The network is stored as compressed sparse row graphs over dense frame
+   ids: transcription factor to transcription unit, and transcription unit
+   to gene, binding site, terminator and regulator.  Reverse edges from
+   genes are built once after loading.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class RegulatoryNetwork
+{
+    /**
+       Loads the regulatory network of the organism currently selected in
+       cyc.
+       @param cyc a Javacyc connected to the organism to load
+       @return the loaded network
+    */
+    public static RegulatoryNetwork load(Javacyc cyc)
+    {
+	RegulatoryNetwork network = new RegulatoryNetwork();
+	network.loadFactors(cyc.callFuncList(FACTOR_QUERY));
+	network.loadUnits(cyc.callFuncList(UNIT_QUERY));
+	network.pack();
+	return network;
+    }
+
+    /**
+       Private constructor; use load.
+    */
+    private RegulatoryNetwork()
+    {
+	proteins = new FrameTable();
+	units = new FrameTable();
+	genes = new FrameTable();
+	sites = new FrameTable();
+	terminators = new FrameTable();
+	factorUnitEdges = new AdjacencyIndex.Builder();
+	factorRegulonEdges = new AdjacencyIndex.Builder();
+	unitGeneEdges = new AdjacencyIndex.Builder();
+	unitSiteEdges = new AdjacencyIndex.Builder();
+	unitTerminatorEdges = new AdjacencyIndex.Builder();
+	unitRegulatorEdges = new AdjacencyIndex.Builder();
+	promoterList = new ArrayList();
+    }
+
+    /**
+       Records the rows returned by FACTOR_QUERY.  Each row is
+       (factor regulon transcription-units).
+    */
+    private void loadFactors(ArrayList rows)
+    {
+	for (int i = 0; i < rows.size(); i++)
+	{
+	    ArrayList row = (ArrayList)rows.get(i);
+	    int factor = proteins.intern((String)row.get(0));
+	    factorCount = Math.max(factorCount, factor + 1);
+	    ArrayList regulon = Javacyc.asList(row.get(1));
+	    for (int j = 0; j < regulon.size(); j++)
+	    {
+		factorRegulonEdges.add(factor,
+				       units.intern((String)regulon.get(j)));
+	    }
+	    ArrayList tus = Javacyc.asList(row.get(2));
+	    for (int j = 0; j < tus.size(); j++)
+	    {
+		factorUnitEdges.add(factor, units.intern((String)tus.get(j)));
+	    }
+	}
+    }
+
+    /**
+       Records the rows returned by UNIT_QUERY.  Each row is
+       (unit genes promoter binding-sites terminators regulators).
+    */
+    private void loadUnits(ArrayList rows)
+    {
+	for (int i = 0; i < rows.size(); i++)
+	{
+	    ArrayList row = (ArrayList)rows.get(i);
+	    int unit = units.intern((String)row.get(0));
+	    ArrayList unitGenes = Javacyc.asList(row.get(1));
+	    for (int j = 0; j < unitGenes.size(); j++)
+	    {
+		unitGeneEdges.add(unit,
+				  genes.intern((String)unitGenes.get(j)));
+	    }
+	    while (promoterList.size() <= unit)
+	    {
+		promoterList.add(null);
+	    }
+	    promoterList.set(unit, Javacyc.asName(row.get(2)));
+	    ArrayList unitSites = Javacyc.asList(row.get(3));
+	    for (int j = 0; j < unitSites.size(); j++)
+	    {
+		unitSiteEdges.add(unit,
+				  sites.intern((String)unitSites.get(j)));
+	    }
+	    ArrayList unitTerminators = Javacyc.asList(row.get(4));
+	    for (int j = 0; j < unitTerminators.size(); j++)
+	    {
+		unitTerminatorEdges.add(unit, terminators.intern(
+		    (String)unitTerminators.get(j)));
+	    }
+	    ArrayList regulators = Javacyc.asList(row.get(5));
+	    for (int j = 0; j < regulators.size(); j++)
+	    {
+		unitRegulatorEdges.add(unit, proteins.intern(
+		    (String)regulators.get(j)));
+	    }
+	}
+    }
+
+    /**
+       Packs the collected edges into CSR graphs and drops the builders.
+    */
+    private void pack()
+    {
+	int unitCount = units.size();
+	factorUnits = factorUnitEdges.build(proteins.size());
+	factorRegulon = factorRegulonEdges.build(proteins.size());
+	unitGenes = unitGeneEdges.build(unitCount);
+	unitSites = unitSiteEdges.build(unitCount);
+	unitTerminators = unitTerminatorEdges.build(unitCount);
+	unitRegulators = unitRegulatorEdges.build(unitCount);
+	geneUnits = unitGenes.reverse(genes.size());
+	promoters = new String[unitCount];
+	for (int i = 0; i < promoterList.size(); i++)
+	{
+	    promoters[i] = (String)promoterList.get(i);
+	}
+	factorUnitEdges = null;
+	factorRegulonEdges = null;
+	unitGeneEdges = null;
+	unitSiteEdges = null;
+	unitTerminatorEdges = null;
+	unitRegulatorEdges = null;
+	promoterList = null;
+    }
+
+    // Lookups mirroring the Javacyc methods
+
+    /**
+       Local equivalent of Javacyc.allTranscriptionFactors.
+       @return an ArrayList of all transcription factors
+    */
+    public ArrayList allTranscriptionFactors()
+    {
+	ArrayList list = new ArrayList(factorCount);
+	for (int i = 0; i < factorCount; i++)
+	{
+	    list.add(proteins.nameOf(i));
+	}
+	return list;
+    }
+
+    /**
+       Local equivalent of Javacyc.isTranscriptionFactor.
+       @param protein a protein frame
+       @return true if protein is a transcription factor
+    */
+    public boolean isTranscriptionFactor(String protein)
+    {
+	int id = proteins.indexOf(protein);
+	return id >= 0 && id < factorCount;
+    }
+
+    /**
+       Local equivalent of Javacyc.regulonOfProtein.
+       @param protein a transcription factor
+       @return an ArrayList of transcription units regulated by any
+       modified or unmodified form of protein
+    */
+    public ArrayList regulonOfProtein(String protein)
+    {
+	return units.namesOf(factorRegulon.targets(proteins.indexOf(protein)));
+    }
+
+    /**
+       Local equivalent of Javacyc.transcriptionUnitsOfProtein.
+       @param protein a transcription factor
+       @return an ArrayList of transcription units regulated by protein
+    */
+    public ArrayList transcriptionUnitsOfProtein(String protein)
+    {
+	return units.namesOf(factorUnits.targets(proteins.indexOf(protein)));
+    }
+
+    /**
+       Local equivalent of Javacyc.regulatorProteinsOfTranscriptionUnit.
+       @param tu a transcription unit
+       @return an ArrayList of the proteins that regulate tu
+    */
+    public ArrayList regulatorProteinsOfTranscriptionUnit(String tu)
+    {
+	return proteins.namesOf(unitRegulators.targets(units.indexOf(tu)));
+    }
+
+    /**
+       Local equivalent of Javacyc.transcriptionUnitGenes.
+       @param tu a transcription unit
+       @return an ArrayList of the genes in tu
+    */
+    public ArrayList transcriptionUnitGenes(String tu)
+    {
+	return genes.namesOf(unitGenes.targets(units.indexOf(tu)));
+    }
+
+    /**
+       Local equivalent of Javacyc.transcriptionUnitPromoter.
+       @param tu a transcription unit
+       @return the promoter of tu, or null if it has none
+    */
+    public String transcriptionUnitPromoter(String tu)
+    {
+	int id = units.indexOf(tu);
+	return (id < 0) ? null : promoters[id];
+    }
+
+    /**
+       Local equivalent of Javacyc.transcriptionUnitBindingSites.
+       @param tu a transcription unit
+       @return an ArrayList of the binding sites of tu
+    */
+    public ArrayList transcriptionUnitBindingSites(String tu)
+    {
+	return sites.namesOf(unitSites.targets(units.indexOf(tu)));
+    }
+
+    /**
+       Local equivalent of Javacyc.transcriptionUnitTerminators.
+       @param tu a transcription unit
+       @return an ArrayList of the terminators of tu
+    */
+    public ArrayList transcriptionUnitTerminators(String tu)
+    {
+	return terminators.namesOf(
+	    unitTerminators.targets(units.indexOf(tu)));
+    }
+
+    /**
+       Local equivalent of Javacyc.transcriptionUnitsOfGene, restricted to
+       the transcription units reached from a transcription factor or in
+       a regulon.
+       @param gene a gene
+       @return an ArrayList of the regulated transcription units of gene
+    */
+    public ArrayList transcriptionUnitsOfGene(String gene)
+    {
+	return units.namesOf(geneUnits.targets(genes.indexOf(gene)));
+    }
+
+    /**
+       Returns the transcription factors that regulate a gene through any
+       of its transcription units.
+       @param gene a gene
+       @return an ArrayList of transcription factors, without duplicates
+    */
+    public ArrayList transcriptionFactorsOfGene(String gene)
+    {
+	BitSet seen = new BitSet(proteins.size());
+	ArrayList list = new ArrayList();
+	int g = genes.indexOf(gene);
+	for (int i = 0; i < geneUnits.degree(g); i++)
+	{
+	    int unit = geneUnits.target(g, i);
+	    for (int j = 0; j < unitRegulators.degree(unit); j++)
+	    {
+		int protein = unitRegulators.target(unit, j);
+		if (!seen.get(protein))
+		{
+		    seen.set(protein);
+		    list.add(proteins.nameOf(protein));
+		}
+	    }
+	}
+	return list;
+    }
+
+    // One row per transcription factor: (factor regulon units)
+    private static final String FACTOR_QUERY =
+	"(mapcar #'(lambda (tf) (list (object-name tf)"
+	+ " (mapcar #'object-name (regulon-of-protein tf))"
+	+ " (mapcar #'object-name (transcription-units-of-protein tf))))"
+	+ " (all-transcription-factors))";
+
+    // One row per transcription unit in a regulon or regulated by a
+    // factor: (unit genes promoter binding-sites terminators regulators)
+    private static final String UNIT_QUERY =
+	"(mapcar #'(lambda (tu) (list (object-name tu)"
+	+ " (mapcar #'object-name (transcription-unit-genes tu))"
+	+ " (let ((p (transcription-unit-promoter tu)))"
+	+ " (and p (object-name p)))"
+	+ " (mapcar #'object-name (transcription-unit-binding-sites tu))"
+	+ " (mapcar #'object-name (transcription-unit-terminators tu))"
+	+ " (mapcar #'object-name"
+	+ " (regulator-proteins-of-transcription-unit tu))))"
+	+ " (remove-duplicates (mapcan #'(lambda (tf)"
+	+ " (append (transcription-units-of-protein tf)"
+	+ " (regulon-of-protein tf) nil))"
+	+ " (all-transcription-factors))))";
+
+    private FrameTable proteins; // transcription factors first, then others
+    private int factorCount; // proteins with ids below this are factors
+    private FrameTable units; // transcription units
+    private FrameTable genes; // genes in transcription units
+    private FrameTable sites; // binding sites
+    private FrameTable terminators; // terminators
+    private String[] promoters; // promoter of each unit, indexed by unit id
+
+    private AdjacencyIndex factorUnits; // factor to transcription units
+    private AdjacencyIndex factorRegulon; // factor to regulon units
+    private AdjacencyIndex unitGenes; // unit to genes
+    private AdjacencyIndex unitSites; // unit to binding sites
+    private AdjacencyIndex unitTerminators; // unit to terminators
+    private AdjacencyIndex unitRegulators; // unit to regulator proteins
+    private AdjacencyIndex geneUnits; // gene to units, reverse of unitGenes
+
+    // Edge builders, only used while loading
+    private AdjacencyIndex.Builder factorUnitEdges;
+    private AdjacencyIndex.Builder factorRegulonEdges;
+    private AdjacencyIndex.Builder unitGeneEdges;
+    private AdjacencyIndex.Builder unitSiteEdges;
+    private AdjacencyIndex.Builder unitTerminatorEdges;
+    private AdjacencyIndex.Builder unitRegulatorEdges;
+    private ArrayList promoterList;
+}
@@ -0,0 +1,156 @@
+/**
+   ReplayServer answers queries from a traffic log written by
+   TrafficRecorder, so that client changes can be benchmarked offline
+   against the responses and timings of a real Pathway Tools session.
+
+   A query gets the response that was recorded for the same query text,
+   after the latency that was recorded for it divided by the speed: 1
+   replays the original timings, 10 answers ten times faster, and
+   Double.POSITIVE_INFINITY answers at once.  A query recorded several
+   times gets its recorded responses in turn, starting over after the
+   last.  Queries that are not in the log are counted as misses, and
+   their connections closed without a response, as Pathway Tools does
+   when a query fails, so a client that changed its queries fails
+   instead of silently getting empty results.
+
+   Usage: java ReplayServer log [socket [speed]]
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.util.*;
+
+public class ReplayServer extends StandInServer
+{
+    /**
+       Constructor for ReplayServer.
+       @param socketName the path of the Unix domain socket to listen on
+       @param log a traffic log written by TrafficRecorder
+       @throws IOException if the log cannot be read
+    */
+    public ReplayServer(String socketName, File log) throws IOException
+    {
+	this(socketName, TrafficRecorder.read(log));
+    }
+
+    /**
+       Constructor for ReplayServer.
+       @param socketName the path of the Unix domain socket to listen on
+       @param exchanges the TrafficRecorder.Exchanges to serve
+    */
+    public ReplayServer(String socketName, List exchanges)
+    {
+	super(socketName);
+	recorded = new HashMap();
+	for (int i = 0; i < exchanges.size(); i++)
+	{
+	    TrafficRecorder.Exchange exchange =
+		(TrafficRecorder.Exchange)exchanges.get(i);
+	    Replies replies = (Replies)recorded.get(exchange.query);
+	    if (replies == null)
+	    {
+		replies = new Replies();
+		recorded.put(exchange.query, replies);
+	    }
+	    replies.exchanges.add(exchange);
+	}
+	speed = 1;
+    }
+
+    /**
+       Sets how much faster than recorded the server answers.
+       @param speed the factor the recorded latencies are divided by
+    */
+    public void setSpeed(double speed)
+    {
+	if (!(speed > 0))
+	{
+	    throw new IllegalArgumentException("bad speed: " + speed);
+	}
+	this.speed = speed;
+    }
+
+    /**
+       Returns the number of queries that were not in the log.
+       @return the number of misses
+    */
+    public synchronized long getMissCount()
+    {
+	return misses;
+    }
+
+    /**
+       Answers a query with its next recorded response, after its
+       recorded latency scaled by the speed, or with nothing if it was
+       not recorded.
+       @param query the query, without the newline
+       @return the bytes to send back
+    */
+    protected byte[] respond(String query)
+    {
+	TrafficRecorder.Exchange exchange;
+	synchronized (this)
+	{
+	    Replies replies = (Replies)recorded.get(query);
+	    if (replies == null)
+	    {
+		misses++;
+		return new byte[0];
+	    }
+	    exchange = (TrafficRecorder.Exchange)
+		replies.exchanges.get(replies.next);
+	    replies.next = (replies.next + 1) % replies.exchanges.size();
+	}
+	long nanos = (long)(exchange.latency * 1000 / speed);
+	if (nanos > 0)
+	{
+	    try
+	    {
+		Thread.sleep(nanos / 1000000, (int)(nanos % 1000000));
+	    }
+	    catch (InterruptedException e)
+	    {
+		Thread.currentThread().interrupt();
+	    }
+	}
+	return exchange.response;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+	if (args.length < 1)
+	{
+	    System.err.println("Usage: java ReplayServer log [socket [speed]]");
+	    System.exit(2);
+	}
+	String socketName = (args.length > 1) ? args[1] : "/tmp/ptools-socket";
+	ReplayServer server = new ReplayServer(socketName, new File(args[0]));
+	if (args.length > 2)
+	{
+	    server.setSpeed(Double.parseDouble(args[2]));
+	}
+	server.start();
+	System.out.println("Replaying " + server.recorded.size()
+			   + " distinct queries on " + socketName);
+	while (true)
+	{
+	    Thread.sleep(60000);
+	    System.out.println("Queries answered: " + server.getRequestCount()
+			       + ", misses: " + server.getMissCount());
+	}
+    }
+
+    /**
+       The recorded responses to one query, and which one is next.
+    */
+    private static class Replies
+    {
+	final ArrayList exchanges = new ArrayList();
+	int next;
+    }
+
+    private final HashMap recorded; // query text to its Replies
+    private volatile double speed; // recorded latencies are divided by it
+    private long misses; // queries not in the log
+}
@@ -0,0 +1,76 @@
+/**
+   RetryPolicy decides how Javacyc retries a connection to Pathway Tools
+   that could not be opened, for example while the server is restarting.
+
+   Retries back off exponentially from an initial delay up to a maximum
+   delay, with "full jitter": each wait is a random time between zero and
+   the current backoff, so clients that failed together do not reconnect
+   together.  Only connecting is retried.  Once a query has been sent it
+   is never resent, since it may have changed the KB.
+
+   See README file for license details
+*/
+
+import java.util.*;
+
+public class RetryPolicy
+{
+    /**
+       Constructor for RetryPolicy.
+       @param maxAttempts the number of connection attempts, including the
+       first one
+       @param initialDelayMillis the backoff before the first retry
+       @param maxDelayMillis the largest backoff between retries
+    */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis,
+		       long maxDelayMillis)
+    {
+	if (maxAttempts < 1)
+	{
+	    throw new IllegalArgumentException("maxAttempts must be >= 1");
+	}
+	this.maxAttempts = maxAttempts;
+	this.initialDelayMillis = initialDelayMillis;
+	this.maxDelayMillis = maxDelayMillis;
+	random = new Random();
+    }
+
+    /**
+       Returns the number of connection attempts, including the first.
+       @return the number of attempts
+    */
+    public int getMaxAttempts()
+    {
+	return maxAttempts;
+    }
+
+    /**
+       Returns how long to wait before a retry.
+       @param retry the number of the retry, starting at 1
+       @return the wait in milliseconds
+    */
+    public long delayBefore(int retry)
+    {
+	long backoff = initialDelayMillis;
+	for (int i = 1; i < retry && backoff < maxDelayMillis; i++)
+	{
+	    backoff *= 2;
+	}
+	backoff = Math.min(backoff, maxDelayMillis);
+	synchronized (random)
+	{
+	    return (long)(random.nextDouble() * (backoff + 1));
+	}
+    }
+
+    /**
+       The policy that makes a single attempt, which was the only behavior
+       of earlier versions of Javacyc.
+    */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    private final int maxAttempts; // attempts including the first
+    private final long initialDelayMillis; // backoff before the first retry
+    private final long maxDelayMillis; // cap on the backoff
+    private final Random random; // source of jitter
+}
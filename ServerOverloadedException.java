@@ -0,0 +1,21 @@
+/**
+   Thrown when a call to Pathway Tools is rejected on the client side
+   because the server already has as much work as it can handle.  The call
+   was never sent, so it is safe to retry later.
+
+   See README file for license details
+*/
+
+public class ServerOverloadedException extends RuntimeException
+{
+    /**
+       Constructor for ServerOverloadedException.
+       @param message a description of why the call was shed
+    */
+    public ServerOverloadedException(String message)
+    {
+	super(message);
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,32 @@
+/**
+   Thrown when Javacyc cannot connect to the Pathway Tools server, either
+   because every connection attempt failed or because a CircuitBreaker has
+   found the server to be down.  No query was sent, so it is safe to retry
+   later.
+
+   See README file for license details
+*/
+
+public class ServerUnavailableException extends RuntimeException
+{
+    /**
+       Constructor for ServerUnavailableException.
+       @param message a description of the failure
+    */
+    public ServerUnavailableException(String message)
+    {
+	super(message);
+    }
+
+    /**
+       Constructor for ServerUnavailableException.
+       @param message a description of the failure
+       @param cause the last connection error
+    */
+    public ServerUnavailableException(String message, Throwable cause)
+    {
+	super(message, cause);
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,319 @@
+/**
+   StandInServer imitates the Pathway Tools socket server closely enough
+   to exercise Javacyc without Pathway Tools: it listens on a Unix domain
+   socket, reads one query line per connection, writes a canned response
+   and closes the connection.
+
+   Queries that ask for an object name get a quoted string back; every
+   other query gets a flat list of frame names.  The server can add a
+   fixed service time to every query, and can be made serial to mimic the
+   single-threaded Lisp server.  Subclasses may override respond to serve
+   other responses.
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+public class StandInServer
+{
+    /**
+       Constructor for StandInServer.  Any existing file at socketName is
+       deleted when the server starts.
+       @param socketName the path of the Unix domain socket to listen on
+    */
+    public StandInServer(String socketName)
+    {
+	this.socketName = socketName;
+	listSize = 100;
+	serviceTime = 0;
+	serialLock = null;
+	requests = new AtomicLong();
+    }
+
+    /**
+       Sets the number of frames in list responses.
+       @param listSize the number of frames
+    */
+    public void setListSize(int listSize)
+    {
+	this.listSize = listSize;
+    }
+
+    /**
+       Sets the time the server spends on each query before answering.
+       @param millis the service time in milliseconds
+    */
+    public void setServiceTime(long millis)
+    {
+	this.serviceTime = millis;
+    }
+
+    /**
+       Makes the server answer one query at a time, like Pathway Tools.
+       @param serial true to serialize queries
+    */
+    public void setSerial(boolean serial)
+    {
+	serialLock = serial ? new ReentrantLock(true) : null;
+    }
+
+    /**
+       Starts accepting connections in the background.
+       @throws IOException if the socket cannot be bound
+    */
+    public void start() throws IOException
+    {
+	new File(socketName).delete();
+	server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+	server.bind(UnixDomainSocketAddress.of(socketName), BACKLOG);
+	handlers = perTaskExecutor(256);
+	Thread acceptor = new Thread(new Runnable() {
+		public void run()
+		{
+		    acceptLoop();
+		}
+	    }, "stand-in-acceptor");
+	acceptor.setDaemon(true);
+	acceptor.start();
+    }
+
+    /**
+       Stops the server and deletes its socket file.
+    */
+    public void close()
+    {
+	try
+	{
+	    server.close();
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	}
+	handlers.shutdownNow();
+	new File(socketName).delete();
+    }
+
+    /**
+       Returns the number of queries answered so far.
+       @return the number of queries
+    */
+    public long getRequestCount()
+    {
+	return requests.get();
+    }
+
+    /**
+       Accepts connections until the server is closed.
+    */
+    private void acceptLoop()
+    {
+	while (server.isOpen())
+	{
+	    try
+	    {
+		final SocketChannel client = server.accept();
+		handlers.execute(new Runnable() {
+			public void run()
+			{
+			    serve(client);
+			}
+		    });
+	    }
+	    catch (RejectedExecutionException e)
+	    {
+		return;
+	    }
+	    catch (IOException e)
+	    {
+		return; // closed
+	    }
+	}
+    }
+
+    /**
+       Answers the one query sent on a connection.
+    */
+    private void serve(SocketChannel client)
+    {
+	try
+	{
+	    String query = readLine(client);
+	    Lock lock = serialLock;
+	    if (lock != null)
+	    {
+		lock.lock();
+	    }
+	    byte[] response;
+	    try
+	    {
+		if (serviceTime > 0)
+		{
+		    Thread.sleep(serviceTime);
+		}
+		response = respond(query);
+	    }
+	    finally
+	    {
+		if (lock != null)
+		{
+		    lock.unlock();
+		}
+	    }
+	    requests.incrementAndGet();
+	    ByteBuffer buffer = ByteBuffer.wrap(response);
+	    while (buffer.hasRemaining())
+	    {
+		client.write(buffer);
+	    }
+	}
+	catch (IOException e)
+	{
+	    // client went away; nothing to answer
+	}
+	catch (InterruptedException e)
+	{
+	    // server is shutting down
+	}
+	finally
+	{
+	    try
+	    {
+		client.close();
+	    }
+	    catch (IOException e)
+	    {
+	    }
+	}
+    }
+
+    /**
+       Reads one newline-terminated query from a client.
+       @param client the client connection
+       @return the query, without the newline
+       @throws IOException if the client closes before sending a newline
+    */
+    static String readLine(SocketChannel client) throws IOException
+    {
+	return readLine(client, Integer.MAX_VALUE);
+    }
+
+    /**
+       Reads one newline-terminated query from a client, decoded as UTF-8
+       as Javacyc encodes it.
+       @param client the client connection
+       @param maxLength the most bytes accepted before the newline
+       @return the query, without the newline
+       @throws IOException if the client closes before sending a newline,
+       or sends a longer line
+    */
+    static String readLine(SocketChannel client, int maxLength)
+	throws IOException
+    {
+	ByteArrayOutputStream line = new ByteArrayOutputStream();
+	ByteBuffer buffer = ByteBuffer.allocate(4096);
+	while (true)
+	{
+	    buffer.clear();
+	    if (client.read(buffer) < 0)
+	    {
+		throw new EOFException("query not terminated");
+	    }
+	    buffer.flip();
+	    while (buffer.hasRemaining())
+	    {
+		byte b = buffer.get();
+		if (b == '\n')
+		{
+		    return line.toString("UTF-8");
+		}
+		if (line.size() >= maxLength)
+		{
+		    throw new IOException("query longer than " + maxLength
+					  + " bytes");
+		}
+		line.write(b);
+	    }
+	}
+    }
+
+    /**
+       Builds the response to a query.  Object name queries get a quoted
+       string; everything else gets a list of listSize frames.
+       @param query the query, without the newline
+       @return the bytes to send back
+    */
+    protected byte[] respond(String query)
+    {
+	if (query.indexOf("(object-name (") >= 0)
+	{
+	    return "\"STAND-IN\"\n".getBytes();
+	}
+	StringBuffer list = new StringBuffer("(");
+	for (int i = 0; i < listSize; i++)
+	{
+	    if (i > 0)
+	    {
+		list.append(' ');
+	    }
+	    list.append("FRAME-").append(i);
+	}
+	list.append(")\n");
+	return list.toString().getBytes();
+    }
+
+    /**
+       Returns an executor that runs each task in a new virtual thread when
+       the JVM supports them, and otherwise in a pool of platform threads.
+       @param platformThreads the pool size used without virtual threads
+       @return the executor
+    */
+    static ExecutorService perTaskExecutor(int platformThreads)
+    {
+	try
+	{
+	    return (ExecutorService)Executors.class
+		.getMethod("newVirtualThreadPerTaskExecutor", new Class[0])
+		.invoke(null, new Object[0]);
+	}
+	catch (Exception e)
+	{
+	    return Executors.newFixedThreadPool(platformThreads);
+	}
+    }
+
+    /**
+       Tests whether perTaskExecutor returns virtual threads.
+       @return true if the JVM supports virtual threads
+    */
+    static boolean hasVirtualThreads()
+    {
+	try
+	{
+	    Executors.class.getMethod("newVirtualThreadPerTaskExecutor",
+				      new Class[0]);
+	    return true;
+	}
+	catch (NoSuchMethodException e)
+	{
+	    return false;
+	}
+    }
+
+    private static final int BACKLOG = 4096; // pending connections
+
+    private String socketName; // path of the listening socket
+    private volatile int listSize; // frames per list response
+    private volatile long serviceTime; // milliseconds spent per query
+    private volatile Lock serialLock; // held while answering, if serial
+    private AtomicLong requests; // queries answered
+    private ServerSocketChannel server; // the listening socket
+    private ExecutorService handlers; // runs one task per connection
+}
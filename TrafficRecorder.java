@@ -0,0 +1,210 @@
+/**
+   TrafficRecorder logs the queries Javacyc sends to Pathway Tools and
+   the raw responses it gets back, with their timings, so that a session
+   against a production server can be replayed offline by ReplayServer.
+
+   The log starts with a magic number and holds one entry per query: the
+   time the query was sent, in microseconds after the previous entry was
+   sent; the time until the whole response had arrived, in microseconds;
+   and the query and response bytes, each preceded by its length.  The
+   numbers are written as variable-length integers, so most entries only
+   add a few bytes to the query and response.  Queries answered from a
+   query cache never reach the server and are not recorded.
+
+   A recorder may be shared by several Javacyc instances; entries are
+   written in the order their responses complete.
+
+   See README file for license details
+*/
+
+import java.io.*;
+import java.util.*;
+
+public class TrafficRecorder
+{
+    /**
+       Creates a recorder writing to a new log file.  An existing file is
+       overwritten.
+       @param file the log file
+       @throws IOException if the file cannot be created
+    */
+    public TrafficRecorder(File file) throws IOException
+    {
+	out = new DataOutputStream(new BufferedOutputStream(
+	    new FileOutputStream(file), 65536));
+	out.writeInt(MAGIC);
+	origin = System.nanoTime();
+    }
+
+    /**
+       Adds an exchange to the log.  Errors are printed and end the
+       recording, so that a full disk does not fail the calls themselves.
+       @param query the query, without the newline
+       @param response the response bytes
+       @param sent System.nanoTime() when the query was sent
+       @param done System.nanoTime() when the response had arrived
+    */
+    synchronized void record(String query, byte[] response, long sent,
+			     long done)
+    {
+	if (out == null)
+	{
+	    return;
+	}
+	try
+	{
+	    // Exchanges may complete out of order, so the offset is signed
+	    long micros = (sent - origin) / 1000;
+	    long offset = micros - previous;
+	    previous = micros;
+	    writeNumber((offset << 1) ^ (offset >> 63));
+	    writeNumber(Math.max(0, (done - sent) / 1000));
+	    byte[] queryBytes = query.getBytes("UTF-8");
+	    writeNumber(queryBytes.length);
+	    out.write(queryBytes);
+	    writeNumber(response.length);
+	    out.write(response);
+	    count++;
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	    close();
+	}
+    }
+
+    /**
+       Returns the number of exchanges recorded so far.
+       @return the number of exchanges
+    */
+    public synchronized long getCount()
+    {
+	return count;
+    }
+
+    /**
+       Flushes and closes the log.  Exchanges recorded afterwards are
+       dropped.
+    */
+    public synchronized void close()
+    {
+	if (out == null)
+	{
+	    return;
+	}
+	try
+	{
+	    out.close();
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	}
+	out = null;
+    }
+
+    /**
+       Reads a log written by a TrafficRecorder.
+       @param file the log file
+       @return the Exchanges of the log, in the order they were recorded
+       @throws IOException if the file cannot be read or is not a log
+    */
+    public static ArrayList read(File file) throws IOException
+    {
+	DataInputStream in = new DataInputStream(new BufferedInputStream(
+	    new FileInputStream(file), 65536));
+	try
+	{
+	    if (in.readInt() != MAGIC)
+	    {
+		throw new IOException(file + " is not a traffic log");
+	    }
+	    ArrayList exchanges = new ArrayList();
+	    long sent = 0;
+	    while (true)
+	    {
+		int first = in.read();
+		if (first < 0)
+		{
+		    return exchanges;
+		}
+		long zigzag = readNumber(in, first);
+		sent += (zigzag >>> 1) ^ -(zigzag & 1);
+		long latency = readNumber(in, in.read());
+		byte[] query = new byte[(int)readNumber(in, in.read())];
+		in.readFully(query);
+		byte[] response = new byte[(int)readNumber(in, in.read())];
+		in.readFully(response);
+		exchanges.add(new Exchange(new String(query, "UTF-8"),
+					   response, sent, latency));
+	    }
+	}
+	finally
+	{
+	    in.close();
+	}
+    }
+
+    /**
+       One query and its response, as read back from a log.
+    */
+    public static class Exchange
+    {
+	Exchange(String query, byte[] response, long sent, long latency)
+	{
+	    this.query = query;
+	    this.response = response;
+	    this.sent = sent;
+	    this.latency = latency;
+	}
+
+	/** The query, without the newline */
+	public final String query;
+	/** The raw response bytes */
+	public final byte[] response;
+	/** When the query was sent, in microseconds into the recording */
+	public final long sent;
+	/** Time until the whole response had arrived, in microseconds */
+	public final long latency;
+    }
+
+    // Writes a non-negative number, seven bits per byte, low bits first
+    private void writeNumber(long n) throws IOException
+    {
+	while ((n & ~0x7FL) != 0)
+	{
+	    out.write((int)(n & 0x7F) | 0x80);
+	    n >>>= 7;
+	}
+	out.write((int)n);
+    }
+
+    // Reads a number written by writeNumber, whose first byte is given
+    private static long readNumber(DataInputStream in, int b)
+	throws IOException
+    {
+	long n = 0;
+	int shift = 0;
+	while (true)
+	{
+	    if (b < 0)
+	    {
+		throw new EOFException("truncated traffic log");
+	    }
+	    n |= (long)(b & 0x7F) << shift;
+	    if ((b & 0x80) == 0)
+	    {
+		return n;
+	    }
+	    shift += 7;
+	    b = in.read();
+	}
+    }
+
+    private static final int MAGIC = 0x4A435452; // "JCTR"
+
+    private DataOutputStream out; // the log, or null once closed
+    private final long origin; // System.nanoTime() at creation
+    private long previous; // send time of the last entry, in microseconds
+    private long count; // exchanges recorded
+}
@@ -0,0 +1,78 @@
+/**
+   VirtualThreadBenchmark measures Javacyc under many concurrent callers.
+   It starts a StandInServer, then has every caller share one Javacyc and
+   call allPathways a number of times, and prints throughput and the
+   number of failed calls.  On a JVM with virtual threads every caller is
+   a virtual thread; otherwise callers run on a pool of platform threads.
+
+   Usage: java VirtualThreadBenchmark [callers [calls-per-caller [socket]]]
+
+   See README file for license details
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class VirtualThreadBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+	int callers = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+	final int calls = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+	String socketName = (args.length > 2) ? args[2]
+	    : "/tmp/javacyc-benchmark-socket";
+
+	StandInServer server = new StandInServer(socketName);
+	server.setListSize(100);
+	server.start();
+	final Javacyc cyc = new Javacyc("ARA", socketName);
+	final AtomicLong failures = new AtomicLong();
+	final CountDownLatch done = new CountDownLatch(callers);
+
+	System.out.println("Callers: " + callers + " ("
+			   + (StandInServer.hasVirtualThreads()
+			      ? "virtual threads" : "platform threads")
+			   + "), calls per caller: " + calls);
+	ExecutorService executor = StandInServer.perTaskExecutor(256);
+	long start = System.nanoTime();
+	for (int i = 0; i < callers; i++)
+	{
+	    executor.execute(new Runnable() {
+		    public void run()
+		    {
+			try
+			{
+			    for (int j = 0; j < calls; j++)
+			    {
+				if (cyc.allPathways().size() != 100)
+				{
+				    failures.incrementAndGet();
+				}
+			    }
+			}
+			catch (RuntimeException e)
+			{
+			    failures.incrementAndGet();
+			}
+			finally
+			{
+			    done.countDown();
+			}
+		    }
+		});
+	}
+	done.await();
+	long elapsed = System.nanoTime() - start;
+	executor.shutdown();
+	server.close();
+
+	long total = (long)callers * calls;
+	double seconds = elapsed / 1e9;
+	System.out.println("Calls: " + total + ", failures: "
+			   + failures.get());
+	System.out.println("Elapsed: " + Math.round(seconds * 1000)
+			   + " ms, throughput: "
+			   + Math.round(total / seconds) + " calls/s");
+    }
+}
@@ -0,0 +1,39 @@
+;;; javacyc.lisp
+;;; Server-side support for Javacyc's binary response encoding.
+;;; See README file for license details
+;;;
+;;; Load this file into Pathway Tools before calling
+;;; setResponseEncoding(Javacyc.ENCODING_BINARY) on a Javacyc:
+;;;	(load "javacyc.lisp")
+;;;
+;;; JAVACYC-ENCODE turns a result into a string in a tagged encoding that
+;;; the Java side decodes without tokenizing:
+;;;	n		NIL
+;;;	l ... e		a list of encoded elements
+;;;	<length>:<text>	a string, or the printed form of any other object
+;;; The length counts characters, not bytes.  Tags and lengths are ASCII,
+;;; but string text and printed forms are written as they are, so a name
+;;; with non-ASCII characters takes more bytes than its length once the
+;;; socket server encodes it; the Java side decodes the text one character
+;;; at a time.  The server prints the encoded string as a lisp string,
+;;; escaping quotes and backslashes, and the Java side removes the escapes.
+
+(defun javacyc-encode (value)
+  "Returns VALUE in Javacyc's binary encoding, as a string."
+  (with-output-to-string (out)
+    (javacyc-write value out)))
+
+(defun javacyc-write (value out)
+  "Writes VALUE to the stream OUT in Javacyc's binary encoding."
+  (cond ((null value)
+         (write-char #\n out))
+        ((consp value)
+         (write-char #\l out)
+         (loop for rest = value then (cdr rest)
+               while (consp rest)
+               do (javacyc-write (car rest) out))
+         (write-char #\e out))
+        (t
+         (let ((text (if (stringp value) value (prin1-to-string value))))
+           (format out "~D:" (length text))
+           (write-string text out)))))